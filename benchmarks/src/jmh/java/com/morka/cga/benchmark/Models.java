@@ -0,0 +1,26 @@
+package com.morka.cga.benchmark;
+
+import java.io.File;
+
+/**
+ * Locates the bundled models, the build passes their directory in the {@code models.dir} system property.
+ */
+final class Models {
+
+    private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    private Models() {
+        throw new AssertionError();
+    }
+
+    static File resolve(String path) {
+        var file = new File(System.getProperty("models.dir", "Models"), path);
+        if (!file.isFile())
+            throw new IllegalStateException("Missing model file " + file.getAbsolutePath());
+        return file;
+    }
+
+    static double megabytes(File file) {
+        return file.length() / BYTES_PER_MEGABYTE;
+    }
+}
@@ -0,0 +1,83 @@
+package com.morka.cga.benchmark;
+
+import com.morka.cga.parser.exception.ObjParserException;
+import com.morka.cga.parser.model.ObjGroup;
+import com.morka.cga.parser.service.ObjFileParser;
+import com.morka.cga.parser.service.ObjFileParserBuilder;
+import com.morka.cga.parser.service.ObjParsingMode;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses bundled obj files. Besides operations per second every mode reports
+ * {@code megabytes} and {@code triangles} counters, which JMH prints as rates per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class ObjParserBenchmark {
+
+    @Param({
+            "monkey_head.obj",
+            "Mimic Chest/Model.obj",
+            "Material Ball/Model.obj",
+            "Pink Soldier/Model.obj",
+            "Intergalactic Spaceship/Model.obj"
+    })
+    public String model;
+
+    @Param({"LINES", "STREAMING", "PARALLEL"})
+    public ObjParsingMode mode;
+
+    private ObjFileParser parser;
+
+    private File file;
+
+    private double megabytes;
+
+    private int triangles;
+
+    @Setup
+    public void setUp() throws ObjParserException {
+        parser = ObjFileParserBuilder.buildObjParser(mode);
+        file = Models.resolve(model);
+        megabytes = Models.megabytes(file);
+        triangles = parser.parse(file, progress -> {
+        }).faces().size();
+    }
+
+    @Benchmark
+    public ObjGroup parse(Throughput throughput) throws ObjParserException {
+        var group = parser.parse(file, progress -> {
+        });
+        throughput.megabytes += megabytes;
+        throughput.triangles += triangles;
+        return group;
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+
+        public double megabytes;
+
+        public long triangles;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+            triangles = 0;
+        }
+    }
+}
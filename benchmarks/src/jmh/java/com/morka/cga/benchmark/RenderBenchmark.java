@@ -0,0 +1,145 @@
+package com.morka.cga.benchmark;
+
+import com.morka.cga.parser.model.IndexedMesh;
+import com.morka.cga.parser.service.ObjFileParserBuilder;
+import com.morka.cga.viewer.model.Vector3D;
+import com.morka.cga.viewer.render.FrameBuffer;
+import com.morka.cga.viewer.render.RenderSettings;
+import com.morka.cga.viewer.render.Renderer;
+import com.morka.cga.viewer.render.Scene;
+import com.morka.cga.viewer.render.Shading;
+import com.morka.cga.viewer.render.SurfaceMaps;
+import com.morka.cga.viewer.utils.GeomUtils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static com.morka.cga.viewer.utils.MatrixUtils.getScaleMatrix;
+
+/**
+ * Renders a frame of a bundled model on a pool of the given number of threads, so the speedup of more threads
+ * shows how well the renderer scales, with pixels shaded one by one, in spans with the Vector API, or deferred.
+ * Reports {@code frames} and {@code triangles} per second, and {@code occluded} triangles per second out of
+ * {@code binned} ones, counted per tile they overlap, to show what occlusion culling saves.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class RenderBenchmark {
+
+    private static final int WIDTH = 1280;
+
+    private static final int HEIGHT = 720;
+
+    @Param({"Pink Soldier/Model.obj", "Tree Man/Model.obj"})
+    public String model;
+
+    @Param({"PHONG", "PBR"})
+    public Shading shading;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"false", "true"})
+    public boolean vectorShading;
+
+    @Param({"false", "true"})
+    public boolean deferredShading;
+
+    @Param({"false", "true"})
+    public boolean occlusionCulling;
+
+    private ForkJoinPool pool;
+
+    private IndexedMesh mesh;
+
+    private float[] normals;
+
+    private Renderer renderer;
+
+    private Scene scene;
+
+    private FrameBuffer frame;
+
+    @Setup
+    public void setUp() throws Exception {
+        mesh = ObjFileParserBuilder.buildObjParser().parseModel(Models.resolve(model), 0, batch -> {
+        }, progress -> {
+        }).mesh();
+        normals = GeomUtils.getVertexNormals(mesh, false);
+        renderer = new Renderer(WIDTH, HEIGHT);
+        frame = new FrameBuffer(WIDTH, HEIGHT);
+        pool = new ForkJoinPool(threads);
+        if (vectorShading && !Renderer.isVectorShadingAvailable())
+            throw new IllegalStateException("Run with --add-modules jdk.incubator.vector");
+
+        var positions = mesh.positions();
+        var radius = 0f;
+        for (var i = 0; i < positions.length; i += 3)
+            radius = Math.max(radius, new Vector3D(positions[i], positions[i + 1], positions[i + 2]).length());
+        var camera = new Vector3D(3, 0, 0);
+        scene = new Scene(
+                getScaleMatrix(Vector3D.from(1 / radius)),
+                camera,
+                new Vector3D[]{new Vector3D(3, 1, 1), new Vector3D(-1, 1, 3)},
+                new SurfaceMaps[]{SurfaceMaps.NONE},
+                RenderSettings.DEFAULT.toBuilder()
+                        .shading(shading)
+                        .vectorShading(vectorShading)
+                        .deferredShading(deferredShading)
+                        .occlusionCulling(occlusionCulling)
+                        .build()
+        );
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public int render(Throughput throughput) {
+        // parallel streams of the renderer run on the pool they are started from
+        var stats = pool.submit(() -> {
+            frame.clear(0xFF000000);
+            return renderer.render(scene, mesh, normals, frame);
+        }).join();
+        throughput.frames++;
+        throughput.triangles += mesh.triangleCount();
+        throughput.binned += stats.binned();
+        throughput.occluded += stats.occluded() + stats.occludedInClusters();
+        return frame.pixels()[WIDTH * HEIGHT / 2 + WIDTH / 2];
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+
+        public long frames;
+
+        public long triangles;
+
+        public long binned;
+
+        public long occluded;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            frames = 0;
+            triangles = 0;
+            binned = 0;
+            occluded = 0;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.morka.cga.benchmark;
+
+import com.morka.cga.parser.model.TextureMap;
+import com.morka.cga.parser.service.ObjFileParserBuilder;
+import com.morka.cga.parser.service.TextureMapParser;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes texture maps of the bundled models, reporting {@code megabytes} of encoded files
+ * and {@code megapixels} of decoded maps per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class TextureParserBenchmark {
+
+    @Param({
+            "Mimic Chest/BaseColor Map.jpg",
+            "Material Ball/MRAO Map.png",
+            "Pink Soldier/Normal Map.png",
+            "Intergalactic Spaceship/Emission Map.jpg"
+    })
+    public String texture;
+
+    private TextureMapParser parser;
+
+    private File file;
+
+    private double megabytes;
+
+    private double megapixels;
+
+    @Setup
+    public void setUp() {
+        parser = ObjFileParserBuilder.buildTextureParser();
+        file = Models.resolve(texture);
+        megabytes = Models.megabytes(file);
+        var map = parser.parse(file);
+        megapixels = (double) map.w() * map.h() / 1_000_000;
+    }
+
+    @Benchmark
+    public TextureMap parse(Throughput throughput) {
+        var map = parser.parse(file);
+        throughput.megabytes += megabytes;
+        throughput.megapixels += megapixels;
+        return map;
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+
+        public double megabytes;
+
+        public double megapixels;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+            megapixels = 0;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.morka.cga.benchmark;
+
+import com.morka.cga.parser.service.ObjFileParserBuilder;
+import com.morka.cga.viewer.texture.MipmappedTexture;
+import com.morka.cga.viewer.texture.TextureFilter;
+import com.morka.cga.viewer.texture.TextureLayout;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples texture maps of the Pink Soldier the way the rasterizer does, scanline by scanline over a screen square
+ * mapped onto the map at an angle, so consecutive pixels walk across texture rows. Reports shaded {@code pixels}
+ * per second. Add the {@code perfnorm} profiler to see cache misses per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class TextureSamplingBenchmark {
+
+    private static final int SCREEN_SIZE = 512;
+
+    private static final double ANGLE = Math.toRadians(60);
+
+    @Param({
+            "Pink Soldier/BaseColor Map.png",
+            "Pink Soldier/Normal Map.png",
+            "Pink Soldier/MRAO Map.png"
+    })
+    public String texture;
+
+    @Param({"ROW_MAJOR", "TILED", "BLOCK_COMPRESSED"})
+    public TextureLayout layout;
+
+    @Param({"BILINEAR", "TRILINEAR"})
+    public TextureFilter filter;
+
+    /**
+     * Texels of the full resolution map a pixel spans.
+     */
+    @Param({"1", "2"})
+    public float texelsPerPixel;
+
+    private MipmappedTexture mipmapped;
+
+    private float dudx;
+
+    private float dvdx;
+
+    private float dudy;
+
+    private float dvdy;
+
+    private float uvLod;
+
+    @Setup
+    public void setUp() {
+        var map = ObjFileParserBuilder.buildTextureParser().parse(Models.resolve(texture));
+        mipmapped = MipmappedTexture.of(map, layout);
+        var step = texelsPerPixel / Math.max(map.w(), map.h());
+        dudx = (float) (Math.cos(ANGLE) * step);
+        dvdx = (float) (Math.sin(ANGLE) * step);
+        dudy = -dvdx;
+        dvdy = dudx;
+        uvLod = MipmappedTexture.uvLod(dudx, dvdx, dudy, dvdy);
+    }
+
+    @Benchmark
+    public int shade(Throughput throughput) {
+        var hash = 0;
+        for (var y = 0; y < SCREEN_SIZE; y++) {
+            var u = 0.1f + y * dudy + 0.5f;
+            var v = 0.1f + y * dvdy;
+            for (var x = 0; x < SCREEN_SIZE; x++) {
+                hash += mipmapped.sample(u, v, uvLod, filter);
+                u += dudx;
+                v += dvdx;
+            }
+        }
+        throughput.pixels += SCREEN_SIZE * SCREEN_SIZE;
+        return hash;
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+
+        public long pixels;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            pixels = 0;
+        }
+    }
+}
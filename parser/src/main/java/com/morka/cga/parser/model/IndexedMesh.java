@@ -0,0 +1,39 @@
+package com.morka.cga.parser.model;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Triangulated mesh stored as flat arrays.
+ * <p>
+ * A vertex is a unique combination of obj position, texture and normal indices. Vertex {@code i} takes
+ * {@code positions[3i..3i+2]}, {@code uvs[2i..2i+1]} and {@code normals[3i..3i+2]}, triangle {@code t}
+ * takes vertices {@code indices[3t..3t+2]}. {@code positionIds[i]} is the zero-based position
+ * the vertex was made of, so vertices split by texture seams can still be told apart from separate positions.
+ * Positions are obj positions, or groups of them when the mesh was parsed with a weld epsilon.
+ *
+ * @param positions     x, y, z of every vertex
+ * @param uvs           u, v of every vertex, {@code null} if the obj has no texture coordinates
+ * @param normals       x, y, z of every vertex, {@code null} unless every face element has a normal
+ * @param indices       three vertex indices per triangle
+ * @param positionIds   position index of every vertex
+ * @param positionCount number of positions
+ * @param adjacency     triangles around every position
+ * @param materials     materials of triangle ranges
+ */
+public record IndexedMesh(float[] positions,
+                          @Nullable float[] uvs,
+                          @Nullable float[] normals,
+                          int[] indices,
+                          int[] positionIds,
+                          int positionCount,
+                          VertexAdjacency adjacency,
+                          MeshMaterials materials) {
+
+    public int vertexCount() {
+        return positionIds.length;
+    }
+
+    public int triangleCount() {
+        return indices.length / 3;
+    }
+}
@@ -0,0 +1,25 @@
+package com.morka.cga.parser.model;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Texture maps of a material read from an mtl file, maps missing from the file or failed to decode are {@code null}.
+ *
+ * @param name          material name
+ * @param diffuseMap    {@code map_Kd}
+ * @param normalMap     {@code norm}, {@code map_Bump} or {@code bump}
+ * @param emissionMap   {@code map_Ke}
+ * @param roughnessMap  {@code map_Pr}
+ * @param metallicMap   {@code map_Pm}, the same instance as the roughness map when both name one file
+ */
+public record Material(String name,
+                       @Nullable TextureMap diffuseMap,
+                       @Nullable TextureMap normalMap,
+                       @Nullable TextureMap emissionMap,
+                       @Nullable TextureMap roughnessMap,
+                       @Nullable TextureMap metallicMap) {
+
+    public static Material empty(String name) {
+        return new Material(name, null, null, null, null, null);
+    }
+}
@@ -0,0 +1,25 @@
+package com.morka.cga.parser.model;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Triangles published while a mesh is still being parsed.
+ * <p>
+ * Batch triangles are not indexed: triangle {@code t} takes corners {@code 3t..3t+2}, corner {@code c} takes
+ * {@code positions[3c..3c+2]}, {@code uvs[2c..2c+1]} and {@code normals[3c..3c+2]}. Batches come in file order,
+ * so together they hold the same triangles as the final {@link IndexedMesh}.
+ *
+ * @param positions     x, y, z of every corner
+ * @param uvs           u, v of every corner, {@code null} if the obj has no texture coordinates so far
+ * @param normals       x, y, z of every corner, {@code null} unless every corner of the batch has a normal
+ * @param firstTriangle index of the first batch triangle in the final mesh
+ */
+public record MeshBatch(float[] positions,
+                        @Nullable float[] uvs,
+                        @Nullable float[] normals,
+                        int firstTriangle) {
+
+    public int triangleCount() {
+        return positions.length / 9;
+    }
+}
@@ -0,0 +1,37 @@
+package com.morka.cga.parser.model;
+
+import java.util.Arrays;
+
+/**
+ * Materials of consecutive triangle ranges of a mesh, as set by {@code usemtl} statements.
+ * <p>
+ * Range {@code r} covers triangles {@code rangeStarts[r]} up to the start of the next range or the end of the mesh
+ * and uses material {@code names[rangeMaterials[r]]}, {@link #NO_MATERIAL} marks triangles before any usemtl.
+ *
+ * @param libraries      material library files named by {@code mtllib}, relative to the obj file
+ * @param names          used material names, a material id is an index into them
+ * @param rangeStarts    first triangle of every range in ascending order
+ * @param rangeMaterials material id of every range
+ */
+public record MeshMaterials(String[] libraries, String[] names, int[] rangeStarts, int[] rangeMaterials) {
+
+    public static final int NO_MATERIAL = -1;
+
+    public static MeshMaterials empty(int triangleCount) {
+        return triangleCount == 0
+                ? new MeshMaterials(new String[0], new String[0], new int[0], new int[0])
+                : new MeshMaterials(new String[0], new String[0], new int[]{0}, new int[]{NO_MATERIAL});
+    }
+
+    public int rangeCount() {
+        return rangeStarts.length;
+    }
+
+    /**
+     * @return material id of the triangle
+     */
+    public int materialOf(int triangle) {
+        var range = Arrays.binarySearch(rangeStarts, triangle);
+        return rangeMaterials[range >= 0 ? range : -range - 2];
+    }
+}
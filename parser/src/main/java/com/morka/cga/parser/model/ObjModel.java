@@ -0,0 +1,12 @@
+package com.morka.cga.parser.model;
+
+import java.util.List;
+
+/**
+ * Mesh together with its materials.
+ *
+ * @param mesh      triangulated mesh
+ * @param materials material of every material id of {@link MeshMaterials}
+ */
+public record ObjModel(IndexedMesh mesh, List<Material> materials) {
+}
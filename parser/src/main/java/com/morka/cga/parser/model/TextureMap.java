@@ -1,7 +1,14 @@
 package com.morka.cga.parser.model;
 
-public record TextureMap(int w, int h, int[][] pixels) {
+/**
+ * Decoded texture.
+ *
+ * @param w      width in texels
+ * @param h      height in texels
+ * @param pixels ARGB texels row by row, texel {@code (x, y)} is {@code pixels[y * w + x]}
+ */
+public record TextureMap(int w, int h, int[] pixels) {
     public int at(int x, int y) {
-        return pixels[y][x];
+        return pixels[y * w + x];
     }
 }
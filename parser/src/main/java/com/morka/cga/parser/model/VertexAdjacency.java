@@ -0,0 +1,19 @@
+package com.morka.cga.parser.model;
+
+/**
+ * Faces around every obj position in compressed sparse row form:
+ * faces of position {@code i} are {@code faces[offsets[i]..offsets[i + 1] - 1]}.
+ *
+ * @param offsets start of every position in {@code faces}, one more item than positions
+ * @param faces   face indices grouped by position
+ */
+public record VertexAdjacency(int[] offsets, int[] faces) {
+
+    public int positionCount() {
+        return offsets.length - 1;
+    }
+
+    public int faceCount(int position) {
+        return offsets[position + 1] - offsets[position];
+    }
+}
@@ -0,0 +1,26 @@
+package com.morka.cga.parser.service;
+
+import com.morka.cga.parser.model.IndexedMesh;
+
+/**
+ * Edges of {@link IndexedMesh}, see {@link ObjFileParser#uniqueEdges(IndexedMesh)}.
+ * An edge is a {@code long} with the first vertex index in the high and the second one in the low 32 bits.
+ */
+public final class MeshEdges {
+
+    private MeshEdges() {
+        throw new AssertionError();
+    }
+
+    public static long pack(int from, int to) {
+        return (long) from << 32 | (to & 0xFFFFFFFFL);
+    }
+
+    public static int from(long edge) {
+        return (int) (edge >>> 32);
+    }
+
+    public static int to(long edge) {
+        return (int) edge;
+    }
+}
@@ -1,10 +1,14 @@
 package com.morka.cga.parser.service;
 
 import com.morka.cga.parser.exception.ObjParserException;
+import com.morka.cga.parser.model.IndexedMesh;
+import com.morka.cga.parser.model.MeshBatch;
 import com.morka.cga.parser.model.ObjGroup;
+import com.morka.cga.parser.model.ObjModel;
 import com.morka.cga.parser.service.impl.ObjFileParserImpl;
 
 import java.io.File;
+import java.util.function.Consumer;
 import java.util.function.DoubleConsumer;
 
 public sealed interface ObjFileParser permits ObjFileParserImpl {
@@ -13,9 +17,78 @@ public sealed interface ObjFileParser permits ObjFileParserImpl {
      * Parses obj file.
      *
      * @param file             obj file
-     * @param progressConsumer progress consumer (being called every processed line)
+     * @param progressConsumer progress consumer (being called with the processed fraction of the file)
      * @return obj group containing lines, vertexes, vertex to faces
      * @throws ObjParserException if IO exception occurs
      */
     ObjGroup parse(File file, DoubleConsumer progressConsumer) throws ObjParserException;
+
+    /**
+     * Parses obj file into a triangulated mesh kept in flat arrays.
+     *
+     * @param file             obj file
+     * @param progressConsumer progress consumer (being called with the processed fraction of the file)
+     * @return indexed mesh with unique vertices and triangle index buffer
+     * @throws ObjParserException if IO exception occurs or the file is malformed
+     */
+    default IndexedMesh parseMesh(File file, DoubleConsumer progressConsumer) throws ObjParserException {
+        return parseMesh(file, 0, progressConsumer);
+    }
+
+    /**
+     * Parses obj file into a triangulated mesh, merging positions closer than the weld epsilon.
+     *
+     * @param file             obj file
+     * @param weldEpsilon      distance below which positions are merged into one, {@code 0} disables welding
+     * @param progressConsumer progress consumer (being called with the processed fraction of the file)
+     * @return indexed mesh with unique vertices and triangle index buffer
+     * @throws ObjParserException if IO exception occurs or the file is malformed
+     */
+    default IndexedMesh parseMesh(File file, float weldEpsilon, DoubleConsumer progressConsumer)
+            throws ObjParserException {
+        return parseMesh(file, weldEpsilon, batch -> {
+        }, progressConsumer);
+    }
+
+    /**
+     * Parses obj file into a triangulated mesh, publishing triangles as soon as they are read,
+     * so the mesh can be drawn before parsing completes. Meshes loaded at once, e.g. from cache
+     * or with {@link ObjParsingMode#PARALLEL}, publish no batches.
+     *
+     * @param file             obj file
+     * @param weldEpsilon      distance below which positions are merged into one, {@code 0} disables welding
+     * @param batchConsumer    consumer of triangle batches (being called on the parsing thread)
+     * @param progressConsumer progress consumer (being called with the processed fraction of the file)
+     * @return indexed mesh with unique vertices and triangle index buffer
+     * @throws ObjParserException if IO exception occurs or the file is malformed
+     */
+    IndexedMesh parseMesh(File file,
+                          float weldEpsilon,
+                          Consumer<MeshBatch> batchConsumer,
+                          DoubleConsumer progressConsumer) throws ObjParserException;
+
+    /**
+     * Parses obj file into a triangulated mesh like {@link #parseMesh(File, float, Consumer, DoubleConsumer)}
+     * and loads materials of its mtl libraries. Textures decode concurrently with geometry parsing.
+     *
+     * @param file             obj file
+     * @param weldEpsilon      distance below which positions are merged into one, {@code 0} disables welding
+     * @param batchConsumer    consumer of triangle batches (being called on the parsing thread)
+     * @param progressConsumer progress consumer (being called with the processed fraction of the file)
+     * @return mesh with a material for every material id, missing libraries and textures are logged and left out
+     * @throws ObjParserException if IO exception occurs or the obj file is malformed
+     */
+    ObjModel parseModel(File file,
+                        float weldEpsilon,
+                        Consumer<MeshBatch> batchConsumer,
+                        DoubleConsumer progressConsumer) throws ObjParserException;
+
+    /**
+     * Gets every edge of the mesh triangles once, no matter how many triangles share it.
+     * Edges are not part of parsing, they are only computed when asked for.
+     *
+     * @param mesh mesh
+     * @return packed vertex pairs in order of first appearance in the index buffer, see {@link MeshEdges}
+     */
+    long[] uniqueEdges(IndexedMesh mesh);
 }
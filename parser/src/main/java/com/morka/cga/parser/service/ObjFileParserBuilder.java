@@ -1,10 +1,17 @@
 package com.morka.cga.parser.service;
 
 import com.morka.cga.parser.service.impl.ObjFileParserImpl;
+import com.morka.cga.parser.service.impl.TextureCacheImpl;
 import com.morka.cga.parser.service.impl.TextureMapParserImpl;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public final class ObjFileParserBuilder {
 
+    private static final int MAX_TEXTURE_DECODERS = 4;
+
     private ObjFileParserBuilder() {
         throw new AssertionError();
     }
@@ -13,7 +20,43 @@ public final class ObjFileParserBuilder {
         return new ObjFileParserImpl();
     }
 
+    public static ObjFileParser buildObjParser(ObjParsingMode mode) {
+        return new ObjFileParserImpl(mode);
+    }
+
+    /**
+     * Builds parser which keeps compiled meshes in binary cache files next to obj files,
+     * so reopening unchanged models skips text parsing.
+     */
+    public static ObjFileParser buildCachingObjParser(ObjParsingMode mode) {
+        return new ObjFileParserImpl(mode, ForkJoinPool.commonPool(), true);
+    }
+
+    /**
+     * Builds parser like {@link #buildCachingObjParser(ObjParsingMode)} which also loads material textures
+     * through the texture cache, so reopening models reuses their decoded maps.
+     */
+    public static ObjFileParser buildCachingObjParser(ObjParsingMode mode, TextureCache textureCache) {
+        return new ObjFileParserImpl(mode, ForkJoinPool.commonPool(), true, textureCache);
+    }
+
     public static TextureMapParser buildTextureParser() {
         return new TextureMapParserImpl();
     }
+
+    /**
+     * Builds texture cache decoding files on a few daemon threads.
+     *
+     * @param budgetBytes bytes of decoded maps to keep
+     */
+    public static TextureCache buildTextureCache(long budgetBytes) {
+        var threads = Math.min(MAX_TEXTURE_DECODERS, Runtime.getRuntime().availableProcessors());
+        var counter = new AtomicInteger();
+        var executor = Executors.newFixedThreadPool(threads, task -> {
+            var thread = new Thread(task, "texture-decoder-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        return new TextureCacheImpl(new TextureMapParserImpl(), executor, budgetBytes);
+    }
 }
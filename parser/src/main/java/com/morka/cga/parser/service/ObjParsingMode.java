@@ -0,0 +1,22 @@
+package com.morka.cga.parser.service;
+
+/**
+ * Strategy used by {@link ObjFileParser} to read an obj file.
+ */
+public enum ObjParsingMode {
+
+    /**
+     * Reads all lines into memory and splits every line with regular expressions.
+     */
+    LINES,
+
+    /**
+     * Streams file bytes through a hand-written ASCII tokenizer without per-line allocations.
+     */
+    STREAMING,
+
+    /**
+     * Splits the file into line aligned byte ranges and tokenizes them concurrently on a fork-join pool.
+     */
+    PARALLEL
+}
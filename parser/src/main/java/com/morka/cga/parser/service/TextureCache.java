@@ -0,0 +1,46 @@
+package com.morka.cga.parser.service;
+
+import com.morka.cga.parser.model.TextureMap;
+import com.morka.cga.parser.service.impl.TextureCacheImpl;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Decoded texture maps shared between loads. A file is decoded once as long as it is not modified
+ * and its map is not evicted. Maps used least recently are evicted when decoded maps take more
+ * memory than the budget.
+ */
+public sealed interface TextureCache permits TextureCacheImpl {
+
+    /**
+     * Gets the map of an image file, decoding it in the background unless it is cached or already being decoded.
+     *
+     * @param file image file
+     * @return future of the map, completed exceptionally if the file can not be read or decoded
+     */
+    CompletableFuture<TextureMap> load(File file);
+
+    /**
+     * @return bytes of decoded maps above which least recently used maps are evicted
+     */
+    long budgetBytes();
+
+    /**
+     * @return bytes taken by decoded maps in the cache
+     */
+    long usedBytes();
+
+    /**
+     * Stops holding the map, for maps the caller keeps in a more compact form such as block compressed textures,
+     * so the budget only counts maps kept as pixels. Loading the file again decodes it anew.
+     *
+     * @param map map handed out by {@link #load(File)}, other maps are ignored
+     */
+    void release(TextureMap map);
+
+    /**
+     * Drops all decoded maps, maps being decoded are kept.
+     */
+    void clear();
+}
@@ -0,0 +1,111 @@
+package com.morka.cga.parser.service.impl;
+
+import com.morka.cga.parser.model.IndexedMesh;
+import com.morka.cga.parser.service.MeshEdges;
+
+import java.util.stream.IntStream;
+
+/**
+ * Finds unique undirected triangle edges of a mesh.
+ * <p>
+ * Edges are told apart by the positions of their ends, so edges split by texture seams count once.
+ * Every triangle side gets a slot with a packed position pair key. Keys are spread over shards by hash,
+ * slots are first partitioned by shard in two passes over fixed size chunks, counting and then scattering them,
+ * so every shard only visits its own slots, still in slot order. Every shard keeps the first slot of each of its keys
+ * in a primitive hash map, and the kept slots are collected in slot order, so the result does not depend
+ * on the number of shards.
+ */
+final class EdgeExtractor {
+
+    /**
+     * Slots partitioned by one task, fixed so the partition does not depend on the number of threads.
+     */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private EdgeExtractor() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Runs parallel streams, so it is called in the pool the work should run in.
+     *
+     * @param parallelism threads of the pool, there are as many shards rounded up to a power of two
+     * @return unique edges as packed vertex pairs, see {@link MeshEdges#pack(int, int)}
+     */
+    static long[] extract(IndexedMesh mesh, int parallelism) {
+        var indices = mesh.indices();
+        var positionIds = mesh.positionIds();
+        var keys = new long[indices.length];
+        IntStream.range(0, mesh.triangleCount()).parallel().forEach(triangle -> {
+            for (var side = 0; side < 3; side++) {
+                var slot = triangle * 3 + side;
+                var from = positionIds[indices[slot]];
+                var to = positionIds[indices[triangle * 3 + (side + 1) % 3]];
+                keys[slot] = MeshEdges.pack(Math.min(from, to), Math.max(from, to));
+            }
+        });
+
+        var shardBits = 32 - Integer.numberOfLeadingZeros(parallelism - 1);
+        var shardCount = 1 << shardBits;
+        var chunkCount = (keys.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        var offsets = new int[chunkCount][];
+        IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+            var counts = new int[shardCount];
+            var end = Math.min(keys.length, (chunk + 1) * CHUNK_SIZE);
+            for (var slot = chunk * CHUNK_SIZE; slot < end; slot++)
+                counts[shard(keys[slot], shardBits)]++;
+            offsets[chunk] = counts;
+        });
+
+        var starts = new int[shardCount + 1];
+        var total = 0;
+        for (var shard = 0; shard < shardCount; shard++) {
+            starts[shard] = total;
+            for (var chunk = 0; chunk < chunkCount; chunk++) {
+                var count = offsets[chunk][shard];
+                offsets[chunk][shard] = total;
+                total += count;
+            }
+        }
+        starts[shardCount] = total;
+
+        var slots = new int[keys.length];
+        IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+            var next = offsets[chunk];
+            var end = Math.min(keys.length, (chunk + 1) * CHUNK_SIZE);
+            for (var slot = chunk * CHUNK_SIZE; slot < end; slot++)
+                slots[next[shard(keys[slot], shardBits)]++] = slot;
+        });
+
+        var firstSlots = new boolean[keys.length];
+        IntStream.range(0, shardCount).parallel().forEach(shard -> {
+            // each edge but boundary ones is shared by two triangles
+            var seen = new LongIntHashMap(((starts[shard + 1] - starts[shard]) >>> 1) + 1);
+            for (var i = starts[shard]; i < starts[shard + 1]; i++) {
+                var slot = slots[i];
+                if (seen.putIfAbsent(keys[slot], slot) == LongIntHashMap.ABSENT)
+                    firstSlots[slot] = true;
+            }
+        });
+
+        var count = 0;
+        for (var first : firstSlots)
+            if (first)
+                count++;
+
+        var edges = new long[count];
+        var edge = 0;
+        for (var slot = 0; slot < keys.length; slot++) {
+            if (!firstSlots[slot])
+                continue;
+            var triangle = slot / 3;
+            var next = triangle * 3 + (slot - triangle * 3 + 1) % 3;
+            edges[edge++] = MeshEdges.pack(indices[slot], indices[next]);
+        }
+        return edges;
+    }
+
+    private static int shard(long key, int shardBits) {
+        return shardBits == 0 ? 0 : LongIntHashMap.hash(key) >>> (32 - shardBits);
+    }
+}
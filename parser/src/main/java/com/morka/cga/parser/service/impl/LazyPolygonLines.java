@@ -0,0 +1,49 @@
+package com.morka.cga.parser.service.impl;
+
+import com.morka.cga.parser.model.Face;
+import com.morka.cga.parser.model.Line;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unmodifiable polygon edge lines of {@link com.morka.cga.parser.model.ObjGroup}, built on first access,
+ * so parses which never look at lines do not allocate them.
+ */
+final class LazyPolygonLines extends AbstractList<Line> {
+
+    private final Face[] polygons;
+
+    private volatile List<Line> lines;
+
+    LazyPolygonLines(Face[] polygons) {
+        this.polygons = polygons;
+    }
+
+    private List<Line> lines() {
+        var result = lines;
+        if (result == null) {
+            synchronized (this) {
+                result = lines;
+                if (result == null) {
+                    var built = new ArrayList<Line>();
+                    for (var polygon : polygons)
+                        ObjFileParserImpl.addLines(polygon, built);
+                    lines = result = built;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Line get(int index) {
+        return lines().get(index);
+    }
+
+    @Override
+    public int size() {
+        return lines().size();
+    }
+}
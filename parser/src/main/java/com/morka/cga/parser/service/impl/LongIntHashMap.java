@@ -0,0 +1,113 @@
+package com.morka.cga.parser.service.impl;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from {@code long} keys to non-negative {@code int} values.
+ * <p>
+ * Keys and values live in two parallel arrays with linear probing, so lookups neither box nor allocate.
+ * There is no removal, which is all the load-time passes need.
+ */
+final class LongIntHashMap {
+
+    static final int ABSENT = -1;
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+
+    private int[] values;
+
+    private int mask;
+
+    private int size;
+
+    LongIntHashMap(int expectedSize) {
+        var capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Finalization step of MurmurHash3, spreads packed keys over all bits.
+     */
+    static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, ABSENT);
+        mask = capacity - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int get(long key) {
+        for (var slot = hash(key) & mask; values[slot] != ABSENT; slot = (slot + 1) & mask)
+            if (keys[slot] == key)
+                return values[slot];
+        return ABSENT;
+    }
+
+    /**
+     * Associates the value with the key unless the key is already present.
+     *
+     * @param value non-negative value
+     * @return value already associated with the key, or {@link #ABSENT} if the value was put
+     */
+    int putIfAbsent(long key, int value) {
+        var slot = hash(key) & mask;
+        for (; values[slot] != ABSENT; slot = (slot + 1) & mask)
+            if (keys[slot] == key)
+                return values[slot];
+
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length * LOAD_FACTOR)
+            grow();
+        return ABSENT;
+    }
+
+    /**
+     * Associates the value with the key, replacing any previous value.
+     *
+     * @param value non-negative value
+     */
+    void put(long key, int value) {
+        var slot = hash(key) & mask;
+        for (; values[slot] != ABSENT; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length * LOAD_FACTOR)
+            grow();
+    }
+
+    private void grow() {
+        var oldKeys = keys;
+        var oldValues = values;
+        allocate(oldKeys.length * 2);
+        for (var i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] == ABSENT)
+                continue;
+            var slot = hash(oldKeys[i]) & mask;
+            while (values[slot] != ABSENT)
+                slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.morka.cga.parser.service.impl;
+
+import com.morka.cga.parser.model.Material;
+import com.morka.cga.parser.model.TextureMap;
+import com.morka.cga.parser.service.TextureCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads mtl material libraries and decodes the textures they name.
+ * <p>
+ * Libraries are read as soon as the obj parser meets them, every texture file is requested from the texture cache
+ * right away, so textures decode while geometry is still being parsed. A file named by several materials is decoded once.
+ */
+final class MaterialLoader {
+
+    private static final Logger LOGGER = Logger.getLogger(MaterialLoader.class.getName());
+
+    private static final Map<String, Integer> OPTION_ARGUMENTS = Map.ofEntries(
+            Map.entry("-blendu", 1), Map.entry("-blendv", 1), Map.entry("-bm", 1), Map.entry("-boost", 1),
+            Map.entry("-cc", 1), Map.entry("-clamp", 1), Map.entry("-imfchan", 1), Map.entry("-mm", 2),
+            Map.entry("-o", 3), Map.entry("-s", 3), Map.entry("-t", 3), Map.entry("-texres", 1),
+            Map.entry("-type", 1)
+    );
+
+    private final File directory;
+
+    private final TextureCache textureCache;
+
+    private final Set<String> libraries = new HashSet<>();
+
+    private final Map<String, MaterialFiles> materials = new HashMap<>();
+
+    private final Map<File, CompletableFuture<TextureMap>> textures = new HashMap<>();
+
+    /**
+     * @param directory directory of the obj file, library and texture paths are relative to it
+     */
+    MaterialLoader(File directory, TextureCache textureCache) {
+        this.directory = directory;
+        this.textureCache = textureCache;
+    }
+
+    /**
+     * Reads libraries of a {@code mtllib} statement and starts decoding their textures.
+     * Unreadable libraries are logged and skipped.
+     */
+    synchronized void loadLibrary(String statement) {
+        for (var name : fileNames(statement)) {
+            if (!libraries.add(name))
+                continue;
+
+            var file = resolve(directory, name);
+            try {
+                readLibrary(file);
+            } catch (NoSuchFileException e) {
+                LOGGER.warning("Material library " + file + " does not exist");
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not read material library " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Waits for textures of the materials.
+     *
+     * @param names material names
+     * @return material of every name, materials missing from the libraries have no maps
+     */
+    synchronized List<Material> materials(String[] names) {
+        var result = new ArrayList<Material>(names.length);
+        for (var name : names) {
+            var files = materials.get(name);
+            if (files == null) {
+                LOGGER.warning("Material " + name + " is not defined in " + libraries);
+                result.add(Material.empty(name));
+                continue;
+            }
+
+            result.add(new Material(
+                    name,
+                    awaitTexture(files.diffuse),
+                    awaitTexture(files.normal),
+                    awaitTexture(files.emission),
+                    awaitTexture(files.roughness),
+                    awaitTexture(files.metallic)
+            ));
+        }
+        return result;
+    }
+
+    /**
+     * A statement names one library, or several separated by spaces. Names with spaces are kept whole
+     * when such a file exists.
+     */
+    private List<String> fileNames(String statement) {
+        if (statement.isEmpty() || resolve(directory, statement).isFile())
+            return List.of(statement);
+        return List.of(statement.split("\\s+"));
+    }
+
+    private static File resolve(File directory, String path) {
+        var file = new File(path.replace('\\', '/'));
+        return file.isAbsolute() ? file : new File(directory, file.getPath());
+    }
+
+    private void readLibrary(File library) throws IOException {
+        var libraryDirectory = library.getParentFile();
+        MaterialFiles current = null;
+        for (var line : Files.readAllLines(library.toPath(), StandardCharsets.UTF_8)) {
+            var trimmed = line.strip();
+            if (trimmed.isEmpty() || trimmed.startsWith("#"))
+                continue;
+
+            var parts = trimmed.split("\\s+", 2);
+            var keyword = parts[0].toLowerCase(Locale.ROOT);
+            var argument = parts.length > 1 ? parts[1] : "";
+            if (keyword.equals("newmtl")) {
+                current = new MaterialFiles();
+                materials.put(argument, current);
+                continue;
+            }
+            if (current == null || argument.isEmpty())
+                continue;
+
+            switch (keyword) {
+                case "map_kd" -> current.diffuse = submitTexture(libraryDirectory, argument);
+                case "norm", "map_bump", "bump" -> current.normal = submitTexture(libraryDirectory, argument);
+                case "map_ke" -> current.emission = submitTexture(libraryDirectory, argument);
+                case "map_pr" -> current.roughness = submitTexture(libraryDirectory, argument);
+                case "map_pm" -> current.metallic = submitTexture(libraryDirectory, argument);
+                default -> {
+                    // colors, scalars and maps the viewer does not use
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts decoding the texture of a map statement, which may have options before the file name.
+     */
+    private File submitTexture(File libraryDirectory, String argument) {
+        var file = resolve(libraryDirectory, argument);
+        if (!file.isFile()) {
+            var tokens = argument.split("\\s+");
+            var first = 0;
+            while (first < tokens.length - 1 && OPTION_ARGUMENTS.containsKey(tokens[first])) {
+                var arguments = OPTION_ARGUMENTS.get(tokens[first++]);
+                // -o, -s and -t take one to three numbers
+                for (var i = 0; i < arguments && first < tokens.length - 1 && (i == 0 || isNumber(tokens[first])); i++)
+                    first++;
+            }
+            file = resolve(libraryDirectory, String.join(" ", List.of(tokens).subList(first, tokens.length)));
+        }
+
+        var key = file.getAbsoluteFile();
+        textures.computeIfAbsent(key, textureCache::load);
+        return key;
+    }
+
+    private static boolean isNumber(String token) {
+        try {
+            Double.parseDouble(token);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private TextureMap awaitTexture(File file) {
+        if (file == null)
+            return null;
+        try {
+            return textures.get(file).join();
+        } catch (CompletionException e) {
+            LOGGER.log(Level.WARNING, "Could not decode texture " + file, e.getCause());
+            return null;
+        }
+    }
+
+    private static final class MaterialFiles {
+        File diffuse;
+        File normal;
+        File emission;
+        File roughness;
+        File metallic;
+    }
+}
@@ -0,0 +1,103 @@
+package com.morka.cga.parser.service.impl;
+
+import com.morka.cga.parser.model.MeshBatch;
+
+import java.util.function.Consumer;
+
+/**
+ * Cuts faces read so far into {@link MeshBatch}es.
+ * <p>
+ * The first batch is small so something can be drawn early, every next one is twice as large up to a limit,
+ * which keeps the number of batches logarithmic in the mesh size.
+ */
+final class MeshBatchPublisher {
+
+    private static final int FIRST_BATCH_TRIANGLES = 1 << 10;
+
+    private static final int MAX_BATCH_TRIANGLES = 1 << 16;
+
+    private final ObjData data;
+
+    private final Consumer<MeshBatch> consumer;
+
+    private int publishedFaces;
+
+    private int publishedTriangles;
+
+    private int batchTriangles = FIRST_BATCH_TRIANGLES;
+
+    MeshBatchPublisher(ObjData data, Consumer<MeshBatch> consumer) {
+        this.data = data;
+        this.consumer = consumer;
+    }
+
+    /**
+     * Publishes faces read since the last batch if there are enough of them.
+     */
+    void publishIfReady() {
+        if (pendingTriangles() < batchTriangles)
+            return;
+
+        publish();
+        batchTriangles = Math.min(batchTriangles * 2, MAX_BATCH_TRIANGLES);
+    }
+
+    /**
+     * Publishes all faces read since the last batch.
+     */
+    void publishRemaining() {
+        if (pendingTriangles() > 0)
+            publish();
+    }
+
+    private int pendingTriangles() {
+        var corners = data.cornerCount - data.faceStarts[publishedFaces];
+        return corners - 2 * (data.faceCount - publishedFaces);
+    }
+
+    private void publish() {
+        var triangles = pendingTriangles();
+        var positions = new float[triangles * 9];
+        var uvs = data.textureCount > 0 ? new float[triangles * 6] : null;
+        var normals = new float[triangles * 9];
+        var hasNormals = true;
+        var corner = 0;
+        for (var face = publishedFaces; face < data.faceCount; face++) {
+            var start = data.faceStarts[face];
+            var end = data.faceStarts[face + 1];
+            for (var second = start + 1; second < end - 1; second++) {
+                hasNormals &= copyCorner(start, corner++, positions, uvs, normals);
+                hasNormals &= copyCorner(second, corner++, positions, uvs, normals);
+                hasNormals &= copyCorner(second + 1, corner++, positions, uvs, normals);
+            }
+        }
+
+        consumer.accept(new MeshBatch(positions, uvs, hasNormals ? normals : null, publishedTriangles));
+        publishedFaces = data.faceCount;
+        publishedTriangles += triangles;
+    }
+
+    /**
+     * @return whether the corner has a normal
+     */
+    private boolean copyCorner(int source, int target, float[] positions, float[] uvs, float[] normals) {
+        var offset = source * ObjData.CORNER_STRIDE;
+        var position = data.corners[offset] * ObjData.POSITION_STRIDE;
+        var w = data.positions[position + 3];
+        positions[target * 3] = data.positions[position] / w;
+        positions[target * 3 + 1] = data.positions[position + 1] / w;
+        positions[target * 3 + 2] = data.positions[position + 2] / w;
+
+        var texture = data.corners[offset + 1];
+        if (uvs != null && texture >= 0) {
+            uvs[target * 2] = data.textures[texture * ObjData.TEXTURE_STRIDE];
+            uvs[target * 2 + 1] = data.textures[texture * ObjData.TEXTURE_STRIDE + 1];
+        }
+
+        var normal = data.corners[offset + 2];
+        if (normal < 0)
+            return false;
+        System.arraycopy(data.normals, normal * ObjData.NORMAL_STRIDE, normals, target * 3, 3);
+        return true;
+    }
+}
@@ -0,0 +1,343 @@
+package com.morka.cga.parser.service.impl;
+
+import com.morka.cga.parser.model.IndexedMesh;
+import com.morka.cga.parser.model.MeshMaterials;
+import com.morka.cga.parser.model.VertexAdjacency;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Binary sidecar cache of compiled meshes.
+ * <p>
+ * The cache lives next to the obj file as {@code <name>.obj.meshcache}. Its header keeps the canonical
+ * path, size and modification time of the source and the weld epsilon, so a cache of a changed or moved file is treated as stale.
+ * Caches are written in chunks to a temporary file and moved in place, and read through a memory mapping
+ * with bulk copies into the mesh arrays. A CRC-32 of everything before it ends the file, so truncated
+ * or corrupted caches are parsed again rather than giving wrong geometry.
+ */
+final class MeshCache {
+
+    static final String EXTENSION = ".meshcache";
+
+    private static final Logger LOGGER = Logger.getLogger(MeshCache.class.getName());
+
+    private static final int MAGIC = 0x4F424A4D;
+
+    private static final int VERSION = 4;
+
+    private static final int FLAG_UVS = 1;
+
+    private static final int FLAG_NORMALS = 2;
+
+    private MeshCache() {
+        throw new AssertionError();
+    }
+
+    static Path cachePath(File obj) {
+        return obj.toPath().resolveSibling(obj.getName() + EXTENSION);
+    }
+
+    private static byte[] sourceKey(Path source) throws IOException {
+        return source.toRealPath().toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Loads mesh cached for the obj file.
+     *
+     * @return cached mesh, empty if there is no cache or it is stale, welded differently or unreadable
+     */
+    static Optional<IndexedMesh> load(File obj, float weldEpsilon) {
+        var cache = cachePath(obj);
+        if (!Files.isRegularFile(cache))
+            return Optional.empty();
+
+        try (var channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.limit() < Integer.BYTES
+                    || buffer.getInt(buffer.limit() - Integer.BYTES) != checksum(buffer, buffer.limit() - Integer.BYTES))
+                return Optional.empty();
+
+            var source = obj.toPath();
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getLong() != Files.size(source)
+                    || buffer.getLong() != Files.getLastModifiedTime(source).toMillis()
+                    || Float.floatToIntBits(buffer.getFloat()) != Float.floatToIntBits(weldEpsilon))
+                return Optional.empty();
+
+            var key = new byte[buffer.getInt()];
+            buffer.get(key);
+            buffer.position(buffer.position() + padding(key.length));
+            if (!Arrays.equals(key, sourceKey(source)))
+                return Optional.empty();
+
+            var flags = buffer.getInt();
+            var vertexCount = buffer.getInt();
+            var indexCount = buffer.getInt();
+            var positionCount = buffer.getInt();
+
+            var positions = readFloats(buffer, vertexCount * 3);
+            var uvs = (flags & FLAG_UVS) != 0 ? readFloats(buffer, vertexCount * 2) : null;
+            var normals = (flags & FLAG_NORMALS) != 0 ? readFloats(buffer, vertexCount * 3) : null;
+            var indices = readInts(buffer, indexCount);
+            var positionIds = readInts(buffer, vertexCount);
+            var adjacency = new VertexAdjacency(readInts(buffer, positionCount + 1), readInts(buffer, indexCount));
+            var libraries = readStrings(buffer);
+            var names = readStrings(buffer);
+            var rangeCount = buffer.getInt();
+            var materials = new MeshMaterials(libraries, names, readInts(buffer, rangeCount), readInts(buffer, rangeCount));
+            return Optional.of(new IndexedMesh(positions, uvs, normals, indices, positionIds, positionCount, adjacency,
+                    materials));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Ignoring unreadable mesh cache " + cache, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Writes the mesh cache of the obj file. Failures are logged and otherwise ignored,
+     * e.g. when the model directory is read-only.
+     */
+    static void store(File obj, float weldEpsilon, IndexedMesh mesh) {
+        var cache = cachePath(obj);
+        Path temp = null;
+        try {
+            var source = obj.toPath();
+            var key = sourceKey(source);
+            var uvs = mesh.uvs();
+            var normals = mesh.normals();
+            var adjacency = mesh.adjacency();
+            long floats = mesh.positions().length
+                    + (uvs != null ? uvs.length : 0)
+                    + (normals != null ? normals.length : 0);
+            long ints = mesh.indices().length + mesh.positionIds().length
+                    + adjacency.offsets().length + adjacency.faces().length;
+            var materials = mesh.materials();
+            var libraries = encode(materials.libraries());
+            var names = encode(materials.names());
+            ints += 1 + 2L * materials.rangeCount();
+            long size = 4 + 4 + 8 + 8 + 4 + 4 + key.length + padding(key.length) + 4 * 4 + (floats + ints) * 4
+                    + size(libraries) + size(names) + 4;
+            if (size > Integer.MAX_VALUE) {
+                // a single mapping can not read it back
+                LOGGER.fine(() -> "Not caching mesh of " + size + " bytes " + cache);
+                return;
+            }
+
+            // created like any other file rather than as a private temporary one, so the cache gets usual permissions
+            temp = cache.resolveSibling(cache.getFileName() + "."
+                    + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + ".tmp");
+            try (var channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                var output = new Output(channel);
+                output.putInt(MAGIC)
+                        .putInt(VERSION)
+                        .putLong(Files.size(source))
+                        .putLong(Files.getLastModifiedTime(source).toMillis())
+                        .putFloat(weldEpsilon)
+                        .putInt(key.length)
+                        .put(key)
+                        .put(new byte[padding(key.length)])
+                        .putInt((uvs != null ? FLAG_UVS : 0) | (normals != null ? FLAG_NORMALS : 0))
+                        .putInt(mesh.vertexCount())
+                        .putInt(mesh.indices().length)
+                        .putInt(mesh.positionCount());
+                output.putFloats(mesh.positions());
+                if (uvs != null)
+                    output.putFloats(uvs);
+                if (normals != null)
+                    output.putFloats(normals);
+                output.putInts(mesh.indices());
+                output.putInts(mesh.positionIds());
+                output.putInts(adjacency.offsets());
+                output.putInts(adjacency.faces());
+                output.putStrings(libraries);
+                output.putStrings(names);
+                output.putInt(materials.rangeCount());
+                output.putInts(materials.rangeStarts());
+                output.putInts(materials.rangeMaterials());
+                output.finish();
+                channel.force(false);
+            }
+            Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not write mesh cache " + cache, e);
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // nothing else to clean up
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the CRC-32 of the bytes of the buffer before the position, leaving the buffer as it is.
+     */
+    private static int checksum(ByteBuffer buffer, int end) {
+        var crc = new CRC32();
+        crc.update(buffer.duplicate().position(0).limit(end));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Keeps arrays 4-byte aligned after the variable length source key.
+     */
+    private static int padding(int length) {
+        return -length & 3;
+    }
+
+    private static byte[][] encode(String[] strings) {
+        var result = new byte[strings.length][];
+        for (var i = 0; i < strings.length; i++)
+            result[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+        return result;
+    }
+
+    /**
+     * Strings are stored as a count followed by length prefixed, padded UTF-8 bytes.
+     */
+    private static long size(byte[][] strings) {
+        long size = 4;
+        for (var string : strings)
+            size += 4 + string.length + padding(string.length);
+        return size;
+    }
+
+    private static String[] readStrings(ByteBuffer buffer) {
+        var result = new String[buffer.getInt()];
+        for (var i = 0; i < result.length; i++) {
+            var bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            buffer.position(buffer.position() + padding(bytes.length));
+            result[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return result;
+    }
+
+    private static float[] readFloats(ByteBuffer buffer, int count) {
+        var result = new float[count];
+        buffer.asFloatBuffer().get(result);
+        buffer.position(buffer.position() + count * Float.BYTES);
+        return result;
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        var result = new int[count];
+        buffer.asIntBuffer().get(result);
+        buffer.position(buffer.position() + count * Integer.BYTES);
+        return result;
+    }
+
+    /**
+     * Writes the cache through a reused direct buffer in chunks, so writing neither maps the file nor copies
+     * the mesh into one large array. The CRC-32 is updated with every chunk written.
+     */
+    private static final class Output {
+
+        private static final int CHUNK_BYTES = 1 << 20;
+
+        private final FileChannel channel;
+
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        private final CRC32 crc = new CRC32();
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        Output putInt(int value) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+            return this;
+        }
+
+        Output putLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+            return this;
+        }
+
+        Output putFloat(float value) throws IOException {
+            ensure(Float.BYTES);
+            buffer.putFloat(value);
+            return this;
+        }
+
+        Output put(byte[] bytes) throws IOException {
+            for (var offset = 0; offset < bytes.length; ) {
+                ensure(1);
+                var count = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, count);
+                offset += count;
+            }
+            return this;
+        }
+
+        void putFloats(float[] items) throws IOException {
+            for (var offset = 0; offset < items.length; ) {
+                ensure(Float.BYTES);
+                var count = Math.min(buffer.remaining() / Float.BYTES, items.length - offset);
+                buffer.asFloatBuffer().put(items, offset, count);
+                buffer.position(buffer.position() + count * Float.BYTES);
+                offset += count;
+            }
+        }
+
+        void putInts(int[] items) throws IOException {
+            for (var offset = 0; offset < items.length; ) {
+                ensure(Integer.BYTES);
+                var count = Math.min(buffer.remaining() / Integer.BYTES, items.length - offset);
+                buffer.asIntBuffer().put(items, offset, count);
+                buffer.position(buffer.position() + count * Integer.BYTES);
+                offset += count;
+            }
+        }
+
+        /**
+         * Strings are stored as a count followed by length prefixed, padded UTF-8 bytes.
+         */
+        void putStrings(byte[][] strings) throws IOException {
+            putInt(strings.length);
+            for (var string : strings)
+                putInt(string.length).put(string).put(new byte[padding(string.length)]);
+        }
+
+        /**
+         * Writes what is buffered followed by the CRC-32 of everything written.
+         */
+        void finish() throws IOException {
+            flush();
+            buffer.putInt((int) crc.getValue());
+            flush();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes)
+                flush();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.morka.cga.parser.service.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Raw obj geometry kept in growable primitive arrays.
+ * <p>
+ * Every corner takes {@link #CORNER_STRIDE} ints: zero-based vertex, texture and normal indices,
+ * {@code -1} marks an absent index. Polygons are stored as ranges of corners.
+ */
+final class ObjData {
+
+    static final int POSITION_STRIDE = 4;
+
+    static final int TEXTURE_STRIDE = 3;
+
+    static final int NORMAL_STRIDE = 3;
+
+    static final int CORNER_STRIDE = 3;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    float[] positions;
+
+    int positionCount;
+
+    float[] textures;
+
+    int textureCount;
+
+    float[] normals;
+
+    int normalCount;
+
+    int[] corners;
+
+    int cornerCount;
+
+    /**
+     * Index of the first corner of every polygon, polygon {@code i} ends where polygon {@code i + 1} starts.
+     */
+    int[] faceStarts;
+
+    int faceCount;
+
+    /**
+     * Material library statements in file order.
+     */
+    final List<String> materialLibraries = new ArrayList<>();
+
+    /**
+     * Material names of usemtl statements in file order.
+     */
+    final List<String> materialUses = new ArrayList<>();
+
+    /**
+     * Index of the first face every usemtl statement applies to.
+     */
+    int[] materialUseFaces = new int[4];
+
+    ObjData() {
+        this(INITIAL_CAPACITY, INITIAL_CAPACITY, INITIAL_CAPACITY, INITIAL_CAPACITY, INITIAL_CAPACITY);
+    }
+
+    ObjData(int positionCapacity, int textureCapacity, int normalCapacity, int cornerCapacity, int faceCapacity) {
+        positions = new float[positionCapacity * POSITION_STRIDE];
+        textures = new float[textureCapacity * TEXTURE_STRIDE];
+        normals = new float[normalCapacity * NORMAL_STRIDE];
+        corners = new int[cornerCapacity * CORNER_STRIDE];
+        faceStarts = new int[faceCapacity + 1];
+    }
+
+    private ObjData(ObjData target) {
+        positions = target.positions;
+        textures = target.textures;
+        normals = target.normals;
+        corners = target.corners;
+        faceStarts = target.faceStarts;
+    }
+
+    private static float[] ensure(float[] array, int size) {
+        return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+    }
+
+    private static int[] ensure(int[] array, int size) {
+        return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+    }
+
+    void addPosition(float x, float y, float z, float w) {
+        positions = ensure(positions, (positionCount + 1) * POSITION_STRIDE);
+        var offset = positionCount++ * POSITION_STRIDE;
+        positions[offset] = x;
+        positions[offset + 1] = y;
+        positions[offset + 2] = z;
+        positions[offset + 3] = w;
+    }
+
+    void addTexture(float u, float v, float w) {
+        textures = ensure(textures, (textureCount + 1) * TEXTURE_STRIDE);
+        var offset = textureCount++ * TEXTURE_STRIDE;
+        textures[offset] = u;
+        textures[offset + 1] = v;
+        textures[offset + 2] = w;
+    }
+
+    void addNormal(float x, float y, float z) {
+        normals = ensure(normals, (normalCount + 1) * NORMAL_STRIDE);
+        var offset = normalCount++ * NORMAL_STRIDE;
+        normals[offset] = x;
+        normals[offset + 1] = y;
+        normals[offset + 2] = z;
+    }
+
+    void addCorner(int vertex, int texture, int normal) {
+        corners = ensure(corners, (cornerCount + 1) * CORNER_STRIDE);
+        var offset = cornerCount++ * CORNER_STRIDE;
+        corners[offset] = vertex;
+        corners[offset + 1] = texture;
+        corners[offset + 2] = normal;
+    }
+
+    /**
+     * Closes the polygon made of corners added since the previous call.
+     * Polygons with less than three corners are dropped.
+     */
+    void endFace() {
+        var start = faceStarts[faceCount];
+        if (cornerCount - start < 3) {
+            cornerCount = start;
+            return;
+        }
+        faceStarts = ensure(faceStarts, faceCount + 2);
+        faceStarts[++faceCount] = cornerCount;
+    }
+
+    void useMaterial(String name) {
+        materialUseFaces = ensure(materialUseFaces, materialUses.size() + 1);
+        materialUseFaces[materialUses.size()] = faceCount;
+        materialUses.add(name);
+    }
+
+    /**
+     * Appends material statements of a view filled after the statements already here.
+     */
+    void addMaterials(ObjData view) {
+        materialLibraries.addAll(view.materialLibraries);
+        for (var i = 0; i < view.materialUses.size(); i++) {
+            materialUseFaces = ensure(materialUseFaces, materialUses.size() + 1);
+            materialUseFaces[materialUses.size()] = view.materialUseFaces[i];
+            materialUses.add(view.materialUses.get(i));
+        }
+    }
+
+    /**
+     * Creates a view sharing the arrays of this data which appends right after the given counts.
+     * Views over disjoint ranges of preallocated arrays can be filled from different threads.
+     * Material statements of a view are kept by the view until {@link #addMaterials} is called.
+     */
+    ObjData slice(int positionOffset, int textureOffset, int normalOffset, int cornerOffset, int faceOffset) {
+        var view = new ObjData(this);
+        view.positionCount = positionOffset;
+        view.textureCount = textureOffset;
+        view.normalCount = normalOffset;
+        view.cornerCount = cornerOffset;
+        view.faceCount = faceOffset;
+        faceStarts[faceOffset] = cornerOffset;
+        return view;
+    }
+
+    int faceSize(int face) {
+        return faceStarts[face + 1] - faceStarts[face];
+    }
+}
@@ -3,23 +3,40 @@ package com.morka.cga.parser.service.impl;
 import com.morka.cga.parser.exception.ObjParserException;
 import com.morka.cga.parser.model.Face;
 import com.morka.cga.parser.model.FaceElement;
+import com.morka.cga.parser.model.IndexedMesh;
 import com.morka.cga.parser.model.Line;
+import com.morka.cga.parser.model.MeshBatch;
+import com.morka.cga.parser.model.MeshMaterials;
 import com.morka.cga.parser.model.ObjGroup;
+import com.morka.cga.parser.model.ObjModel;
 import com.morka.cga.parser.model.Vertex;
 import com.morka.cga.parser.model.VertexNormal;
+import com.morka.cga.parser.model.VertexAdjacency;
 import com.morka.cga.parser.model.VertexTexture;
 import com.morka.cga.parser.service.ObjFileParser;
+import com.morka.cga.parser.service.ObjParsingMode;
+import com.morka.cga.parser.service.TextureCache;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
 import java.util.function.DoubleConsumer;
+import java.util.function.LongConsumer;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 public final class ObjFileParserImpl implements ObjFileParser {
 
@@ -44,6 +61,57 @@ public final class ObjFileParserImpl implements ObjFileParser {
     private static final Pattern FACE_ELEMENT_VERTEX_TEXTURE_NORMAL_PATTERN =
             Pattern.compile("^[1-9][0-9+]*/[1-9][0-9+]*/[1-9][0-9+]*$");
 
+    private static final int PROGRESS_LINES_MASK = 0x3FF;
+
+    private static final int ADJACENCY_CHUNK_INDICES = 1 << 16;
+
+    /**
+     * Counts of all adjacency chunk histograms together, 64 MiB, meshes with many positions get fewer chunks.
+     */
+    private static final long ADJACENCY_HISTOGRAM_COUNTS = 1 << 24;
+
+    private final ObjParsingMode mode;
+
+    private final ForkJoinPool pool;
+
+    private final boolean meshCache;
+
+    private final TextureCache textureCache;
+
+    public ObjFileParserImpl() {
+        this(ObjParsingMode.STREAMING);
+    }
+
+    public ObjFileParserImpl(ObjParsingMode mode) {
+        this(mode, ForkJoinPool.commonPool());
+    }
+
+    public ObjFileParserImpl(ObjParsingMode mode, ForkJoinPool pool) {
+        this(mode, pool, false);
+    }
+
+    /**
+     * @param mode      parsing strategy
+     * @param pool      pool for {@link ObjParsingMode#PARALLEL} parsing, mesh building and edge queries
+     * @param meshCache whether {@link #parseMesh} reads and writes binary mesh cache next to the obj file
+     */
+    public ObjFileParserImpl(ObjParsingMode mode, ForkJoinPool pool, boolean meshCache) {
+        this(mode, pool, meshCache, new TextureCacheImpl(new TextureMapParserImpl(), pool, 0));
+    }
+
+    /**
+     * @param mode         parsing strategy
+     * @param pool         pool for {@link ObjParsingMode#PARALLEL} parsing, mesh building and edge queries
+     * @param meshCache    whether {@link #parseMesh} reads and writes binary mesh cache next to the obj file
+     * @param textureCache cache material textures are loaded through
+     */
+    public ObjFileParserImpl(ObjParsingMode mode, ForkJoinPool pool, boolean meshCache, TextureCache textureCache) {
+        this.mode = mode;
+        this.pool = pool;
+        this.meshCache = meshCache;
+        this.textureCache = textureCache;
+    }
+
     private static Vertex parseVertex(String line) {
         final var coords = line
                 .substring(VERTEX_PREFIX.length())
@@ -96,8 +164,392 @@ public final class ObjFileParserImpl implements ObjFileParser {
         return index < 0 ? size + index + 1 : index;
     }
 
+    private static int toZeroBasedIndex(int size, int index) {
+        if (index == 0)
+            return -1;
+        var result = getFaceElementIndex(size, index) - 1;
+        if (result < 0 || result >= size)
+            throw new IndexOutOfBoundsException("Face element refers to missing item %d of %d".formatted(index, size));
+        return result;
+    }
+
+    private static void addFace(Face face, List<Face> faces, Map<FaceElement, List<Face>> vertexFacesMap) {
+        triangulateFaceIfNeeded(faces, face);
+        for (var element : face.faceElements()) {
+            vertexFacesMap.computeIfAbsent(element, k -> new ArrayList<>());
+            vertexFacesMap.get(element).add(face);
+        }
+    }
+
+    /**
+     * Adds one line per polygon edge, edges shared by polygons are added for each of them.
+     */
+    static void addLines(Face face, List<Line> lines) {
+        var elements = face.faceElements();
+        var vertexesCount = elements.length;
+        for (var i = 0; i < vertexesCount; i++) {
+            var from = elements[i].getVertex();
+            var to = elements[(i + 1) % vertexesCount].getVertex();
+            lines.add(new Line(from, to));
+        }
+    }
+
+    private static void triangulateFaceIfNeeded(List<Face> faces, Face face) {
+        var faceElements = face.faceElements();
+        var length = faceElements.length;
+        if (length < 4) {
+            faces.add(face);
+            return;
+        }
+
+        for (var i = 1; i < length - 1; i++)
+            faces.add(new Face(new FaceElement[]{
+                    faceElements[0],
+                    faceElements[i],
+                    faceElements[i + 1]
+            }));
+    }
+
+    /**
+     * Reads all records available to the tokenizer into the data.
+     *
+     * @param positionConsumer receives file position of the tokenizer every few processed lines
+     */
+    static void readRecords(ObjTokenizer tokenizer, ObjData data, LongConsumer positionConsumer) {
+        var element = new int[3];
+        var lines = 0;
+        long word;
+        while ((word = tokenizer.nextWord()) != ObjTokenizer.EOF) {
+            if (word == ObjTokenizer.WORD_V) {
+                data.addPosition(tokenizer.nextFloat(), tokenizer.nextFloat(), tokenizer.nextFloat(),
+                        tokenizer.nextFloat(1.0f));
+            } else if (word == ObjTokenizer.WORD_VT) {
+                data.addTexture(tokenizer.nextFloat(), tokenizer.nextFloat(0.0f), tokenizer.nextFloat(0.0f));
+            } else if (word == ObjTokenizer.WORD_VN) {
+                data.addNormal(tokenizer.nextFloat(), tokenizer.nextFloat(), tokenizer.nextFloat());
+            } else if (word == ObjTokenizer.WORD_F) {
+                while (tokenizer.nextFaceElement(element))
+                    data.addCorner(
+                            toZeroBasedIndex(data.positionCount, element[0]),
+                            toZeroBasedIndex(data.textureCount, element[1]),
+                            toZeroBasedIndex(data.normalCount, element[2])
+                    );
+                data.endFace();
+            } else if (word == ObjTokenizer.WORD_MTLLIB) {
+                data.materialLibraries.add(tokenizer.restOfLine());
+            } else if (word == ObjTokenizer.WORD_USEMTL) {
+                data.useMaterial(tokenizer.restOfLine());
+            }
+            tokenizer.skipLine();
+
+            if ((++lines & PROGRESS_LINES_MASK) == 0)
+                positionConsumer.accept(tokenizer.position());
+        }
+    }
+
+    private static IntStream range(int count, boolean parallel) {
+        var range = IntStream.range(0, count);
+        return parallel ? range.parallel() : range;
+    }
+
+    private static ObjGroup toGroup(ObjData data, boolean parallel) {
+        var vertices = new Vertex[data.positionCount];
+        range(vertices.length, parallel).forEach(i -> {
+            var offset = i * ObjData.POSITION_STRIDE;
+            vertices[i] = Vertex.builder()
+                    .x(data.positions[offset])
+                    .y(data.positions[offset + 1])
+                    .z(data.positions[offset + 2])
+                    .w(data.positions[offset + 3])
+                    .build();
+        });
+
+        var textures = new VertexTexture[data.textureCount];
+        range(textures.length, parallel).forEach(i -> {
+            var offset = i * ObjData.TEXTURE_STRIDE;
+            textures[i] = VertexTexture.builder()
+                    .u(data.textures[offset])
+                    .v(data.textures[offset + 1])
+                    .w(data.textures[offset + 2])
+                    .build();
+        });
+
+        var normals = new VertexNormal[data.normalCount];
+        range(normals.length, parallel).forEach(i -> {
+            var offset = i * ObjData.NORMAL_STRIDE;
+            normals[i] = VertexNormal.builder()
+                    .x(data.normals[offset])
+                    .y(data.normals[offset + 1])
+                    .z(data.normals[offset + 2])
+                    .build();
+        });
+
+        var polygons = new Face[data.faceCount];
+        range(polygons.length, parallel).forEach(face -> {
+            var start = data.faceStarts[face];
+            var elements = new FaceElement[data.faceSize(face)];
+            for (var i = 0; i < elements.length; i++) {
+                var offset = (start + i) * ObjData.CORNER_STRIDE;
+                var vertex = data.corners[offset];
+                var texture = data.corners[offset + 1];
+                var normal = data.corners[offset + 2];
+                elements[i] = FaceElement.builder()
+                        .id(vertex + 1)
+                        .vertex(vertices[vertex])
+                        .vertexTexture(texture < 0 ? null : textures[texture])
+                        .vertexNormal(normal < 0 ? null : normals[normal])
+                        .build();
+            }
+            polygons[face] = new Face(elements);
+        });
+
+        var faces = new ArrayList<Face>(data.cornerCount - 2 * data.faceCount);
+        var vertexFacesMap = new HashMap<FaceElement, List<Face>>();
+        for (var polygon : polygons)
+            addFace(polygon, faces, vertexFacesMap);
+
+        return new ObjGroup(faces, new LazyPolygonLines(polygons), vertexFacesMap);
+    }
+
+    private static IndexedMesh toMesh(ObjData data, float weldEpsilon, int parallelism) {
+        var welder = VertexWelder.weld(data, weldEpsilon);
+        var vertexCount = welder.vertexCount;
+        var vertexCorners = welder.vertexCorners;
+        var cornerVertices = welder.cornerVertices;
+        var hasUvs = false;
+        var hasNormals = data.cornerCount > 0;
+        var corners = data.corners;
+        for (var corner = 0; corner < data.cornerCount; corner++) {
+            hasUvs |= corners[corner * ObjData.CORNER_STRIDE + 1] >= 0;
+            hasNormals &= corners[corner * ObjData.CORNER_STRIDE + 2] >= 0;
+        }
+
+        var positions = new float[vertexCount * 3];
+        var uvs = hasUvs ? new float[vertexCount * 2] : null;
+        var normals = hasNormals ? new float[vertexCount * 3] : null;
+        var positionIds = Arrays.copyOf(welder.positionIds, vertexCount);
+        for (var vertex = 0; vertex < vertexCount; vertex++) {
+            var offset = vertexCorners[vertex] * ObjData.CORNER_STRIDE;
+            var position = welder.representatives[positionIds[vertex]] * ObjData.POSITION_STRIDE;
+            var w = data.positions[position + 3];
+            positions[vertex * 3] = data.positions[position] / w;
+            positions[vertex * 3 + 1] = data.positions[position + 1] / w;
+            positions[vertex * 3 + 2] = data.positions[position + 2] / w;
+
+            var texture = corners[offset + 1];
+            if (uvs != null && texture >= 0) {
+                uvs[vertex * 2] = data.textures[texture * ObjData.TEXTURE_STRIDE];
+                uvs[vertex * 2 + 1] = data.textures[texture * ObjData.TEXTURE_STRIDE + 1];
+            }
+
+            var normal = corners[offset + 2];
+            if (normals != null)
+                System.arraycopy(data.normals, normal * ObjData.NORMAL_STRIDE, normals, vertex * 3, 3);
+        }
+
+        var indices = new int[(data.cornerCount - 2 * data.faceCount) * 3];
+        var index = 0;
+        for (var face = 0; face < data.faceCount; face++) {
+            var start = data.faceStarts[face];
+            var end = data.faceStarts[face + 1];
+            for (var corner = start + 1; corner < end - 1; corner++) {
+                indices[index++] = cornerVertices[start];
+                indices[index++] = cornerVertices[corner];
+                indices[index++] = cornerVertices[corner + 1];
+            }
+        }
+
+        var adjacency = buildAdjacency(indices, positionIds, welder.positionCount, parallelism);
+        return new IndexedMesh(positions, uvs, normals, indices, positionIds, welder.positionCount, adjacency,
+                toMaterials(data, indices.length / 3));
+    }
+
+    /**
+     * Turns usemtl statements into triangle ranges, dropping empty ranges and merging neighbours of one material.
+     */
+    private static MeshMaterials toMaterials(ObjData data, int triangleCount) {
+        var names = new ArrayList<String>();
+        var ids = new HashMap<String, Integer>();
+        var starts = new int[data.materialUses.size() + 1];
+        var materials = new int[starts.length];
+        var ranges = 0;
+        for (var use = -1; use < data.materialUses.size(); use++) {
+            var material = MeshMaterials.NO_MATERIAL;
+            var triangle = 0;
+            if (use >= 0) {
+                var face = data.materialUseFaces[use];
+                triangle = data.faceStarts[face] - 2 * face;
+                material = ids.computeIfAbsent(data.materialUses.get(use), name -> {
+                    names.add(name);
+                    return names.size() - 1;
+                });
+            }
+            while (ranges > 0 && starts[ranges - 1] == triangle)
+                ranges--;
+            if (ranges > 0 && materials[ranges - 1] == material)
+                continue;
+            starts[ranges] = triangle;
+            materials[ranges++] = material;
+        }
+        while (ranges > 0 && starts[ranges - 1] >= triangleCount)
+            ranges--;
+
+        return new MeshMaterials(data.materialLibraries.toArray(String[]::new), names.toArray(String[]::new),
+                Arrays.copyOf(starts, ranges), Arrays.copyOf(materials, ranges));
+    }
+
+    /**
+     * Groups triangles by position with a stable counting sort. Every chunk of the index buffer counts
+     * its positions into its own histogram, histograms are turned into per chunk write cursors and
+     * chunks scatter concurrently, which gives the same order as a sequential pass.
+     *
+     * @param parallelism chunks at most, histograms take {@link #ADJACENCY_HISTOGRAM_COUNTS} counts at most
+     */
+    private static VertexAdjacency buildAdjacency(int[] indices, int[] positionIds, int positionCount, int parallelism) {
+        var chunkCount = (int) Math.max(1, Math.min(Math.min(parallelism, indices.length / ADJACENCY_CHUNK_INDICES),
+                ADJACENCY_HISTOGRAM_COUNTS / Math.max(1, positionCount)));
+        var chunkSize = (indices.length / 3 + chunkCount - 1) / chunkCount * 3;
+        var cursors = new int[chunkCount][];
+        IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+            var counts = new int[positionCount];
+            var end = Math.min(indices.length, (chunk + 1) * chunkSize);
+            for (var i = chunk * chunkSize; i < end; i++)
+                counts[positionIds[indices[i]]]++;
+            cursors[chunk] = counts;
+        });
+
+        var offsets = new int[positionCount + 1];
+        IntStream.range(0, positionCount).parallel().forEach(position -> {
+            var count = 0;
+            for (var chunk : cursors) {
+                var chunkPositions = chunk[position];
+                chunk[position] = count;
+                count += chunkPositions;
+            }
+            offsets[position + 1] = count;
+        });
+        Arrays.parallelPrefix(offsets, Integer::sum);
+
+        var faces = new int[indices.length];
+        IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+            var chunkCursors = cursors[chunk];
+            var end = Math.min(indices.length, (chunk + 1) * chunkSize);
+            for (var i = chunk * chunkSize; i < end; i++) {
+                var position = positionIds[indices[i]];
+                faces[offsets[position] + chunkCursors[position]++] = i / 3;
+            }
+        });
+        return new VertexAdjacency(offsets, faces);
+    }
+
     @Override
     public ObjGroup parse(File file, DoubleConsumer progressConsumer) throws ObjParserException {
+        if (mode == ObjParsingMode.LINES)
+            return parseLines(file, progressConsumer);
+
+        var data = readData(file, null, library -> {
+        }, progressConsumer);
+        return mode == ObjParsingMode.PARALLEL
+                ? pool.invoke(ForkJoinTask.adapt(() -> toGroup(data, true)))
+                : toGroup(data, false);
+    }
+
+    @Override
+    public IndexedMesh parseMesh(File file,
+                                 float weldEpsilon,
+                                 Consumer<MeshBatch> batchConsumer,
+                                 DoubleConsumer progressConsumer) throws ObjParserException {
+        return loadMesh(file, weldEpsilon, batchConsumer, library -> {
+        }, progressConsumer);
+    }
+
+    @Override
+    public ObjModel parseModel(File file,
+                               float weldEpsilon,
+                               Consumer<MeshBatch> batchConsumer,
+                               DoubleConsumer progressConsumer) throws ObjParserException {
+        var loader = new MaterialLoader(file.getAbsoluteFile().getParentFile(), textureCache);
+        var mesh = loadMesh(file, weldEpsilon, batchConsumer, loader::loadLibrary, progressConsumer);
+        return new ObjModel(mesh, loader.materials(mesh.materials().names()));
+    }
+
+    @Override
+    public long[] uniqueEdges(IndexedMesh mesh) {
+        return pool.invoke(ForkJoinTask.adapt(() -> EdgeExtractor.extract(mesh, pool.getParallelism())));
+    }
+
+    /**
+     * @param libraryConsumer receives material library statements as soon as they are read
+     */
+    private IndexedMesh loadMesh(File file,
+                                 float weldEpsilon,
+                                 Consumer<MeshBatch> batchConsumer,
+                                 Consumer<String> libraryConsumer,
+                                 DoubleConsumer progressConsumer) throws ObjParserException {
+        if (weldEpsilon < 0 || Float.isNaN(weldEpsilon))
+            throw new IllegalArgumentException("Weld epsilon must be non-negative: " + weldEpsilon);
+
+        if (meshCache) {
+            var cached = MeshCache.load(file, weldEpsilon);
+            if (cached.isPresent()) {
+                for (var library : cached.get().materials().libraries())
+                    libraryConsumer.accept(library);
+                progressConsumer.accept(1.0);
+                return cached.get();
+            }
+        }
+
+        var data = readData(file, batchConsumer, libraryConsumer, progressConsumer);
+        var mesh = pool.invoke(ForkJoinTask.adapt(() -> toMesh(data, weldEpsilon, pool.getParallelism())));
+        if (meshCache)
+            MeshCache.store(file, weldEpsilon, mesh);
+        return mesh;
+    }
+
+    /**
+     * Reads raw geometry with the tokenizer, {@link ObjParsingMode#LINES} falls back to streaming here.
+     *
+     * @param batchConsumer   consumer of triangles read so far, {@code null} if nobody waits for them
+     * @param libraryConsumer receives material library statements as soon as they are read
+     */
+    private ObjData readData(File file,
+                             @Nullable Consumer<MeshBatch> batchConsumer,
+                             Consumer<String> libraryConsumer,
+                             DoubleConsumer progressConsumer) throws ObjParserException {
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (mode == ObjParsingMode.PARALLEL)
+                return new ParallelObjReader(pool).read(channel, libraryConsumer, progressConsumer);
+
+            var size = channel.size();
+            var data = new ObjData();
+            var publisher = batchConsumer != null ? new MeshBatchPublisher(data, batchConsumer) : null;
+            var libraries = data.materialLibraries;
+            var announcedLibraries = new int[1];
+            readRecords(new ObjTokenizer(channel, 0, size), data, position -> {
+                progressConsumer.accept((double) position / size);
+                while (announcedLibraries[0] < libraries.size())
+                    libraryConsumer.accept(libraries.get(announcedLibraries[0]++));
+                if (publisher != null)
+                    publisher.publishIfReady();
+            });
+            while (announcedLibraries[0] < libraries.size())
+                libraryConsumer.accept(libraries.get(announcedLibraries[0]++));
+            if (publisher != null)
+                publisher.publishRemaining();
+            progressConsumer.accept(1.0);
+            return data;
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new ObjParserException(e.getMessage(), e);
+        } catch (UncheckedIOException e) {
+            e.printStackTrace();
+            throw new ObjParserException(e.getMessage(), e.getCause());
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            throw new ObjParserException("Malformed obj file %s: %s".formatted(file.getName(), e.getMessage()), e);
+        }
+    }
+
+    private ObjGroup parseLines(File file, DoubleConsumer progressConsumer) throws ObjParserException {
         try {
             var faces = new ArrayList<Face>();
             var vertexMap = new HashMap<Integer, Vertex>();
@@ -120,19 +572,8 @@ public final class ObjFileParserImpl implements ObjFileParser {
 
                 if (line.startsWith(FACE_PREFIX)) {
                     var face = parseFace(vertexMap, vertexTextureMap, vertexNormalMap, line);
-                    triangulateFaceIfNeeded(faces, face);
-                    var elements = face.faceElements();
-                    for (var element : elements) {
-                        vertexFacesMap.computeIfAbsent(element, k -> new ArrayList<>());
-                        vertexFacesMap.get(element).add(face);
-                    }
-
-                    var vertexesCount = elements.length;
-                    for (var i = 0; i < vertexesCount; i++) {
-                        var from = elements[i].getVertex();
-                        var to = elements[(i + 1) % vertexesCount].getVertex();
-                        lines.add(new Line(from, to));
-                    }
+                    addFace(face, faces, vertexFacesMap);
+                    addLines(face, lines);
                 }
 
                 parsedLines++;
@@ -147,22 +588,6 @@ public final class ObjFileParserImpl implements ObjFileParser {
         }
     }
 
-    private void triangulateFaceIfNeeded(List<Face> faces, Face face) {
-        var faceElements = face.faceElements();
-        var length = faceElements.length;
-        if (length < 4) {
-            faces.add(face);
-            return;
-        }
-
-        for (var i = 1; i < length - 1; i++)
-            faces.add(new Face(new FaceElement[]{
-                    faceElements[0],
-                    faceElements[i],
-                    faceElements[i + 1]
-            }));
-    }
-
     private VertexTexture parseVertexTexture(String line) {
         final var coords = line
                 .substring(VERTEX_TEXTURE_PREFIX.length())
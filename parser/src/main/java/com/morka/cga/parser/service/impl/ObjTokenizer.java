@@ -0,0 +1,371 @@
+package com.morka.cga.parser.service.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ASCII tokenizer reading obj records straight from file bytes.
+ * <p>
+ * Keywords, numbers and face elements are decoded in place, so no {@link String} or regex is involved
+ * in the common path. Only a byte range of the channel is read, which makes it usable for a whole file
+ * as well as for a chunk starting at a line boundary.
+ */
+final class ObjTokenizer {
+
+    static final int EOF = -1;
+
+    static final long WORD_V = word("v");
+
+    static final long WORD_VT = word("vt");
+
+    static final long WORD_VN = word("vn");
+
+    static final long WORD_F = word("f");
+
+    static final long WORD_MTLLIB = word("mtllib");
+
+    static final long WORD_USEMTL = word("usemtl");
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final int MAX_MANTISSA_DIGITS = 18;
+
+    private static final float[] FLOAT_POW10 = {
+            1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+
+    /**
+     * Double mantissa bits below float precision, they are a one followed by zeros halfway between two floats.
+     */
+    private static final long FLOAT_HALF_ULP_MASK = (1L << 29) - 1;
+
+    private static final long FLOAT_HALF_ULP = 1L << 28;
+
+    private static final double[] DOUBLE_POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final FileChannel channel;
+
+    private final long end;
+
+    private final byte[] bytes = new byte[BUFFER_SIZE];
+
+    private final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+    private long filePosition;
+
+    private long bufferOffset;
+
+    private int pos;
+
+    private int limit;
+
+    ObjTokenizer(FileChannel channel, long start, long end) {
+        this.channel = channel;
+        this.filePosition = start;
+        this.bufferOffset = start;
+        this.end = end;
+    }
+
+    /**
+     * Packs up to eight ASCII bytes of a keyword into a long, the same way {@link #nextWord()} does.
+     */
+    static long word(String keyword) {
+        var result = 0L;
+        for (var i = 0; i < keyword.length(); i++)
+            result = result << 8 | keyword.charAt(i);
+        return result;
+    }
+
+    private static boolean isBlank(int c) {
+        return c == ' ' || c == '\t' || c == '\f' || c == 0x0B;
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * @return absolute file position of the next unread byte
+     */
+    long position() {
+        return bufferOffset + pos;
+    }
+
+    int peek() {
+        if (pos == limit && !fill())
+            return EOF;
+        return bytes[pos] & 0xff;
+    }
+
+    private int read() {
+        if (pos == limit && !fill())
+            return EOF;
+        return bytes[pos++] & 0xff;
+    }
+
+    private boolean fill() {
+        try {
+            bufferOffset += limit;
+            pos = 0;
+            limit = 0;
+            var toRead = (int) Math.min(BUFFER_SIZE, end - filePosition);
+            if (toRead <= 0)
+                return false;
+            buffer.clear().limit(toRead);
+            var read = channel.read(buffer, filePosition);
+            if (read <= 0)
+                return false;
+            filePosition += read;
+            limit = read;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void skipBlanks() {
+        while (isBlank(peek()))
+            pos++;
+    }
+
+    /**
+     * Skips the rest of the current line including the line terminator.
+     */
+    void skipLine() {
+        int c;
+        do {
+            c = read();
+        } while (c != '\n' && c != EOF);
+    }
+
+    /**
+     * Skips blanks and checks whether the current line has no more tokens.
+     */
+    boolean atLineEnd() {
+        skipBlanks();
+        var c = peek();
+        return c == '\n' || c == '\r' || c == '#' || c == EOF;
+    }
+
+    /**
+     * Reads the first token of the next line.
+     *
+     * @return keyword packed by {@link #word(String)}, {@code 0} for blank or comment lines and for keywords
+     * longer than eight bytes, or {@link #EOF} when the range is exhausted
+     */
+    long nextWord() {
+        skipBlanks();
+        if (peek() == EOF)
+            return EOF;
+        var result = 0L;
+        var length = 0;
+        int c;
+        while ((c = peek()) != EOF && !isBlank(c) && c != '\n' && c != '\r' && c != '#') {
+            result = result << 8 | c;
+            length++;
+            pos++;
+        }
+        return length > Long.BYTES ? 0 : result;
+    }
+
+    /**
+     * Reads the rest of the line as a trimmed string. Meant for rare records such as names and paths.
+     */
+    String restOfLine() {
+        skipBlanks();
+        var out = new ByteArrayOutputStream();
+        int c;
+        while ((c = peek()) != EOF && c != '\n' && c != '\r') {
+            out.write(c);
+            pos++;
+        }
+        return out.toString(StandardCharsets.UTF_8).strip();
+    }
+
+    float nextFloat(float defaultValue) {
+        return atLineEnd() ? defaultValue : nextFloat();
+    }
+
+    float nextFloat() {
+        skipBlanks();
+        var start = position();
+        var negative = false;
+        var c = peek();
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            pos++;
+        }
+
+        var mantissa = 0L;
+        var significantDigits = 0;
+        var exponent = 0;
+        var hasDigits = false;
+        var hasDot = false;
+        while (isDigit(c = peek())) {
+            hasDigits = true;
+            if (significantDigits < MAX_MANTISSA_DIGITS) {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0)
+                    significantDigits++;
+            } else {
+                exponent++;
+            }
+            pos++;
+        }
+        if (c == '.') {
+            hasDot = true;
+            pos++;
+            while (isDigit(c = peek())) {
+                hasDigits = true;
+                if (significantDigits < MAX_MANTISSA_DIGITS) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0)
+                        significantDigits++;
+                    exponent--;
+                }
+                pos++;
+            }
+        }
+        if (!hasDigits)
+            return parseUnusualFloat(negative, hasDot);
+
+        if (c == 'e' || c == 'E') {
+            pos++;
+            var negativeExponent = false;
+            c = peek();
+            if (c == '-' || c == '+') {
+                negativeExponent = c == '-';
+                pos++;
+            }
+            var explicitExponent = 0;
+            while (isDigit(c = peek())) {
+                if (explicitExponent < 10_000)
+                    explicitExponent = explicitExponent * 10 + (c - '0');
+                pos++;
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+
+        var value = toFloat(mantissa, exponent);
+        if (Float.isNaN(value))
+            return parseToken(start);
+        return negative ? -value : value;
+    }
+
+    /**
+     * Converts the decimal if that takes a single rounding.
+     *
+     * @return correctly rounded value, {@link Float#NaN} if it can not be computed exactly
+     */
+    private static float toFloat(long mantissa, int exponent) {
+        if (mantissa == 0)
+            return 0f;
+        // both operands are exact, so a single rounding gives the correctly rounded result
+        if (mantissa < 1L << 24 && exponent >= -10 && exponent <= 10)
+            return exponent < 0
+                    ? mantissa / FLOAT_POW10[-exponent]
+                    : mantissa * FLOAT_POW10[exponent];
+        if (mantissa >= 1L << 53 || exponent < -22 || exponent > 22)
+            return Float.NaN;
+        var value = exponent < 0
+                ? mantissa / DOUBLE_POW10[-exponent]
+                : mantissa * DOUBLE_POW10[exponent];
+        // the double is correctly rounded and in the normal float range, rounding it to float again only
+        // goes wrong when it lands exactly halfway between two floats
+        if ((Double.doubleToRawLongBits(value) & FLOAT_HALF_ULP_MASK) == FLOAT_HALF_ULP)
+            return Float.NaN;
+        return (float) value;
+    }
+
+    /**
+     * Parses the number read since the start with {@link Float#parseFloat(String)}.
+     */
+    private float parseToken(long start) {
+        var length = (int) (position() - start);
+        if (start >= bufferOffset)
+            return Float.parseFloat(new String(bytes, (int) (start - bufferOffset), length, StandardCharsets.US_ASCII));
+
+        // the token began in an earlier buffer
+        var token = ByteBuffer.allocate(length);
+        try {
+            while (token.hasRemaining() && channel.read(token, start + token.position()) > 0) {
+                // read on
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Float.parseFloat(new String(token.array(), 0, token.position(), StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Falls back to {@link Float#parseFloat(String)} for tokens like {@code nan} or {@code inf}.
+     */
+    private float parseUnusualFloat(boolean negative, boolean hasDot) {
+        var builder = new StringBuilder();
+        if (negative)
+            builder.append('-');
+        if (hasDot)
+            builder.append('.');
+        int c;
+        while ((c = peek()) != EOF && !isBlank(c) && c != '\n' && c != '\r') {
+            builder.append((char) c);
+            pos++;
+        }
+        return Float.parseFloat(builder.toString());
+    }
+
+    /**
+     * Reads a (possibly negative) integer, returns {@code 0} if there are no digits at the current position.
+     */
+    int nextInt() {
+        var negative = false;
+        var c = peek();
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            pos++;
+        }
+        var result = 0;
+        while (isDigit(c = peek())) {
+            result = result * 10 + (c - '0');
+            pos++;
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Reads face element in one of the {@code v}, {@code v/vt}, {@code v//vn}, {@code v/vt/vn} forms.
+     * Indices are stored as found in the file, {@code 0} marks an absent index.
+     *
+     * @param target array of at least 3 items receiving vertex, texture and normal indices
+     * @return {@code false} if there are no more elements on the current line
+     */
+    boolean nextFaceElement(int[] target) {
+        if (atLineEnd())
+            return false;
+        target[0] = nextInt();
+        target[1] = 0;
+        target[2] = 0;
+        if (peek() == '/') {
+            pos++;
+            target[1] = nextInt();
+            if (peek() == '/') {
+                pos++;
+                target[2] = nextInt();
+            }
+        }
+        if (target[0] == 0)
+            throw new NumberFormatException("Malformed face element at byte " + position());
+        // skip anything unexpected glued to the element
+        int c;
+        while ((c = peek()) != EOF && !isBlank(c) && c != '\n' && c != '\r')
+            pos++;
+        return true;
+    }
+}
@@ -0,0 +1,190 @@
+package com.morka.cga.parser.service.impl;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Reads obj records of a file in parallel.
+ * <p>
+ * The file is split into byte ranges starting at line boundaries. The first pass counts records of every range,
+ * prefix sums of the counts give each range its offsets in exactly sized global arrays, and the second pass
+ * parses all ranges concurrently straight into their slices of those arrays.
+ */
+final class ParallelObjReader {
+
+    private static final long MIN_CHUNK_SIZE = 1 << 18;
+
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final ForkJoinPool pool;
+
+    ParallelObjReader(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    private static long alignToLineStart(FileChannel channel, long position, long size) {
+        if (position <= 0 || position >= size)
+            return Math.min(Math.max(position, 0), size);
+        var tokenizer = new ObjTokenizer(channel, position - 1, size);
+        tokenizer.skipLine();
+        return tokenizer.position();
+    }
+
+    private static int[] countRecords(ObjTokenizer tokenizer, List<String> libraries) {
+        var counts = new int[Chunk.COUNTERS];
+        var element = new int[3];
+        long word;
+        while ((word = tokenizer.nextWord()) != ObjTokenizer.EOF) {
+            if (word == ObjTokenizer.WORD_V) {
+                counts[Chunk.POSITIONS]++;
+            } else if (word == ObjTokenizer.WORD_VT) {
+                counts[Chunk.TEXTURES]++;
+            } else if (word == ObjTokenizer.WORD_VN) {
+                counts[Chunk.NORMALS]++;
+            } else if (word == ObjTokenizer.WORD_F) {
+                var faceCorners = 0;
+                while (tokenizer.nextFaceElement(element))
+                    faceCorners++;
+                // mirrors ObjData.endFace which drops degenerate polygons
+                if (faceCorners >= 3) {
+                    counts[Chunk.CORNERS] += faceCorners;
+                    counts[Chunk.FACES]++;
+                }
+            } else if (word == ObjTokenizer.WORD_MTLLIB) {
+                libraries.add(tokenizer.restOfLine());
+            }
+            tokenizer.skipLine();
+        }
+        return counts;
+    }
+
+    /**
+     * @param libraryConsumer receives material libraries as soon as the counting pass finds them,
+     *                        before geometry is parsed
+     */
+    ObjData read(FileChannel channel, Consumer<String> libraryConsumer, DoubleConsumer progressConsumer)
+            throws IOException {
+        var size = channel.size();
+        var chunks = split(channel, size);
+
+        pool.invoke(new ChunkAction(chunks, 0, chunks.size(), chunk -> chunk.counts =
+                countRecords(new ObjTokenizer(channel, chunk.start, chunk.end), chunk.libraries)));
+
+        var totals = new int[Chunk.COUNTERS];
+        for (var chunk : chunks) {
+            chunk.offsets = totals.clone();
+            for (var i = 0; i < Chunk.COUNTERS; i++)
+                totals[i] += chunk.counts[i];
+            chunk.libraries.forEach(libraryConsumer);
+        }
+
+        var data = new ObjData(totals[Chunk.POSITIONS], totals[Chunk.TEXTURES], totals[Chunk.NORMALS],
+                totals[Chunk.CORNERS], totals[Chunk.FACES]);
+        var progress = new Progress(size, progressConsumer);
+        pool.invoke(new ChunkAction(chunks, 0, chunks.size(), chunk -> {
+            var offsets = chunk.offsets;
+            var slice = data.slice(offsets[Chunk.POSITIONS], offsets[Chunk.TEXTURES], offsets[Chunk.NORMALS],
+                    offsets[Chunk.CORNERS], offsets[Chunk.FACES]);
+            chunk.slice = slice;
+            var last = new long[]{chunk.start};
+            ObjFileParserImpl.readRecords(new ObjTokenizer(channel, chunk.start, chunk.end), slice, position -> {
+                progress.advance(position - last[0]);
+                last[0] = position;
+            });
+            progress.advance(chunk.end - last[0]);
+        }));
+
+        data.positionCount = totals[Chunk.POSITIONS];
+        data.textureCount = totals[Chunk.TEXTURES];
+        data.normalCount = totals[Chunk.NORMALS];
+        data.cornerCount = totals[Chunk.CORNERS];
+        data.faceCount = totals[Chunk.FACES];
+        data.faceStarts[data.faceCount] = data.cornerCount;
+        for (var chunk : chunks)
+            data.addMaterials(chunk.slice);
+        return data;
+    }
+
+    private List<Chunk> split(FileChannel channel, long size) {
+        var chunkSize = Math.max(MIN_CHUNK_SIZE, size / ((long) pool.getParallelism() * CHUNKS_PER_THREAD));
+        var chunks = new ArrayList<Chunk>();
+        var start = 0L;
+        while (start < size) {
+            var end = alignToLineStart(channel, start + chunkSize, size);
+            chunks.add(new Chunk(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static final class Chunk {
+        static final int POSITIONS = 0;
+        static final int TEXTURES = 1;
+        static final int NORMALS = 2;
+        static final int CORNERS = 3;
+        static final int FACES = 4;
+        static final int COUNTERS = 5;
+
+        final long start;
+        final long end;
+        final List<String> libraries = new ArrayList<>();
+        int[] counts;
+        int[] offsets;
+        ObjData slice;
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static final class ChunkAction extends RecursiveAction {
+        private final List<Chunk> chunks;
+        private final int from;
+        private final int to;
+        private final Consumer<Chunk> task;
+
+        ChunkAction(List<Chunk> chunks, int from, int to, Consumer<Chunk> task) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+            this.task = task;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from)
+                    task.accept(chunks.get(from));
+                return;
+            }
+            var middle = (from + to) >>> 1;
+            invokeAll(new ChunkAction(chunks, from, middle, task), new ChunkAction(chunks, middle, to, task));
+        }
+    }
+
+    /**
+     * Sums bytes processed by all chunks, so the consumer sees a monotonic fraction from one thread at a time.
+     */
+    private static final class Progress {
+        private final long size;
+        private final DoubleConsumer consumer;
+        private long processed;
+
+        Progress(long size, DoubleConsumer consumer) {
+            this.size = size;
+            this.consumer = consumer;
+        }
+
+        synchronized void advance(long bytes) {
+            processed += bytes;
+            consumer.accept((double) processed / size);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.morka.cga.parser.service.impl;
+
+import com.morka.cga.parser.model.TextureMap;
+import com.morka.cga.parser.service.TextureCache;
+import com.morka.cga.parser.service.TextureMapParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Texture cache keyed by canonical path. Entries remember modification time of the file they were decoded from,
+ * a modified file is decoded anew. Entries are kept in access order, so eviction starts from the eldest.
+ */
+public final class TextureCacheImpl implements TextureCache {
+
+    private final TextureMapParser parser;
+
+    private final Executor executor;
+
+    private final long budgetBytes;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long usedBytes;
+
+    /**
+     * @param parser      parser decoding the files
+     * @param executor    executor the files are decoded on
+     * @param budgetBytes bytes of decoded maps to keep, {@code 0} only shares maps being decoded
+     */
+    public TextureCacheImpl(TextureMapParser parser, Executor executor, long budgetBytes) {
+        if (budgetBytes < 0)
+            throw new IllegalArgumentException("Texture cache budget must be non-negative: " + budgetBytes);
+
+        this.parser = parser;
+        this.executor = executor;
+        this.budgetBytes = budgetBytes;
+    }
+
+    @Override
+    public CompletableFuture<TextureMap> load(File file) {
+        String path;
+        try {
+            path = file.getCanonicalPath();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new UncheckedIOException(e));
+        }
+        var modified = new File(path).lastModified();
+
+        synchronized (this) {
+            var entry = entries.get(path);
+            if (entry != null && entry.modified == modified)
+                return entry.map.copy();
+            if (entry != null)
+                remove(path, entry);
+
+            var created = new Entry(modified, new CompletableFuture<>());
+            entries.put(path, created);
+            CompletableFuture.supplyAsync(() -> parser.parse(new File(path)), executor)
+                    .whenComplete((map, error) -> onDecoded(path, created, map, error));
+            return created.map.copy();
+        }
+    }
+
+    @Override
+    public long budgetBytes() {
+        return budgetBytes;
+    }
+
+    @Override
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    @Override
+    public synchronized void release(TextureMap map) {
+        var iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            var entry = iterator.next();
+            // only decoded entries are accounted, failed ones are not in the cache
+            if (entry.bytes > 0 && entry.map.getNow(null) == map) {
+                usedBytes -= entry.bytes;
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        entries.values().removeIf(entry -> entry.bytes > 0);
+        usedBytes = 0;
+    }
+
+    /**
+     * Accounts the decoded map and evicts least recently used maps over the budget. Failed entries are dropped,
+     * so the next load tries again. The map is handed out after the cache is updated.
+     */
+    private void onDecoded(String path, Entry entry, TextureMap map, Throwable error) {
+        synchronized (this) {
+            if (entries.get(path) == entry) {
+                if (error != null) {
+                    entries.remove(path);
+                } else {
+                    entry.bytes = (long) map.pixels().length * Integer.BYTES;
+                    usedBytes += entry.bytes;
+                    evict();
+                }
+            }
+        }
+        if (error != null)
+            entry.map.completeExceptionally(error);
+        else
+            entry.map.complete(map);
+    }
+
+    private void evict() {
+        var iterator = entries.values().iterator();
+        while (usedBytes > budgetBytes && iterator.hasNext()) {
+            var entry = iterator.next();
+            if (entry.bytes == 0)
+                continue;
+            usedBytes -= entry.bytes;
+            iterator.remove();
+        }
+    }
+
+    private void remove(String path, Entry entry) {
+        entries.remove(path);
+        usedBytes -= entry.bytes;
+    }
+
+    private static final class Entry {
+        final long modified;
+        final CompletableFuture<TextureMap> map;
+        long bytes;
+
+        Entry(long modified, CompletableFuture<TextureMap> map) {
+            this.modified = modified;
+            this.map = map;
+        }
+    }
+}
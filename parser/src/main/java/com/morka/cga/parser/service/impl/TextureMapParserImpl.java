@@ -4,23 +4,99 @@ import com.morka.cga.parser.model.TextureMap;
 import com.morka.cga.parser.service.TextureMapParser;
 
 import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.IOException;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 public class TextureMapParserImpl implements TextureMapParser {
 
+    private static final Logger LOGGER = Logger.getLogger(TextureMapParserImpl.class.getName());
+
+    private static final int ROWS_PER_TASK = 64;
+
+    private static final int OPAQUE = 0xFF000000;
+
+    /**
+     * Converts rows of the image to ARGB in bands processed concurrently.
+     * Common raster layouts are read straight from their data buffers,
+     * others go through {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}.
+     */
+    private static int[] toArgb(BufferedImage image) {
+        var w = image.getWidth();
+        var h = image.getHeight();
+        var pixels = new int[w * h];
+        var buffer = image.getRaster().getDataBuffer();
+        var layout = hasPackedRaster(image) ? image.getType() : BufferedImage.TYPE_CUSTOM;
+        IntStream.range(0, (h + ROWS_PER_TASK - 1) / ROWS_PER_TASK).parallel().forEach(band -> {
+            var from = band * ROWS_PER_TASK * w;
+            var to = Math.min(h, (band + 1) * ROWS_PER_TASK) * w;
+            switch (layout) {
+                case BufferedImage.TYPE_INT_ARGB ->
+                        System.arraycopy(((DataBufferInt) buffer).getData(), from, pixels, from, to - from);
+                case BufferedImage.TYPE_INT_RGB -> {
+                    var data = ((DataBufferInt) buffer).getData();
+                    for (var i = from; i < to; i++)
+                        pixels[i] = OPAQUE | data[i];
+                }
+                case BufferedImage.TYPE_3BYTE_BGR -> {
+                    var data = ((DataBufferByte) buffer).getData();
+                    for (var i = from; i < to; i++) {
+                        var offset = i * 3;
+                        pixels[i] = OPAQUE
+                                | (data[offset + 2] & 0xFF) << 16
+                                | (data[offset + 1] & 0xFF) << 8
+                                | data[offset] & 0xFF;
+                    }
+                }
+                case BufferedImage.TYPE_4BYTE_ABGR -> {
+                    var data = ((DataBufferByte) buffer).getData();
+                    for (var i = from; i < to; i++) {
+                        var offset = i * 4;
+                        pixels[i] = (data[offset] & 0xFF) << 24
+                                | (data[offset + 3] & 0xFF) << 16
+                                | (data[offset + 2] & 0xFF) << 8
+                                | data[offset + 1] & 0xFF;
+                    }
+                }
+                default -> {
+                    var y = from / w;
+                    image.getRGB(0, y, w, (to - from) / w, pixels, from, w);
+                }
+            }
+        });
+        return pixels;
+    }
+
+    /**
+     * Checks that the raster is not a view into a larger one, so texel {@code i} starts at {@code i * channels}.
+     */
+    private static boolean hasPackedRaster(BufferedImage image) {
+        var raster = image.getRaster();
+        var buffer = raster.getDataBuffer();
+        var channels = switch (image.getType()) {
+            case BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB -> 1;
+            case BufferedImage.TYPE_3BYTE_BGR -> 3;
+            case BufferedImage.TYPE_4BYTE_ABGR -> 4;
+            default -> 0;
+        };
+        return channels > 0
+                && raster.getParent() == null
+                && buffer.getNumBanks() == 1
+                && buffer.getOffset() == 0
+                && buffer.getSize() == image.getWidth() * image.getHeight() * channels;
+    }
+
     public TextureMap parse(File file) {
         try {
             var bufferedImage = ImageIO.read(file);
             var w = bufferedImage.getWidth();
             var h = bufferedImage.getHeight();
-            int[][] pixels = new int[h][w];
-            for (var i = 0; i < h; i++) {
-                for (var j = 0; j < w; j++) {
-                    pixels[i][j] = bufferedImage.getRGB(j, i);
-                }
-            }
-            System.out.println("Image load finished: " + file.getName());
+            var pixels = toArgb(bufferedImage);
+            LOGGER.fine(() -> "Image load finished: " + file.getName());
             return new TextureMap(w, h, pixels);
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -0,0 +1,159 @@
+package com.morka.cga.parser.service.impl;
+
+/**
+ * Turns obj corners into unique vertices.
+ * <p>
+ * Every distinct {@code (position, texture, normal)} index tuple becomes one vertex. The tuple is hashed in two
+ * steps, both over packed {@code long} keys: texture and normal indices are first reduced to an attribute id,
+ * then the position and the attribute id give the vertex. Optionally positions closer than an epsilon are
+ * welded together beforehand, so near duplicates left by exporters share vertices too.
+ */
+final class VertexWelder {
+
+    /**
+     * Obj position each welded position was made of.
+     */
+    final int[] representatives;
+
+    /**
+     * Welded position of every vertex.
+     */
+    final int[] positionIds;
+
+    /**
+     * Corner which produced every vertex, its texture and normal indices are the vertex attributes.
+     */
+    final int[] vertexCorners;
+
+    /**
+     * Vertex of every corner.
+     */
+    final int[] cornerVertices;
+
+    final int positionCount;
+
+    final int vertexCount;
+
+    private VertexWelder(int[] representatives, int positionCount, int[] positionIds, int[] vertexCorners,
+                         int vertexCount, int[] cornerVertices) {
+        this.representatives = representatives;
+        this.positionCount = positionCount;
+        this.positionIds = positionIds;
+        this.vertexCorners = vertexCorners;
+        this.vertexCount = vertexCount;
+        this.cornerVertices = cornerVertices;
+    }
+
+    private static long pack(int high, int low) {
+        return (long) high << 32 | (low & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param data    parsed obj data
+     * @param epsilon distance below which positions are merged, {@code 0} merges only equal indices
+     */
+    static VertexWelder weld(ObjData data, float epsilon) {
+        var representatives = new int[data.positionCount];
+        var positionRemap = epsilon > 0 ? weldPositions(data, epsilon, representatives) : null;
+        var positionCount = positionRemap == null ? data.positionCount : countRepresentatives(positionRemap);
+        if (positionRemap == null)
+            for (var i = 0; i < representatives.length; i++)
+                representatives[i] = i;
+
+        var corners = data.corners;
+        var attributes = new LongIntHashMap(64);
+        var vertices = new LongIntHashMap(data.positionCount);
+        var cornerVertices = new int[data.cornerCount];
+        var vertexCorners = new int[data.cornerCount];
+        var positionIds = new int[data.cornerCount];
+        var vertexCount = 0;
+        for (var corner = 0; corner < data.cornerCount; corner++) {
+            var offset = corner * ObjData.CORNER_STRIDE;
+            var attributeKey = pack(corners[offset + 1], corners[offset + 2]);
+            var attribute = attributes.putIfAbsent(attributeKey, attributes.size());
+            if (attribute == LongIntHashMap.ABSENT)
+                attribute = attributes.size() - 1;
+
+            var position = positionRemap == null ? corners[offset] : positionRemap[corners[offset]];
+            var vertex = vertices.putIfAbsent(pack(position, attribute), vertexCount);
+            if (vertex == LongIntHashMap.ABSENT) {
+                vertex = vertexCount++;
+                vertexCorners[vertex] = corner;
+                positionIds[vertex] = position;
+            }
+            cornerVertices[corner] = vertex;
+        }
+
+        return new VertexWelder(representatives, positionCount, positionIds, vertexCorners, vertexCount,
+                cornerVertices);
+    }
+
+    /**
+     * Greedily merges every position into the first earlier position within epsilon.
+     * Positions are bucketed into a grid of epsilon sized cells, so only the 27 cells around
+     * a position are searched. Cell coordinates are packed into 21 bits each, aliasing cells
+     * only cost extra distance checks.
+     *
+     * @return welded position of every obj position, representatives receive the obj position of each one
+     */
+    private static int[] weldPositions(ObjData data, float epsilon, int[] representatives) {
+        var positions = data.positions;
+        var cells = new LongIntHashMap(data.positionCount);
+        var next = new int[data.positionCount];
+        var remap = new int[data.positionCount];
+        var epsilonSquared = epsilon * epsilon;
+        var count = 0;
+        for (var i = 0; i < data.positionCount; i++) {
+            var offset = i * ObjData.POSITION_STRIDE;
+            var w = positions[offset + 3];
+            var x = positions[offset] / w;
+            var y = positions[offset + 1] / w;
+            var z = positions[offset + 2] / w;
+            var cx = (long) Math.floor(x / epsilon);
+            var cy = (long) Math.floor(y / epsilon);
+            var cz = (long) Math.floor(z / epsilon);
+
+            var found = -1;
+            search:
+            for (var dx = -1; dx <= 1; dx++) {
+                for (var dy = -1; dy <= 1; dy++) {
+                    for (var dz = -1; dz <= 1; dz++) {
+                        var head = cells.get(cellKey(cx + dx, cy + dy, cz + dz));
+                        for (var candidate = head; candidate != LongIntHashMap.ABSENT; candidate = next[candidate]) {
+                            var other = representatives[candidate] * ObjData.POSITION_STRIDE;
+                            var ow = positions[other + 3];
+                            var ex = positions[other] / ow - x;
+                            var ey = positions[other + 1] / ow - y;
+                            var ez = positions[other + 2] / ow - z;
+                            if (ex * ex + ey * ey + ez * ez <= epsilonSquared) {
+                                found = candidate;
+                                break search;
+                            }
+                        }
+                    }
+                }
+            }
+
+            if (found < 0) {
+                found = count++;
+                representatives[found] = i;
+                var key = cellKey(cx, cy, cz);
+                next[found] = cells.get(key);
+                cells.put(key, found);
+            }
+            remap[i] = found;
+        }
+        return remap;
+    }
+
+    private static int countRepresentatives(int[] remap) {
+        var max = -1;
+        for (var id : remap)
+            max = Math.max(max, id);
+        return max + 1;
+    }
+
+    private static long cellKey(long x, long y, long z) {
+        return (x & 0x1FFFFF) << 42 | (y & 0x1FFFFF) << 21 | (z & 0x1FFFFF);
+    }
+}
@@ -1,26 +1,408 @@
 package com.morka.cga.parser.service;
 
 import com.morka.cga.parser.exception.ObjParserException;
+import com.morka.cga.parser.model.IndexedMesh;
+import com.morka.cga.parser.model.MeshBatch;
+import com.morka.cga.parser.model.MeshMaterials;
+import com.morka.cga.parser.model.TextureMap;
 import com.morka.cga.parser.service.impl.ObjFileParserImpl;
+import com.morka.cga.parser.service.impl.TextureCacheImpl;
+import com.morka.cga.parser.service.impl.TextureMapParserImpl;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ObjFileParserImplTest {
 
     private final ObjFileParser parser = new ObjFileParserImpl();
 
-    @Test
-    public void test() throws URISyntaxException, ObjParserException {
-        final var resource = Thread.currentThread().getContextClassLoader().getResource("cube.obj");
+    private static File getCube() throws URISyntaxException {
+        return getResource("cube.obj");
+    }
+
+    private static File getResource(String name) throws URISyntaxException {
+        final var resource = Thread.currentThread().getContextClassLoader().getResource(name);
         assert resource != null;
+        return new File(resource.toURI());
+    }
 
-        final var group = parser.parse(new File(resource.toURI()), v -> {
+    @Test
+    public void test() throws URISyntaxException, ObjParserException {
+        final var group = parser.parse(getCube(), v -> {
         });
 
         assertEquals(12, group.faces().size());
     }
+
+    @Test
+    public void testStreamingMatchesLines() throws URISyntaxException, ObjParserException {
+        assertSameAsLines(ObjParsingMode.STREAMING);
+    }
+
+    @Test
+    public void testParallelMatchesLines() throws URISyntaxException, ObjParserException {
+        assertSameAsLines(ObjParsingMode.PARALLEL);
+    }
+
+    @Test
+    public void testParallelMatchesLinesAcrossChunks(@TempDir File directory)
+            throws IOException, ObjParserException {
+        // records are interleaved, so faces of every chunk index positions read by earlier chunks
+        final var grid = writeGrid(directory, 150);
+        assertTrue(grid.length() > 8 * (1 << 18), "file is split into several chunks");
+        final var pool = new ForkJoinPool(4);
+        try {
+            assertSameAsLines(grid, new ObjFileParserImpl(ObjParsingMode.PARALLEL, pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testMeshDoesNotDependOnPool(@TempDir File directory) throws IOException, ObjParserException {
+        // adjacency of the grid is built in several chunks by the larger pool
+        final var grid = writeGrid(directory, 150);
+        final var single = new ForkJoinPool(1);
+        final var several = new ForkJoinPool(4);
+        try {
+            final var expected = new ObjFileParserImpl(ObjParsingMode.STREAMING, single).parseMesh(grid, v -> {
+            });
+            final var actual = new ObjFileParserImpl(ObjParsingMode.STREAMING, several).parseMesh(grid, v -> {
+            });
+            assertSameMesh(expected, actual);
+        } finally {
+            single.shutdown();
+            several.shutdown();
+        }
+    }
+
+    @Test
+    public void testMeshBatchesMatchMesh() throws URISyntaxException, ObjParserException {
+        final var batches = new ArrayList<MeshBatch>();
+        final var mesh = parser.parseMesh(getCube(), 0, batches::add, v -> {
+        });
+
+        var triangles = 0;
+        for (var batch : batches) {
+            assertEquals(triangles, batch.firstTriangle());
+            for (var corner = 0; corner < batch.triangleCount() * 3; corner++) {
+                final var vertex = mesh.indices()[triangles * 3 + corner];
+                for (var k = 0; k < 3; k++)
+                    assertEquals(mesh.positions()[vertex * 3 + k], batch.positions()[corner * 3 + k]);
+            }
+            triangles += batch.triangleCount();
+        }
+        assertEquals(mesh.triangleCount(), triangles);
+    }
+
+    @Test
+    public void testUniqueEdges() throws URISyntaxException, ObjParserException {
+        final var mesh = parser.parseMesh(getCube(), v -> {
+        });
+
+        // 12 cube edges and one diagonal per side
+        assertEquals(18, parser.uniqueEdges(mesh).length);
+    }
+
+    @Test
+    public void testUniqueEdgesAcrossChunks(@TempDir File directory) throws IOException, ObjParserException {
+        final var cells = 150;
+        final var mesh = parser.parseMesh(writeGrid(directory, cells), v -> {
+        });
+        final var expected = parser.uniqueEdges(mesh);
+
+        // grid lines in both directions and one diagonal per cell
+        assertEquals(2 * cells * (cells + 1) + cells * cells, expected.length);
+        // keys are spread over eight shards
+        final var pool = new ForkJoinPool(8);
+        try {
+            assertArrayEquals(expected, new ObjFileParserImpl(ObjParsingMode.STREAMING, pool).uniqueEdges(mesh));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testCornersWithOtherAttributesStaySeparate() throws URISyntaxException, ObjParserException {
+        final var mesh = parser.parseMesh(getResource("corners.obj"), 0, v -> {
+        });
+
+        assertEquals(6, mesh.vertexCount());
+        assertEquals(4, mesh.positionCount());
+        assertArrayEquals(new int[]{0, 1, 2, 0, 2, 3, 4, 5, 3}, mesh.indices());
+        assertArrayEquals(new int[]{0, 1, 2, 3, 0, 1}, mesh.positionIds());
+        // the first position with the texture of the second one, the second one with the other normal
+        final var uvs = mesh.uvs();
+        assertArrayEquals(Arrays.copyOfRange(uvs, 2, 4), Arrays.copyOfRange(uvs, 8, 10));
+        final var normals = mesh.normals();
+        assertArrayEquals(new float[]{0, 0, 1}, Arrays.copyOfRange(normals, 3, 6));
+        assertArrayEquals(new float[]{0, 0, -1}, Arrays.copyOfRange(normals, 15, 18));
+    }
+
+    @Test
+    public void testWeldingMergesNearPositionsAcrossCells() throws URISyntaxException, ObjParserException {
+        final var near = getResource("near.obj");
+        final var unwelded = parser.parseMesh(near, 0, v -> {
+        });
+        assertEquals(8, unwelded.positionCount());
+
+        final var mesh = parser.parseMesh(near, 0.01f, v -> {
+        });
+        assertEquals(5, mesh.positionCount());
+        assertEquals(5, mesh.vertexCount());
+        assertArrayEquals(new int[]{0, 1, 2, 0, 1, 3, 3, 4, 2, 4, 0, 1}, mesh.indices());
+        // welded positions take the first position within epsilon
+        assertArrayEquals(new float[]{0.0099f, 0, 0}, Arrays.copyOfRange(mesh.positions(), 0, 3));
+        assertArrayEquals(new float[]{0.0099f, 3.0099f, 0.0099f}, Arrays.copyOfRange(mesh.positions(), 12, 15));
+    }
+
+    @Test
+    public void testMaterialRanges() throws URISyntaxException, ObjParserException {
+        final var model = parser.parseModel(getResource("materials.obj"), 0, batch -> {
+        }, v -> {
+        });
+
+        final var materials = model.mesh().materials();
+        assertArrayEquals(new String[]{"red", "blue"}, materials.names());
+        assertArrayEquals(new int[]{0, 2, 4, 6}, materials.rangeStarts());
+        assertArrayEquals(new int[]{MeshMaterials.NO_MATERIAL, 0, 1, 0}, materials.rangeMaterials());
+        assertEquals(1, materials.materialOf(5));
+        assertEquals("blue", model.materials().get(1).name());
+    }
+
+    @Test
+    public void testTextureCache(@TempDir File directory) throws IOException {
+        final var first = writeImage(directory, "first.png");
+        final var second = writeImage(directory, "second.png");
+        final var third = writeImage(directory, "third.png");
+        // room for two 4x4 maps
+        final var cache = new TextureCacheImpl(new TextureMapParserImpl(), Runnable::run, 2 * 4 * 4 * Integer.BYTES);
+
+        final var firstMap = cache.load(first).join();
+        assertSame(firstMap, cache.load(new File(directory, "./first.png")).join());
+
+        final var secondMap = cache.load(second).join();
+        cache.load(third).join();
+        assertEquals(cache.budgetBytes(), cache.usedBytes());
+        assertSame(secondMap, cache.load(second).join());
+        assertNotSame(firstMap, cache.load(first).join());
+
+        assertTrue(second.setLastModified(second.lastModified() + 1000));
+        assertNotSame(secondMap, cache.load(second).join());
+    }
+
+    @Test
+    public void testReleasedTextureIsDecodedAgain(@TempDir File directory) throws IOException {
+        final var file = writeImage(directory, "first.png");
+        final var cache = new TextureCacheImpl(new TextureMapParserImpl(), Runnable::run, 4 * 4 * Integer.BYTES);
+
+        final var map = cache.load(file).join();
+        cache.release(new TextureMap(4, 4, new int[16]));
+        assertEquals(cache.budgetBytes(), cache.usedBytes(), "other maps are ignored");
+
+        cache.release(map);
+        assertEquals(0, cache.usedBytes());
+        assertNotSame(map, cache.load(file).join());
+        assertEquals(cache.budgetBytes(), cache.usedBytes());
+    }
+
+    @Test
+    public void testMeshCacheRoundTrip(@TempDir File directory) throws IOException, URISyntaxException,
+            ObjParserException {
+        for (var name : new String[]{"cube.obj", "materials.obj"}) {
+            final var obj = copyResource(directory, name);
+            final var parsed = parseCached(obj, 0);
+            assertTrue(parsed.isParsed());
+            assertTrue(cacheOf(obj).isFile(), name + " cache is written");
+
+            final var loaded = parseCached(obj, 0);
+            assertFalse(loaded.isParsed(), name + " is loaded from the cache");
+            assertSameMesh(parsed.mesh(), loaded.mesh());
+        }
+
+        // written in several chunks
+        final var grid = writeGrid(directory, 150);
+        final var parsed = parseCached(grid, 0);
+        assertTrue(cacheOf(grid).length() > 1 << 20, "cache is larger than a chunk");
+        final var loaded = parseCached(grid, 0);
+        assertFalse(loaded.isParsed(), "grid is loaded from the cache");
+        assertSameMesh(parsed.mesh(), loaded.mesh());
+
+        final var names = directory.list();
+        assert names != null;
+        for (var name : names)
+            assertFalse(name.endsWith(".tmp"), name + " is left behind");
+    }
+
+    @Test
+    public void testMeshCacheOfChangedFileIsStale(@TempDir File directory) throws IOException, URISyntaxException,
+            ObjParserException {
+        final var obj = copyResource(directory, "cube.obj");
+        final var expected = parseCached(obj, 0).mesh();
+
+        assertTrue(obj.setLastModified(obj.lastModified() + 2000));
+        assertTrue(parseCached(obj, 0).isParsed(), "modification time changed");
+        assertFalse(parseCached(obj, 0).isParsed());
+
+        final var lastModified = obj.lastModified();
+        Files.writeString(obj.toPath(), "# appended\n", StandardOpenOption.APPEND);
+        assertTrue(obj.setLastModified(lastModified));
+        final var resized = parseCached(obj, 0);
+        assertTrue(resized.isParsed(), "size changed");
+        assertSameMesh(expected, resized.mesh());
+
+        final var welded = parseCached(obj, 2.5f);
+        assertTrue(welded.isParsed(), "weld epsilon changed");
+        assertTrue(welded.mesh().positionCount() < expected.positionCount());
+        assertFalse(parseCached(obj, 2.5f).isParsed());
+    }
+
+    @Test
+    public void testBrokenMeshCacheFallsBackToParsing(@TempDir File directory) throws IOException,
+            URISyntaxException, ObjParserException {
+        final var obj = copyResource(directory, "cube.obj");
+        final var expected = parseCached(obj, 0).mesh();
+        final var cache = cacheOf(obj).toPath();
+        final var valid = Files.readAllBytes(cache);
+
+        final var truncated = Arrays.copyOf(valid, valid.length / 2);
+        final var corrupted = valid.clone();
+        corrupted[valid.length / 2] ^= 0x40;
+        // another format version with a valid checksum, so only the version tells it apart
+        final var otherVersion = valid.clone();
+        final var header = ByteBuffer.wrap(otherVersion).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(Integer.BYTES, header.getInt(Integer.BYTES) + 1);
+        final var crc = new CRC32();
+        crc.update(otherVersion, 0, otherVersion.length - Integer.BYTES);
+        header.putInt(otherVersion.length - Integer.BYTES, (int) crc.getValue());
+
+        for (var broken : new byte[][]{truncated, corrupted, otherVersion, new byte[0]}) {
+            Files.write(cache, broken);
+            final var parsed = parseCached(obj, 0);
+            assertTrue(parsed.isParsed(), "broken cache of " + broken.length + " bytes is not loaded");
+            assertSameMesh(expected, parsed.mesh());
+            assertArrayEquals(valid, Files.readAllBytes(cache), "cache is written again");
+        }
+    }
+
+    /**
+     * Parses the mesh with the binary cache on, full parses are told apart by the batches they publish.
+     */
+    private static CachedMesh parseCached(File obj, float weldEpsilon) throws ObjParserException {
+        final var batches = new ArrayList<MeshBatch>();
+        final var mesh = new ObjFileParserImpl(ObjParsingMode.STREAMING, ForkJoinPool.commonPool(), true)
+                .parseMesh(obj, weldEpsilon, batches::add, v -> {
+                });
+        return new CachedMesh(mesh, !batches.isEmpty());
+    }
+
+    private record CachedMesh(IndexedMesh mesh, boolean isParsed) {
+    }
+
+    private static File cacheOf(File obj) {
+        return new File(obj.getParentFile(), obj.getName() + ".meshcache");
+    }
+
+    private static File copyResource(File directory, String name) throws IOException, URISyntaxException {
+        final var copy = new File(directory, name);
+        Files.copy(getResource(name).toPath(), copy.toPath());
+        return copy;
+    }
+
+    private static void assertSameMesh(IndexedMesh expected, IndexedMesh actual) {
+        assertArrayEquals(expected.positions(), actual.positions());
+        assertArrayEquals(expected.uvs(), actual.uvs());
+        assertArrayEquals(expected.normals(), actual.normals());
+        assertArrayEquals(expected.indices(), actual.indices());
+        assertArrayEquals(expected.positionIds(), actual.positionIds());
+        assertEquals(expected.positionCount(), actual.positionCount());
+        assertArrayEquals(expected.adjacency().offsets(), actual.adjacency().offsets());
+        assertArrayEquals(expected.adjacency().faces(), actual.adjacency().faces());
+        final var expectedMaterials = expected.materials();
+        final var actualMaterials = actual.materials();
+        assertArrayEquals(expectedMaterials.libraries(), actualMaterials.libraries());
+        assertArrayEquals(expectedMaterials.names(), actualMaterials.names());
+        assertArrayEquals(expectedMaterials.rangeStarts(), actualMaterials.rangeStarts());
+        assertArrayEquals(expectedMaterials.rangeMaterials(), actualMaterials.rangeMaterials());
+    }
+
+    private static File writeImage(File directory, String name) throws IOException {
+        final var file = new File(directory, name);
+        ImageIO.write(new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB), "png", file);
+        return file;
+    }
+
+    /**
+     * Writes a grid of quads with texture coordinates and normals, every row of positions followed by its faces.
+     */
+    private static File writeGrid(File directory, int cells) throws IOException {
+        final var file = new File(directory, "grid.obj");
+        final var side = cells + 1;
+        try (var writer = Files.newBufferedWriter(file.toPath())) {
+            writer.write("vn 0 0 1\n");
+            for (var row = 0; row < side; row++) {
+                for (var column = 0; column < side; column++) {
+                    final var u = (float) column / cells;
+                    final var v = (float) row / cells;
+                    writer.write(String.format(Locale.ROOT, "v %f %f %f\n", u, v, 0.1f * row));
+                    writer.write(String.format(Locale.ROOT, "vt %f %f\n", u, v));
+                }
+                if (row == 0)
+                    continue;
+                for (var column = 0; column < cells; column++) {
+                    final var first = (row - 1) * side + column + 1;
+                    writer.write("f %d/%d/1 %d/%d/1 %d/%d/1 %d/%d/1\n".formatted(
+                            first, first, first + 1, first + 1, first + side + 1, first + side + 1,
+                            first + side, first + side));
+                }
+            }
+        }
+        return file;
+    }
+
+    private void assertSameAsLines(ObjParsingMode mode) throws URISyntaxException, ObjParserException {
+        assertSameAsLines(getCube(), new ObjFileParserImpl(mode));
+    }
+
+    private static void assertSameAsLines(File file, ObjFileParser parser) throws ObjParserException {
+        final var expected = new ObjFileParserImpl(ObjParsingMode.LINES).parse(file, v -> {
+        });
+        final var actual = parser.parse(file, v -> {
+        });
+
+        assertEquals(expected.faces().size(), actual.faces().size());
+        assertEquals(expected.lines(), actual.lines());
+        assertEquals(expected.vertexToFaces().keySet(), actual.vertexToFaces().keySet());
+        for (var i = 0; i < expected.faces().size(); i++) {
+            final var expectedElements = expected.faces().get(i).faceElements();
+            final var actualElements = actual.faces().get(i).faceElements();
+            assertEquals(expectedElements.length, actualElements.length);
+            for (var j = 0; j < expectedElements.length; j++) {
+                assertEquals(expectedElements[j].getVertex(), actualElements[j].getVertex());
+                assertEquals(expectedElements[j].getVertexTexture(), actualElements[j].getVertexTexture());
+                assertEquals(expectedElements[j].getVertexNormal(), actualElements[j].getVertexNormal());
+            }
+        }
+    }
 }
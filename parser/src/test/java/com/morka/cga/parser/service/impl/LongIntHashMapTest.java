@@ -0,0 +1,59 @@
+package com.morka.cga.parser.service.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class LongIntHashMapTest {
+
+    @Test
+    public void testCollidingKeys() {
+        // four slots until the third key
+        final var map = new LongIntHashMap(2);
+        final var keys = collidingKeys(3, 4);
+
+        assertEquals(LongIntHashMap.ABSENT, map.putIfAbsent(keys[0], 10));
+        assertEquals(LongIntHashMap.ABSENT, map.putIfAbsent(keys[1], 11));
+        assertEquals(10, map.putIfAbsent(keys[0], 20));
+        assertEquals(11, map.get(keys[1]));
+        assertEquals(LongIntHashMap.ABSENT, map.get(keys[2]));
+
+        map.put(keys[1], 21);
+        assertEquals(21, map.get(keys[1]));
+        assertEquals(10, map.get(keys[0]));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void testGrowth() {
+        final var map = new LongIntHashMap(1);
+        final var count = 10_000;
+        for (var i = 0; i < count; i++)
+            assertEquals(LongIntHashMap.ABSENT, map.putIfAbsent(key(i), i));
+
+        assertEquals(count, map.size());
+        for (var i = 0; i < count; i++) {
+            assertEquals(i, map.get(key(i)));
+            assertEquals(i, map.putIfAbsent(key(i), -i));
+        }
+        assertEquals(LongIntHashMap.ABSENT, map.get(key(count)));
+    }
+
+    /**
+     * Packs the index into both halves like vertex keys, negative halves included.
+     */
+    private static long key(int i) {
+        return (long) (i - 5000) << 32 | (i * 7 & 0xFFFFFFFFL);
+    }
+
+    private static long[] collidingKeys(int count, int capacity) {
+        final var keys = new ArrayList<Long>();
+        final var slot = LongIntHashMap.hash(0) & (capacity - 1);
+        for (var key = 0L; keys.size() < count; key++)
+            if ((LongIntHashMap.hash(key) & (capacity - 1)) == slot)
+                keys.add(key);
+        return keys.stream().mapToLong(Long::longValue).toArray();
+    }
+}
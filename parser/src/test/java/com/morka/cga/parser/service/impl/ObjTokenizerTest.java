@@ -0,0 +1,54 @@
+package com.morka.cga.parser.service.impl;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ObjTokenizerTest {
+
+    @Test
+    public void testFloatsMatchParseFloat(@TempDir File directory) throws IOException {
+        final var tokens = new ArrayList<>(List.of(
+                "0.5", "-1.25", "+3", ".75", "1e-3", "6.02214076e23", "-1.6e-19",
+                // exactly halfway between two floats, and just above and below
+                "16777217", "1.00000005960464477539062500", "1.000000059604644775390625000000000000001",
+                "1.000000059604644775390624999999999999999", "33554435", "-8388609.5",
+                // more digits than a long holds
+                "0.12345678901234567890123456789", "98765432109876543210987654321",
+                "3.14159265358979323846264338327950288419716939937510",
+                // beyond the powers of ten doubles hold exactly, down to subnormals and out of range
+                "3.4028235e38", "3.4028236e38", "1e39", "-1.17549435e-38", "1.4e-45", "7e-46", "1e-50",
+                "123456789012345678901234567890e-60", "0.000000000000000000000000000001234567890123"));
+        final var random = new Random(7);
+        for (var i = 0; i < 20_000; i++) {
+            final var digits = new StringBuilder();
+            final var count = 1 + random.nextInt(30);
+            for (var j = 0; j < count; j++)
+                digits.append((char) ('0' + random.nextInt(10)));
+            digits.insert(random.nextInt(count + 1), '.');
+            if (random.nextBoolean())
+                digits.append('e').append(random.nextInt(90) - 45);
+            tokens.add(random.nextBoolean() ? "-" + digits : digits.toString());
+        }
+
+        // long tokens cross buffer boundaries
+        final var file = new File(directory, "floats.obj");
+        Files.writeString(file.toPath(), String.join(" ", tokens));
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final var tokenizer = new ObjTokenizer(channel, 0, channel.size());
+            for (var token : tokens)
+                assertEquals(Float.floatToRawIntBits(Float.parseFloat(token)),
+                        Float.floatToRawIntBits(tokenizer.nextFloat()), token);
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.morka.cga.viewer;
+
+import com.morka.cga.parser.exception.ObjParserException;
+import com.morka.cga.parser.model.IndexedMesh;
+import com.morka.cga.parser.service.ObjFileParser;
+import com.morka.cga.parser.service.ObjFileParserBuilder;
+import com.morka.cga.parser.service.ObjParsingMode;
+import com.morka.cga.parser.service.TextureMapParser;
+import com.morka.cga.viewer.model.BoundingSphere;
+import com.morka.cga.viewer.model.Matrix4D;
+import com.morka.cga.viewer.model.Vector3D;
+import com.morka.cga.viewer.render.FrameBuffer;
+import com.morka.cga.viewer.render.MaterialTextures;
+import com.morka.cga.viewer.render.RenderSettings;
+import com.morka.cga.viewer.render.RenderStats;
+import com.morka.cga.viewer.render.Renderer;
+import com.morka.cga.viewer.render.Scene;
+import com.morka.cga.viewer.render.Shading;
+import com.morka.cga.viewer.render.ToneMapping;
+import com.morka.cga.viewer.texture.MipmappedTexture;
+import com.morka.cga.viewer.texture.TextureFilter;
+import com.morka.cga.viewer.texture.TextureLayout;
+import com.morka.cga.viewer.texture.TextureUsage;
+import com.morka.cga.viewer.utils.GeomUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static com.morka.cga.viewer.utils.MatrixUtils.getScaleMatrix;
+import static com.morka.cga.viewer.utils.MatrixUtils.getTranslationMatrix;
+import static com.morka.cga.viewer.utils.MatrixUtils.getYRotationMatrix;
+
+/**
+ * Renders turntables of obj models to PNG frames without a display. Frames of a model render concurrently.
+ * <p>
+ * Every model is centered and scaled to fit the frame, then turned around the vertical axis in equal steps
+ * under four point lights fixed around the camera. Frames of {@code dir/Model.obj} found under an input directory
+ * are written to {@code <output>/dir/Model/000.png} and on.
+ * <p>
+ * Models without materials are shaded with maps lying next to them, named like the bundled ones,
+ * e.g. {@code BaseColor Map.png}, just as if they were picked in the viewer.
+ */
+public final class TurntableRenderer {
+
+    private static final String USAGE = """
+            Usage: TurntableRenderer [options] <obj file or directory>...
+              --frames <n>            frames per turn (36)
+              --size <width>x<height> frame size in pixels (512x512)
+              --output <directory>    directory frames are written to (turntables)
+              --shading <mode>        flat, phong or pbr (pbr)
+              --tone-mapping <curve>  reinhard or aces (aces)
+              --filter <filter>       nearest, bilinear or trilinear (trilinear)
+              --vector-shading        shade with the Vector API, needs --add-modules jdk.incubator.vector
+              --deferred-shading      shade every visible pixel once after drawing all triangles
+              --no-occlusion-culling  rasterize triangles hidden behind drawn ones too""";
+
+    /**
+     * Radius of the bounding sphere models are scaled to.
+     */
+    private static final float MODEL_RADIUS = 10;
+
+    /**
+     * Share of the smaller frame side the bounding sphere spans.
+     */
+    private static final float FILL = 0.9f;
+
+    private static final float CAMERA_ELEVATION = (float) Math.toRadians(20);
+
+    private static final float LIGHT_DISTANCE = 25;
+
+    private static final Pattern MAP_NAME = Pattern.compile("(BaseColor|Normal|Emission|MRAO) Map\\.(png|jpe?g)",
+            Pattern.CASE_INSENSITIVE);
+
+    private final Renderer renderer;
+
+    private final RenderSettings settings;
+
+    private final int frames;
+
+    private final Path output;
+
+    private final ObjFileParser parser = ObjFileParserBuilder.buildObjParser(ObjParsingMode.PARALLEL);
+
+    private final TextureMapParser textureParser = ObjFileParserBuilder.buildTextureParser();
+
+    private final MaterialTextures textures = new MaterialTextures();
+
+    private TurntableRenderer(Renderer renderer, RenderSettings settings, int frames, Path output) {
+        this.renderer = renderer;
+        this.settings = settings;
+        this.frames = frames;
+        this.output = output;
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        var frames = 36;
+        var width = 512;
+        var height = 512;
+        var output = Path.of("turntables");
+        var settings = RenderSettings.DEFAULT.toBuilder()
+                .shading(Shading.PBR)
+                .toneMapping(ToneMapping.ACES)
+                .background(0xFF000000);
+        var inputs = new ArrayList<Path>();
+        try {
+            for (var i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--frames" -> frames = Integer.parseInt(value(args, ++i));
+                    case "--size" -> {
+                        var size = value(args, ++i).split("x");
+                        width = Integer.parseInt(size[0]);
+                        height = Integer.parseInt(size[size.length - 1]);
+                    }
+                    case "--output" -> output = Path.of(value(args, ++i));
+                    case "--shading" -> settings.shading(Shading.valueOf(upperCase(value(args, ++i))));
+                    case "--tone-mapping" -> settings.toneMapping(ToneMapping.valueOf(upperCase(value(args, ++i))));
+                    case "--filter" -> settings.textureFilter(TextureFilter.valueOf(upperCase(value(args, ++i))));
+                    case "--vector-shading" -> {
+                        if (!Renderer.isVectorShadingAvailable())
+                            throw new IllegalArgumentException("The Vector API is not available");
+                        settings.vectorShading(true);
+                    }
+                    case "--deferred-shading" -> settings.deferredShading(true);
+                    case "--no-occlusion-culling" -> settings.occlusionCulling(false);
+                    default -> {
+                        if (args[i].startsWith("--"))
+                            throw new IllegalArgumentException("Unknown option " + args[i]);
+                        inputs.add(Path.of(args[i]));
+                    }
+                }
+            }
+            if (inputs.isEmpty())
+                throw new IllegalArgumentException("No models given");
+            if (frames <= 0 || width <= 0 || height <= 0)
+                throw new IllegalArgumentException("Frames and size must be positive");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        var turntable = new TurntableRenderer(new Renderer(width, height), settings.build(), frames, output);
+        var failures = 0;
+        for (var input : inputs) {
+            for (var model : models(input)) {
+                try {
+                    var start = System.nanoTime();
+                    var turn = turntable.render(model, input);
+                    var stats = turn.stats();
+                    System.out.printf(Locale.ROOT, "%s: %d frames in %.1f s, %d of %d triangle tiles occluded"
+                                    + " (%d in clusters) -> %s%n", model, frames, (System.nanoTime() - start) / 1e9,
+                            stats.occluded() + stats.occludedInClusters(), stats.binned(), stats.occludedInClusters(),
+                            turn.directory());
+                } catch (ObjParserException | IOException | UncheckedIOException e) {
+                    failures++;
+                    System.err.println("Could not render " + model + ": " + e.getMessage());
+                }
+            }
+        }
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static String value(String[] args, int index) {
+        if (index >= args.length)
+            throw new IllegalArgumentException("Missing value of " + args[index - 1]);
+        return args[index];
+    }
+
+    private static String upperCase(String value) {
+        return value.toUpperCase(Locale.ROOT).replace('-', '_');
+    }
+
+    /**
+     * @return the obj file, or obj files under the directory in path order
+     */
+    private static List<Path> models(Path input) {
+        if (!Files.isDirectory(input))
+            return List.of(input);
+        try (Stream<Path> files = Files.walk(input)) {
+            return files.filter(file -> file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".obj"))
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            System.err.println("Could not list " + input + ": " + e.getMessage());
+            return List.of();
+        }
+    }
+
+    /**
+     * Renders and writes all frames of the model.
+     *
+     * @param input directory the model was found in, or the model itself
+     * @return directory of the frames and triangle counts of all of them
+     */
+    private Turn render(Path model, Path input) throws ObjParserException, IOException {
+        var objModel = parser.parseModel(model.toFile(), 0, batch -> {
+        }, progress -> {
+        });
+        var mesh = objModel.mesh();
+        var normals = GeomUtils.getVertexNormals(mesh, false);
+        var materialMipmaps = textures.build(objModel.materials(), TextureLayout.ROW_MAJOR);
+        var overrides = objModel.materials().isEmpty() ? looseMaps(model.getParent()) : MaterialTextures.Overrides.NONE;
+        var materialMaps = textures.materialMaps(materialMipmaps, overrides);
+
+        var name = input.equals(model) ? model.getFileName() : input.relativize(model);
+        var directory = output.resolve(name.toString().replaceFirst("(?i)\\.obj$", ""));
+        Files.createDirectories(directory);
+
+        var fit = fit(mesh);
+        var camera = camera();
+        var lights = lights(camera);
+        var stats = IntStream.range(0, frames).parallel().mapToObj(frame -> {
+            var turn = getYRotationMatrix(new Vector3D(0, (float) (2 * Math.PI * frame / frames), 0));
+            var scene = new Scene(turn.multiply(fit), camera, lights, materialMaps, settings);
+            var target = new FrameBuffer(renderer.width(), renderer.height());
+            target.clear(settings.background());
+            var frameStats = renderer.render(scene, mesh, normals, target);
+            write(target, directory.resolve(String.format(Locale.ROOT, "%03d.png", frame)));
+            return frameStats;
+        }).reduce(RenderStats.NONE, RenderStats::plus);
+        return new Turn(directory, stats);
+    }
+
+    private record Turn(Path directory, RenderStats stats) {
+    }
+
+    /**
+     * Loads maps named like the bundled ones from the directory.
+     */
+    private MaterialTextures.Overrides looseMaps(Path directory) throws IOException {
+        if (directory == null)
+            return MaterialTextures.Overrides.NONE;
+
+        var maps = new HashMap<String, MipmappedTexture>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (var file : files.sorted().toList()) {
+                var matcher = MAP_NAME.matcher(file.getFileName().toString());
+                if (!matcher.matches())
+                    continue;
+                var slot = matcher.group(1).toLowerCase(Locale.ROOT);
+                var usage = switch (slot) {
+                    case "basecolor" -> TextureUsage.ALBEDO;
+                    case "normal" -> TextureUsage.NORMAL;
+                    case "mrao" -> TextureUsage.DATA;
+                    default -> null;
+                };
+                maps.putIfAbsent(slot, textures.mipmapped(textureParser.parse(file.toFile()), TextureLayout.ROW_MAJOR, usage));
+            }
+        }
+        return new MaterialTextures.Overrides(maps.get("basecolor"), maps.get("normal"), maps.get("emission"), maps.get("mrao"));
+    }
+
+    /**
+     * Gets the transform moving the center of the mesh bounds to the origin and scaling them
+     * to {@link #MODEL_RADIUS}.
+     */
+    private static Matrix4D fit(IndexedMesh mesh) {
+        var sphere = BoundingSphere.of(mesh.positions());
+        var scale = sphere.radius() > 0 ? MODEL_RADIUS / sphere.radius() : 1;
+        return getScaleMatrix(Vector3D.from(scale)).multiply(getTranslationMatrix(sphere.center().mul(-1)));
+    }
+
+    /**
+     * Places the camera slightly above the model, far enough for the bounding sphere to fill the frame.
+     */
+    private Vector3D camera() {
+        var halfFov = (float) Math.toRadians(Renderer.FIELD_OF_VIEW / 2);
+        var aspect = (float) renderer.width() / renderer.height();
+        var halfHorizontalFov = (float) Math.atan(Math.tan(halfFov) * aspect);
+        var distance = MODEL_RADIUS / FILL / (float) Math.sin(Math.min(halfFov, halfHorizontalFov));
+        return new Vector3D(
+                distance * Math.cos(CAMERA_ELEVATION),
+                distance * Math.sin(CAMERA_ELEVATION),
+                0
+        );
+    }
+
+    /**
+     * Key light over the camera, fill light to its side and two rim lights behind the model.
+     */
+    private static Vector3D[] lights(Vector3D camera) {
+        var key = camera.normalize();
+        return new Vector3D[]{
+                new Vector3D(key.x(), key.y() + 0.5f, key.z() + 0.5f).normalize().mul(LIGHT_DISTANCE),
+                new Vector3D(key.x(), key.y(), key.z() - 1).normalize().mul(LIGHT_DISTANCE),
+                new Vector3D(-1, 0.5f, 1).normalize().mul(LIGHT_DISTANCE),
+                new Vector3D(-1, 0.5f, -1).normalize().mul(LIGHT_DISTANCE)
+        };
+    }
+
+    private static void write(FrameBuffer frame, Path file) {
+        var image = new BufferedImage(frame.width(), frame.height(), BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, frame.width(), frame.height(), frame.pixels(), 0, frame.width());
+        try {
+            ImageIO.write(image, "png", file.toFile());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -26,6 +26,13 @@ public final class WritableImageView extends ImageView {
         setImage(new WritableImage(pixelBuffer));
     }
 
+    /**
+     * @return ARGB array backing the image, see {@link #updateBuffer()}
+     */
+    public int[] getPixels() {
+        return rawInts;
+    }
+
     public void setPixels(int[] rawPixels) {
         System.arraycopy(rawPixels, 0, rawInts, 0, rawPixels.length);
     }
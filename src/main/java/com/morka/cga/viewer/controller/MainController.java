@@ -1,21 +1,29 @@
 package com.morka.cga.viewer.controller;
 
 import com.morka.cga.parser.exception.ObjParserException;
-import com.morka.cga.parser.model.FaceElement;
-import com.morka.cga.parser.model.ObjGroup;
-import com.morka.cga.parser.model.TextureMap;
-import com.morka.cga.parser.model.Vertex;
+import com.morka.cga.parser.model.IndexedMesh;
+import com.morka.cga.parser.model.MeshBatch;
+import com.morka.cga.parser.model.ObjModel;
 import com.morka.cga.parser.service.ObjFileParser;
 import com.morka.cga.parser.service.ObjFileParserBuilder;
-import com.morka.cga.parser.service.TextureMapParser;
+import com.morka.cga.parser.service.ObjParsingMode;
+import com.morka.cga.parser.service.TextureCache;
 import com.morka.cga.viewer.buffer.WritableImageView;
 import com.morka.cga.viewer.model.Matrix4D;
-import com.morka.cga.viewer.model.Vector2D;
 import com.morka.cga.viewer.model.Vector3D;
-import com.morka.cga.viewer.model.Vector4D;
+import com.morka.cga.viewer.render.FrameBuffer;
+import com.morka.cga.viewer.render.MaterialTextures;
+import com.morka.cga.viewer.render.RenderSettings;
+import com.morka.cga.viewer.render.Renderer;
+import com.morka.cga.viewer.render.Scene;
+import com.morka.cga.viewer.render.Shading;
+import com.morka.cga.viewer.render.ToneMapping;
+import com.morka.cga.viewer.texture.MipmappedTexture;
+import com.morka.cga.viewer.texture.TextureFilter;
+import com.morka.cga.viewer.texture.TextureLayout;
+import com.morka.cga.viewer.texture.TextureUsage;
 import com.morka.cga.viewer.utils.ColorUtils;
 import com.morka.cga.viewer.utils.GeomUtils;
-import com.morka.cga.viewer.utils.PbrUtils;
 import javafx.application.Platform;
 import javafx.beans.binding.ObjectBinding;
 import javafx.beans.property.BooleanProperty;
@@ -40,33 +48,26 @@ import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.BorderPane;
-import javafx.scene.paint.Color;
 import javafx.stage.FileChooser;
 import lombok.Data;
 
 import java.io.File;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.DoubleConsumer;
-import java.util.function.Function;
-import java.util.stream.Collectors;
-
-import static com.morka.cga.viewer.utils.GeomUtils.mix;
-import static com.morka.cga.viewer.utils.GeomUtils.vector2D;
-import static com.morka.cga.viewer.utils.GeomUtils.vector4D;
-import static com.morka.cga.viewer.utils.MatrixUtils.buildProjectionMatrix;
-import static com.morka.cga.viewer.utils.MatrixUtils.buildViewportMatrix;
+
 import static com.morka.cga.viewer.utils.MatrixUtils.getModelMatrix;
-import static com.morka.cga.viewer.utils.MatrixUtils.getViewMatrix;
 import static java.lang.Math.max;
-import static java.lang.Math.min;
 import static java.util.Objects.nonNull;
 import static javafx.beans.binding.Bindings.createObjectBinding;
 
@@ -91,11 +92,7 @@ public class MainController {
     private static final int W = 1160;
     private static final int H = 680;
     private static final int BUFFER_SIZE = 3;
-    private static final int[] BACKGROUND_COLOR_ARRAY = new int[W * H];
-    private static final float[] Z_BUFFER_INIT_ARRAY = new float[W * H];
-    private static final SimpleObjectProperty<ObjGroup> CURRENT_OBJ = new SimpleObjectProperty<>();
-    private static final Matrix4D PROJECTION_MATRIX = buildProjectionMatrix(W, H, 45, 0.1f, 100);
-    private static final Matrix4D VIEWPORT_MATRIX = buildViewportMatrix(W, H);
+    private static final SimpleObjectProperty<IndexedMesh> CURRENT_OBJ = new SimpleObjectProperty<>();
     private static final Map<KeyCode, BooleanProperty> KEYS = new HashMap<>() {{
         put(KeyCode.X, new SimpleBooleanProperty(false));
         put(KeyCode.Y, new SimpleBooleanProperty(false));
@@ -108,9 +105,12 @@ public class MainController {
         put(KeyCode.RIGHT, new SimpleBooleanProperty(false));
     }};
     private static final float CAMERA_SENSITIVITY = 0.005f;
+    private static final long TEXTURE_CACHE_BUDGET = 256L << 20;
     private final ExecutorService executorService;
-    private final ObjFileParser parser = ObjFileParserBuilder.buildObjParser();
-    private final TextureMapParser textureParser = ObjFileParserBuilder.buildTextureParser();
+    private final Renderer renderer = new Renderer(W, H);
+    private final TextureCache textureCache = ObjFileParserBuilder.buildTextureCache(TEXTURE_CACHE_BUDGET);
+    private final ObjFileParser parser = ObjFileParserBuilder.buildCachingObjParser(ObjParsingMode.STREAMING, textureCache);
+    private final MaterialTextures textures = new MaterialTextures(textureCache);
     private final BlockingQueue<FrameAndZBuffers> fullBuffers = new ArrayBlockingQueue<>(BUFFER_SIZE);
     private final BlockingQueue<FrameAndZBuffers> emptyBuffers = new ArrayBlockingQueue<>(BUFFER_SIZE);
     private final IntegerProperty xTranslationProperty = new SimpleIntegerProperty(0);
@@ -146,8 +146,6 @@ public class MainController {
             () -> getModelMatrix(translationBinding.get(), scaleBinding.get(), rotationBinding.get()),
             translationBinding, scaleBinding, rotationBinding
     );
-    private final ConcurrentHashMap<Vertex, Vector3D> vertexWorldNormalMap = new ConcurrentHashMap<>();
-
     @FXML
     private BorderPane pane;
     @FXML
@@ -179,6 +177,21 @@ public class MainController {
     @FXML
     private CheckBox normalCalculationCheckbox;
 
+    @FXML
+    private CheckBox tiledTexturesCheckbox;
+
+    @FXML
+    private CheckBox compressedTexturesCheckbox;
+
+    @FXML
+    private CheckBox vectorShadingCheckbox;
+
+    @FXML
+    private CheckBox deferredShadingCheckbox;
+
+    @FXML
+    private CheckBox occlusionCullingCheckbox;
+
     @FXML
     private ColorPicker pbrAlbedoPicker;
 
@@ -197,8 +210,11 @@ public class MainController {
     private ToggleGroup flyToggle;
     @FXML
     private ToggleGroup toneMappingToggle;
+    @FXML
+    private ToggleGroup textureFilterToggle;
 
-    private Map<FaceElement, Vector3D> vertexNormalMap;
+    private float[] vertexNormals;
+    private List<MeshBatch> loadingBatches = List.of();
     private FrameAndZBuffers currentBuffer;
     private boolean mouseDragging = false;
     private long lastProgressUpdateTimestamp = System.nanoTime();
@@ -233,7 +249,7 @@ public class MainController {
         pane.setOnMouseDragged(this::onMouseDragged);
         pane.setOnMouseReleased(e -> mouseDragging = false);
         pane.setOnScroll(this::onScroll);
-        backgroundColorPicker.valueProperty().addListener((__, ___, color) -> onBackgroundColorChanged(color));
+        backgroundColorPicker.valueProperty().addListener((__, ___, ____) -> repaint());
         iAPicker.valueProperty().addListener((__, ___, ____) -> repaint());
         kAPicker.valueProperty().addListener((__, ___, ____) -> repaint());
         iDPicker.valueProperty().addListener((__, ___, ____) -> repaint());
@@ -247,9 +263,7 @@ public class MainController {
         aoSlider.valueProperty().addListener((__, ___, ____) -> repaint());
         shaderToggle.selectedToggleProperty().addListener((__, ___, toggle) -> {
             var radio = (RadioButton) toggle;
-            isPbr = "PBR".equalsIgnoreCase(radio.getText());
-            isPhong = "Phong".equalsIgnoreCase(radio.getText());
-            isFlat = "Flat".equalsIgnoreCase(radio.getText());
+            shading = Shading.valueOf(radio.getText().toUpperCase(Locale.ROOT));
             repaint();
         });
         flyToggle.selectedToggleProperty().addListener((__, ___, toggle) -> {
@@ -265,50 +279,92 @@ public class MainController {
         });
         toneMappingToggle.selectedToggleProperty().addListener((__, ___, toggle) -> {
             var radio = (RadioButton) toggle;
-            isReinhart = !radio.getText().contains("ACES");
+            toneMapping = radio.getText().contains("ACES") ? ToneMapping.ACES : ToneMapping.REINHARD;
+            repaint();
+        });
+        textureFilterToggle.selectedToggleProperty().addListener((__, ___, toggle) -> {
+            var radio = (RadioButton) toggle;
+            textureFilter = TextureFilter.valueOf(radio.getText().toUpperCase(Locale.ROOT));
             repaint();
         });
         normalCalculationCheckbox.selectedProperty().addListener((__, ___, selected) -> onObjChanged(CURRENT_OBJ.get(), selected, false));
+        textureLayout = selectedTextureLayout();
+        tiledTexturesCheckbox.selectedProperty().addListener((__, ___, ____) -> onTextureLayoutChanged(selectedTextureLayout()));
+        compressedTexturesCheckbox.selectedProperty().addListener((__, ___, ____) -> onTextureLayoutChanged(selectedTextureLayout()));
+        vectorShadingCheckbox.setDisable(!Renderer.isVectorShadingAvailable());
+        vectorShadingCheckbox.selectedProperty().addListener((__, ___, ____) -> repaint());
+        deferredShadingCheckbox.selectedProperty().addListener((__, ___, ____) -> repaint());
+        occlusionCullingCheckbox.selectedProperty().addListener((__, ___, ____) -> repaint());
+    }
+
+    private TextureLayout selectedTextureLayout() {
+        if (compressedTexturesCheckbox.isSelected())
+            return TextureLayout.BLOCK_COMPRESSED;
+        return tiledTexturesCheckbox.isSelected() ? TextureLayout.TILED : TextureLayout.ROW_MAJOR;
     }
 
 
-    boolean isReinhart = true;
-    boolean isPbr;
-    boolean isPhong = true;
-    boolean isFlat;
+    Shading shading = Shading.PHONG;
+    ToneMapping toneMapping = ToneMapping.REINHARD;
+    TextureFilter textureFilter = TextureFilter.TRILINEAR;
+    TextureLayout textureLayout = TextureLayout.ROW_MAJOR;
 
-    TextureMap diffuseMap;
-    TextureMap normalMap;
-    TextureMap emissionMap;
-    TextureMap mraoMap;
+    MipmappedTexture diffuseMap;
+    MipmappedTexture normalMap;
+    MipmappedTexture emissionMap;
+    MipmappedTexture mraoMap;
+    List<MaterialTextures.Mipmaps> materialMipmaps = List.of();
 
     @FXML
     void onMRAOLoad() {
-        mraoMap = loadTextureFile();
+        loadTextureFile(TextureUsage.DATA, texture -> mraoMap = texture);
     }
 
     @FXML
     void onEmissionLoad() {
-        emissionMap = loadTextureFile();
+        loadTextureFile(null, texture -> emissionMap = texture);
     }
 
     @FXML
     void onNormalLoad() {
-        normalMap = loadTextureFile();
+        loadTextureFile(TextureUsage.NORMAL, texture -> normalMap = texture);
     }
 
     @FXML
     void onDiffuseLoad() {
-        diffuseMap = loadTextureFile();
+        loadTextureFile(TextureUsage.ALBEDO, texture -> diffuseMap = texture);
     }
 
-    private TextureMap loadTextureFile() {
+    /**
+     * @param usage how shaders sample the map, {@code null} if they use raw colors
+     */
+    private void loadTextureFile(TextureUsage usage, Consumer<MipmappedTexture> textureConsumer) {
         pane.requestFocus();
         var fileChooser = new FileChooser();
         var file = fileChooser.showOpenDialog(null);
-        if (nonNull(file))
-            return textureParser.parse(file);
-        return null;
+        if (nonNull(file)) {
+            var layout = textureLayout;
+            textureCache.load(file).thenApply(map -> textures.mipmapped(map, layout, usage)).whenComplete((texture, error) -> {
+                if (error != null) {
+                    error.printStackTrace();
+                    return;
+                }
+                Platform.runLater(() -> {
+                    textureConsumer.accept(texture);
+                    repaint();
+                });
+            });
+        }
+    }
+
+    private void onTextureLayoutChanged(TextureLayout layout) {
+        textureLayout = layout;
+        materialMipmaps = textures.relaid(materialMipmaps, layout);
+        diffuseMap = textures.relaid(diffuseMap, layout);
+        normalMap = textures.relaid(normalMap, layout);
+        emissionMap = textures.relaid(emissionMap, layout);
+        mraoMap = textures.relaid(mraoMap, layout);
+        repaint();
     }
 
     @FXML
@@ -320,15 +376,42 @@ public class MainController {
         var file = fileChooser.showOpenDialog(null);
         if (nonNull(file)) {
             pane.setCenter(progressIndicator);
+            CURRENT_OBJ.set(null);
+            loadingBatches = List.of();
+            materialMipmaps = List.of();
+            diffuseMap = null;
+            normalMap = null;
+            emissionMap = null;
+            mraoMap = null;
+            var layout = textureLayout;
             CompletableFuture.supplyAsync(() -> parseObjAndUpdateProgress(file)).thenAccept(objOpt ->
-                    objOpt.ifPresent(obj -> Platform.runLater(() -> {
-                        progressIndicator.setProgress(0);
-                        pane.setCenter(FRAMES);
-                        CURRENT_OBJ.set(obj);
-                    })));
+                    objOpt.ifPresent(model -> {
+                        var modelMipmaps = textures.build(model.materials(), layout);
+                        Platform.runLater(() -> {
+                            progressIndicator.setProgress(0);
+                            pane.setCenter(FRAMES);
+                            loadingBatches = List.of();
+                            materialMipmaps = modelMipmaps;
+                            CURRENT_OBJ.set(model.mesh());
+                        });
+                    }));
         }
     }
 
+    private void onBatchLoaded(MeshBatch batch) {
+        if (CURRENT_OBJ.get() != null)
+            return;
+
+        if (loadingBatches.isEmpty()) {
+            pane.setCenter(FRAMES);
+            resetStates();
+        }
+        var batches = new ArrayList<>(loadingBatches);
+        batches.add(batch);
+        loadingBatches = List.copyOf(batches);
+        repaint();
+    }
+
     public void onUpdate() throws InterruptedException {
         if (fullBuffers.isEmpty())
             return;
@@ -348,12 +431,9 @@ public class MainController {
     }
 
     private void prepareBuffers() {
-        Arrays.fill(BACKGROUND_COLOR_ARRAY, ColorUtils.toArgb(backgroundColorPicker.getValue()));
-        Arrays.fill(Z_BUFFER_INIT_ARRAY, Float.NEGATIVE_INFINITY);
         for (var i = 0; i < BUFFER_SIZE; i++) {
-            var buffer = new WritableImageView(W, H);
-            var zBuffer = new float[W * H];
-            emptyBuffers.add(new FrameAndZBuffers(buffer, zBuffer));
+            var view = new WritableImageView(W, H);
+            emptyBuffers.add(new FrameAndZBuffers(view, new FrameBuffer(W, H, view.getPixels())));
         }
     }
 
@@ -371,20 +451,11 @@ public class MainController {
         }
     }
 
-    private void onBackgroundColorChanged(Color color) {
-        Arrays.fill(BACKGROUND_COLOR_ARRAY, ColorUtils.toArgb(color));
-        repaint();
-    }
-
-    private void onObjChanged(ObjGroup obj, boolean forceNormalCalculation, boolean forceReset) {
+    private void onObjChanged(IndexedMesh obj, boolean forceNormalCalculation, boolean forceReset) {
         if (obj == null)
             return;
 
-        vertexNormalMap = obj.vertexToFaces().entrySet().parallelStream().collect(Collectors.toMap(
-                Map.Entry::getKey,
-                e -> GeomUtils.getNormalForVertex(e.getKey(), e.getValue(), forceNormalCalculation)
-        ));
-        vertexWorldNormalMap.clear();
+        vertexNormals = GeomUtils.getVertexNormals(obj, forceNormalCalculation);
         if (forceReset)
             resetStates();
         repaint();
@@ -418,8 +489,67 @@ public class MainController {
 
     private void repaint() {
         var obj = CURRENT_OBJ.get();
-        if (obj != null)
-            draw(obj);
+        var batches = loadingBatches;
+        if (obj != null) {
+            var normals = vertexNormals;
+            drawFrame((scene, target) -> renderer.render(scene, obj, normals, target));
+        } else if (!batches.isEmpty()) {
+            drawFrame((scene, target) -> renderer.render(scene, batches, target));
+        }
+    }
+
+    /**
+     * Renders a frame of the current state into a free buffer on the render thread.
+     */
+    private void drawFrame(BiConsumer<Scene, FrameBuffer> render) {
+        var scene = getScene();
+        executorService.submit(() -> {
+            try {
+                var buffers = emptyBuffers.take();
+                var target = buffers.target();
+                target.clear(scene.settings().background());
+                render.accept(scene, target);
+                fullBuffers.add(buffers);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private Scene getScene() {
+        var lights = getLights();
+        var camera = getCamera();
+        var overrides = new MaterialTextures.Overrides(diffuseMap, normalMap, emissionMap, mraoMap);
+        return new Scene(
+                modelMatrix.get(),
+                camera,
+                lights,
+                textures.materialMaps(materialMipmaps, overrides),
+                getSettings()
+        );
+    }
+
+    private RenderSettings getSettings() {
+        return RenderSettings.builder()
+                .shading(shading)
+                .toneMapping(toneMapping)
+                .textureFilter(textureFilter)
+                .background(ColorUtils.toArgb(backgroundColorPicker.getValue()))
+                .ambientIntensity(ColorUtils.toVector(iAPicker.getValue()))
+                .diffuseIntensity(ColorUtils.toVector(iDPicker.getValue()))
+                .specularIntensity(ColorUtils.toVector(iSPicker.getValue()))
+                .ambientColor(ColorUtils.toVector(kAPicker.getValue()))
+                .diffuseColor(ColorUtils.toVector(kDPicker.getValue()))
+                .specularColor(ColorUtils.toVector(kSPicker.getValue()))
+                .specularPower((float) specularPower.getValue())
+                .albedo(ColorUtils.toVector(pbrAlbedoPicker.getValue()))
+                .metallic((float) metallicSlider.getValue())
+                .roughness((float) roughnessSlider.getValue())
+                .ambientOcclusion((float) aoSlider.getValue())
+                .vectorShading(vectorShadingCheckbox.isSelected())
+                .deferredShading(deferredShadingCheckbox.isSelected())
+                .occlusionCulling(occlusionCullingCheckbox.isSelected())
+                .build();
     }
 
     private void listenFor(KeyCode key, Runnable item) {
@@ -479,376 +609,6 @@ public class MainController {
         return new Vector3D(eyeX, eyeY, eyeZ);
     }
 
-    private void draw(ObjGroup group) {
-        executorService.submit(() -> {
-            try {
-                var buffers = emptyBuffers.take();
-                var frameBuffer = buffers.frameBuffer();
-                var zBuffer = buffers.zBuffer();
-                frameBuffer.setPixels(BACKGROUND_COLOR_ARRAY);
-                System.arraycopy(Z_BUFFER_INIT_ARRAY, 0, zBuffer, 0, zBuffer.length);
-
-                var lights = getLights();
-                var camera = getCamera();
-                var worldMatrix = modelMatrix.get();
-                var viewMatrix = getViewMatrix(camera);
-                var invViewport = VIEWPORT_MATRIX.invert();
-                var invProj = PROJECTION_MATRIX.invert();
-                var invView = viewMatrix.invert();
-                var mvp = PROJECTION_MATRIX.multiply(viewMatrix).multiply(worldMatrix);
-                group.faces().parallelStream().forEach(face -> {
-                    var elements = face.faceElements();
-
-                    var firstVertex = elements[0].getVertex();
-                    var secondVertex = elements[1].getVertex();
-                    var thirdVertex = elements[2].getVertex();
-
-                    var n0 = computeWorldNormalIfAbsent(elements[0], worldMatrix);
-                    var n1 = computeWorldNormalIfAbsent(elements[1], worldMatrix);
-                    var n2 = computeWorldNormalIfAbsent(elements[2], worldMatrix);
-
-                    var firstOriginal = vector4D(firstVertex);
-                    var secondOriginal = vector4D(secondVertex);
-                    var thirdOriginal = vector4D(thirdVertex);
-
-                    var firstMvp = mvp.multiply(firstOriginal);
-                    var secondMvp = mvp.multiply(secondOriginal);
-                    var thirdMvp = mvp.multiply(thirdOriginal);
-
-                    var firstNdc = firstMvp.divide(firstMvp.w());
-                    var secondNdc = secondMvp.divide(secondMvp.w());
-                    var thirdNdc = thirdMvp.divide(thirdMvp.w());
-
-                    var firstViewport = VIEWPORT_MATRIX.multiply(firstNdc).to3D();
-                    var secondViewport = VIEWPORT_MATRIX.multiply(secondNdc).to3D();
-                    var thirdViewport = VIEWPORT_MATRIX.multiply(thirdNdc).to3D();
-
-                    // TODO: interpolate
-                    var viewportToWorldConverter = (Function<Vector3D, Vector3D>) viewport -> {
-                        var ndc = invViewport.multiply(new Vector4D(viewport.x(), viewport.y(), viewport.z(), 1f));
-                        var homView = invProj.multiply(ndc);
-                        var view = new Vector4D(homView.x() / homView.w(), homView.y() / homView.w(),
-                                homView.z() / homView.w(), 1);
-                        return invView.multiply(view).to3D();
-                    };
-
-                    var firstWorld = worldMatrix.multiply(firstOriginal).to3D();
-                    var secondWorld = worldMatrix.multiply(secondOriginal).to3D();
-                    var thirdWorld = worldMatrix.multiply(thirdOriginal).to3D();
-
-                    var firstMv = viewMatrix.multiply(worldMatrix).multiply(firstOriginal).to3D();
-                    var secondMv = viewMatrix.multiply(worldMatrix).multiply(secondOriginal).to3D();
-                    var thirdMv = viewMatrix.multiply(worldMatrix).multiply(thirdOriginal).to3D();
-
-                    var N = firstWorld
-                            .subtract(secondWorld)
-                            .cross(firstWorld.subtract(thirdWorld))
-                            .normalize();
-                    var V = camera.subtract(firstWorld).normalize();
-                    if (N.dot(V) <= 0)
-                        return;
-
-                    var flat = max(N.dot(lights[0].normalize()), 0);
-
-                    drawTriangle(
-                            frameBuffer,
-                            zBuffer,
-                            new VertexTextureNormal(
-                                    new Vector3D((int) firstViewport.x(), (int) firstViewport.y(), firstMv.z()),
-                                    vector2D(elements[0].getVertexTexture()),
-                                    n0
-                            ),
-                            new VertexTextureNormal(
-                                    new Vector3D((int) secondViewport.x(), (int) secondViewport.y(), secondMv.z()),
-                                    vector2D(elements[1].getVertexTexture()),
-                                    n1
-                            ),
-                            new VertexTextureNormal(
-                                    new Vector3D((int) thirdViewport.x(), (int) thirdViewport.y(), thirdMv.z()),
-                                    vector2D(elements[2].getVertexTexture()),
-                                    n2
-                            ),
-                            lights,
-                            camera,
-                            viewportToWorldConverter,
-                            new Vector3D(flat, flat, flat)
-                    );
-                });
-                fullBuffers.add(buffers);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-        });
-    }
-
-    private record VertexTextureNormal(Vector3D vertex, Vector2D texture, Vector3D normal) {
-    }
-
-    private Vector3D computeWorldNormalIfAbsent(FaceElement vertex, Matrix4D worldMatrix) {
-        var info = vertexWorldNormalMap.get(vertex.getVertex());
-        if (info != null)
-            return info;
-        info = worldMatrix.multiply(vertexNormalMap.get(vertex));
-        var putByOtherThreadJustNow = vertexWorldNormalMap.putIfAbsent(vertex.getVertex(), info);
-        if (putByOtherThreadJustNow != null)
-            info = putByOtherThreadJustNow;
-        return info;
-    }
-
-    private void drawTriangle(WritableImageView buffer,
-                              float[] zBuffer,
-                              VertexTextureNormal t0,
-                              VertexTextureNormal t1,
-                              VertexTextureNormal t2,
-                              Vector3D[] lights,
-                              Vector3D camera,
-                              Function<Vector3D, Vector3D> toWorld,
-                              Vector3D flatColor) {
-        if (t0.vertex().y() > t1.vertex().y()) {
-            var temp = t0;
-            t0 = t1;
-            t1 = temp;
-        }
-
-        if (t0.vertex().y() > t2.vertex().y()) {
-            var temp = t0;
-            t0 = t2;
-            t2 = temp;
-        }
-
-        if (t1.vertex().y() > t2.vertex().y()) {
-            var temp = t1;
-            t1 = t2;
-            t2 = temp;
-        }
-
-        var t2y = min(max(0, (int) t2.vertex().y()), H - 1);
-        var t1y = min(max(0, (int) t1.vertex().y()), H - 1);
-        var t0y = min(max(0, (int) t0.vertex().y()), H - 1);
-
-        var t2x = min(max(0, (int) t2.vertex().x()), W - 1);
-        var t1x = min(max(0, (int) t1.vertex().x()), W - 1);
-        var t0x = min(max(0, (int) t0.vertex().x()), W - 1);
-
-        var degenerateTriangle = t0y == t1y && t0y == t2y;
-        if (degenerateTriangle)
-            return;
-
-        var totalHeight = t2y - t0y;
-        var d12y = t1.vertex().y() - t2.vertex().y();
-        var d12x = t1.vertex().x() - t2.vertex().x();
-        var d20y = t2.vertex().y() - t0.vertex().y();
-        var d01y = t0.vertex().y() - t1.vertex().y();
-        var d01x = t0.vertex().x() - t1.vertex().x();
-        var d20x = t2.vertex().x() - t0.vertex().x();
-        var triangleArea = -d20y * d12x + d12y * d20x;
-        if (triangleArea == 0)
-            return;
-
-        var t10 = t1.vertex().subtract(t0.vertex());
-        var t20 = t2.vertex().subtract(t0.vertex());
-        var isFirstVertexLeft = t10.x() * t20.y() - t10.y() * t20.x() <= 0;
-
-        var iA = ColorUtils.toVector(iAPicker.getValue());
-        var iD = ColorUtils.toVector(iDPicker.getValue());
-        var iS = ColorUtils.toVector(iSPicker.getValue());
-        var specularAlpha = (float) specularPower.getValue();
-
-        for (var i = 0; i < totalHeight; i++) {
-            var isSecondHalf = i >= t1y - t0y;
-            var segmentHeight = isSecondHalf ? t2y - t1y : t1y - t0y;
-            var alpha = (float) i / totalHeight;
-            var beta = (float) (i - (isSecondHalf ? t1y - t0y : 0)) / segmentHeight;
-            var Ax = (int) (t0x + (t2x - t0x) * alpha);
-            var Bx = (int) (isSecondHalf ? (t1x + (t2x - t1x) * beta) : (t0x + (t1x - t0x) * beta));
-            if (Ax > Bx) {
-                var temp = Ax;
-                Ax = Bx;
-                Bx = temp;
-            }
-            var y = t0y + i;
-
-            var left = isFirstVertexLeft ? t1 : (isSecondHalf ? t0 : t2);
-            var right = !isFirstVertexLeft ? t1 : (isSecondHalf ? t0 : t2);
-            var angle = isSecondHalf ? t2 : t0;
-
-            var leftWeight = (y - left.vertex().y()) / (angle.vertex().y() - left.vertex().y());
-            var rightWeight = (y - right.vertex().y()) / (angle.vertex().y() - right.vertex().y());
-            var nA = mix(left.normal(), angle.normal(), leftWeight);
-            var nB = mix(right.normal(), angle.normal(), rightWeight);
-
-            var leftW = new Vector3D(1f / left.vertex().z(), left.texture().u() / left.vertex().z(), left.texture().v() / left.vertex().z());
-            var angleW = new Vector3D(1f / angle.vertex().z(), angle.texture().u() / angle.vertex().z(), angle.texture().v() / angle.vertex().z());
-            var rightW = new Vector3D(1f / right.vertex().z(), right.texture().u() / right.vertex().z(), right.texture().v() / right.vertex().z());
-            var tA = mix(leftW, angleW, leftWeight);
-            var tB = mix(rightW, angleW, rightWeight);
-
-            var u = ((y - t2.vertex().y()) * d12x + d12y * (t2.vertex().x() - Ax)) / triangleArea;
-            var v = ((y - t0.vertex().y()) * d20x + d20y * (t0.vertex().x() - Ax)) / triangleArea;
-            var w = ((y - t1.vertex().y()) * d01x + d01y * (t1.vertex().x() - Ax)) / triangleArea;
-            var dU = -d12y / triangleArea;
-            var dV = -d20y / triangleArea;
-            var dW = -d01y / triangleArea;
-
-            var dN = nB.subtract(nA).divide(Bx - Ax);
-            var dT = tB.subtract(tA).divide(Bx - Ax);
-            var normal = nA;
-            var texture = tA;
-
-            for (var x = Ax; x <= Bx; x++) {
-                if (x != Ax) {
-                    u += dU;
-                    v += dV;
-                    w += dW;
-                }
-                var isPixelOutsideOfTriangle = u < 0 || u > 1 || v < 0 || v > 1 || w < 0 || w > 1;
-                if (isPixelOutsideOfTriangle)
-                    continue;
-
-                if (x != Ax) {
-                    normal = normal.add(dN);
-                    texture = texture.add(dT);
-                }
-
-                var z = t0.vertex().z() * u + t1.vertex().z() * v + t2.vertex().z() * w;
-                var pixelWorld = toWorld.apply(new Vector3D(x, y, z));
-                var textureCorrected = new Vector2D(texture.y() / texture.x(), texture.z() / texture.x());
-
-                var N = normalMap == null
-                        ? normal.normalize()
-                        : ColorUtils.toVector(getTextureArgb(textureCorrected, normalMap)).mul(2).subtract(1);
-                var V = camera.subtract(pixelWorld).normalize();
-
-                Vector3D color = null;
-                if (isPbr) {
-                    var mrao = mraoMap != null
-                            ? ColorUtils.toVector(getTextureArgb(textureCorrected, mraoMap))
-                            : new Vector3D(metallicSlider.getValue(), roughnessSlider.getValue(), aoSlider.getValue());
-
-                    var metallic = mrao.x();
-                    var roughness = mrao.y();
-                    var ao = mrao.z();
-                    var albedo = diffuseMap != null
-                            ? ColorUtils.toVector(getTextureArgb(textureCorrected, diffuseMap)).pow(2.2f)
-                            : ColorUtils.toVector(pbrAlbedoPicker.getValue());
-
-                    var lO = Vector3D.from(0);
-                    for (var light : lights) {
-                        var L = light.subtract(pixelWorld).normalize();
-                        var H = V.add(L).normalize();
-
-                        var distance = light.subtract(pixelWorld).length();
-                        var lightColor = Vector3D.from(1000);
-                        var radiance = lightColor.divide(distance * distance + 0.001f);
-
-                        var f0 = mix(new Vector3D(0.04f), albedo, metallic);
-                        var f = PbrUtils.fresnelSchlick(max(H.dot(V), 0.0f), f0);
-                        var kD = Vector3D.from(1).subtract(f).mul(1.0f - metallic);
-
-                        var D = PbrUtils.distributionGGX(N, H, roughness);
-                        var G = PbrUtils.geometrySmith(N, V, L, roughness);
-                        var numerator = f.mul(D * G);
-                        var denominator = 4.0f * max(N.dot(V), 0.0f) * max(N.dot(L), 0.0f) + 0.001f;
-                        var BRDF = numerator.divide(denominator);
-
-                        var emission = emissionMap == null
-                                ? Vector3D.from(0)
-                                : ColorUtils.toVector(getTextureArgb(textureCorrected, emissionMap)).mul(10);
-
-                        var nDotL = max(N.dot(L), 0.0f);
-                        var lambert = albedo.divide(Math.PI);
-                        var component = (kD.mul(lambert).add(BRDF)).mul(radiance).mul(nDotL).add(emission);
-                        lO = lO.add(component);
-                    }
-
-                    var ambient = Vector3D.from(0.03f).mul(albedo).mul(ao);
-                    color = ambient.add(lO);
-                } else if (isPhong) {
-                    var L = lights[0].subtract(pixelWorld).normalize();
-
-                    Vector3D kA;
-                    Vector3D kD;
-                    if (diffuseMap != null) {
-                        var argb = getTextureArgb(textureCorrected, diffuseMap);
-                        var aD = ColorUtils.toVector4(argb);
-                        kA = new Vector3D(aD.x(), aD.x(), aD.x());
-                        kD = new Vector3D(aD.y(), aD.z(), aD.w());
-                    } else {
-                        kA = ColorUtils.toVector(kAPicker.getValue());
-                        kD = ColorUtils.toVector(kDPicker.getValue());
-                    }
-                    var kS = emissionMap == null
-                            ? ColorUtils.toVector(kSPicker.getValue())
-                            : ColorUtils.toVector(getTextureArgb(textureCorrected, emissionMap));
-                    var nDotL = N.dot(L);
-                    var reflect = N.mul(2 * nDotL).subtract(L);
-
-                    var ambient = kA.mul(iA);
-                    var diffuse = kD.mul(max(nDotL, 0)).mul(iD);
-                    var specular = kS.mul((float) Math.pow(max(reflect.dot(V), 0f), specularAlpha)).mul(iS);
-                    color = ambient.add(diffuse).add(specular);
-                } else if (isFlat) {
-                    color = flatColor;
-                }
-
-                if (isReinhart) {
-                    color = color.divide(color.add(1));
-                } else {
-                    color = ACESFilm(color);
-                }
-                color = color.pow(1.0f / 2.2f);
-
-                var idx = x + y * W;
-                if (zBuffer[idx] < z) {
-                    drawPixel(buffer, x, y, ColorUtils.toArgbWithClamp(color));
-                    zBuffer[idx] = z;
-                }
-            }
-        }
-    }
-
-    Vector3D ACESFilm(Vector3D x) {
-        var a = 2.51f;
-        var b = 0.03f;
-        var c = 2.43f;
-        var d = 0.59f;
-        var e = 0.14f;
-        var color = (x.mul(x.mul(a).add(b))).divide(x.mul(x.mul(c).add(d)).add(e));
-        return new Vector3D(
-                min(max(color.x(), 0), 1),
-                min(max(color.y(), 0), 1),
-                min(max(color.z(), 0), 1)
-        );
-    }
-
-    private static int getTextureArgb(Vector2D texel, TextureMap map) {
-        var textureX = min(max((int) (texel.u() * map.w()) - 1, 0), map.w() - 1);
-        var textureY = min(max((int) ((1 - texel.v()) * map.h()) - 1, 0), map.h() - 1);
-        return map.at(textureX, textureY);
-    }
-
-    private void drawLine(WritableImageView buffer, int x1, int y1, int x2, int y2, int color) {
-        var dx = Math.abs(x2 - x1);
-        var sx = x1 < x2 ? 1 : -1;
-        var dy = -Math.abs(y2 - y1);
-        var sy = y1 < y2 ? 1 : -1;
-        var err = dx + dy;
-        while (true) {
-            drawPixel(buffer, x1, y1, color);
-            if (x1 == x2 && y1 == y2)
-                return;
-            var err2 = err * 2;
-            if (err2 > dy) {
-                err += dy;
-                x1 += sx;
-            }
-            if (err2 <= dx) {
-                err += dx;
-                y1 += sy;
-            }
-        }
-    }
-
     private Vector3D getCamera() {
         return getOrbitingVector(currentOrbit.getX(), currentOrbit.getY(), currentOrbit.getRadius());
     }
@@ -862,12 +622,7 @@ public class MainController {
         };
     }
 
-    private void drawPixel(WritableImageView buffer, int x, int y, int argbColor) {
-        if (x >= 0 && x < W && y >= 0 && y < H)
-            buffer.setArgb(x, y, argbColor);
-    }
-
-    private Optional<ObjGroup> parseObjAndUpdateProgress(File file) {
+    private Optional<ObjModel> parseObjAndUpdateProgress(File file) {
         var progressConsumer = (DoubleConsumer) progress -> {
             // throttle ui events and make them ~60 fps (16.(6) ms)
             var throttleTime = 17000000;
@@ -878,13 +633,14 @@ public class MainController {
             }
         };
         try {
-            return Optional.of(parser.parse(file, progressConsumer));
+            var batchConsumer = (Consumer<MeshBatch>) batch -> Platform.runLater(() -> onBatchLoaded(batch));
+            return Optional.of(parser.parseModel(file, 0, batchConsumer, progressConsumer));
         } catch (ObjParserException e) {
             e.printStackTrace();
             return Optional.empty();
         }
     }
 
-    private record FrameAndZBuffers(WritableImageView frameBuffer, float[] zBuffer) {
+    private record FrameAndZBuffers(WritableImageView frameBuffer, FrameBuffer target) {
     }
 }
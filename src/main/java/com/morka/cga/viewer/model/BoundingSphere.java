@@ -0,0 +1,37 @@
+package com.morka.cga.viewer.model;
+
+/**
+ * Sphere around positions, centered at the center of their bounds.
+ */
+public record BoundingSphere(Vector3D center, float radius) {
+
+    /**
+     * @param positions x, y, z of every position, no positions give an empty sphere at the origin
+     */
+    public static BoundingSphere of(float[] positions) {
+        if (positions.length == 0)
+            return new BoundingSphere(Vector3D.from(0), 0);
+
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+        for (var i = 0; i < positions.length; i += 3) {
+            minX = Math.min(minX, positions[i]);
+            minY = Math.min(minY, positions[i + 1]);
+            minZ = Math.min(minZ, positions[i + 2]);
+            maxX = Math.max(maxX, positions[i]);
+            maxY = Math.max(maxY, positions[i + 1]);
+            maxZ = Math.max(maxZ, positions[i + 2]);
+        }
+        var centerX = (minX + maxX) / 2;
+        var centerY = (minY + maxY) / 2;
+        var centerZ = (minZ + maxZ) / 2;
+        var radiusSquared = 0f;
+        for (var i = 0; i < positions.length; i += 3) {
+            var x = positions[i] - centerX;
+            var y = positions[i + 1] - centerY;
+            var z = positions[i + 2] - centerZ;
+            radiusSquared = Math.max(radiusSquared, x * x + y * y + z * z);
+        }
+        return new BoundingSphere(new Vector3D(centerX, centerY, centerZ), (float) Math.sqrt(radiusSquared));
+    }
+}
@@ -0,0 +1,190 @@
+package com.morka.cga.viewer.render;
+
+import com.morka.cga.viewer.model.Matrix4D;
+import com.morka.cga.viewer.model.Vector2D;
+import com.morka.cga.viewer.model.Vector3D;
+import com.morka.cga.viewer.model.Vector4D;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.morka.cga.viewer.utils.GeomUtils.mix;
+
+/**
+ * Tests geometry against the view frustum and clips triangles in homogeneous clip space, before they are divided by w.
+ * <p>
+ * Clip space is the one of the projection of the renderer, points inside the frustum have {@code -w <= x <= w},
+ * {@code -w <= y <= w} and {@code z >= 0}, with {@code z = 0} on the near plane. The far plane is left out, as depth
+ * is view space z, which has no range to overflow. Vertices behind the eye project mirrored, so triangles crossing
+ * the near plane are clipped against it. Side planes are only clipped against a guard band far off the screen,
+ * which keeps fixed point coordinates of vertices in range, the rasterizer does not visit pixels off the screen anyway.
+ */
+final class Clipper {
+
+    static final int NEAR = 1;
+
+    static final int LEFT = 1 << 1;
+
+    static final int RIGHT = 1 << 2;
+
+    static final int BOTTOM = 1 << 3;
+
+    static final int TOP = 1 << 4;
+
+    private static final int[] PLANES = {NEAR, LEFT, RIGHT, BOTTOM, TOP};
+
+    private final float guardBandX;
+
+    private final float guardBandY;
+
+    /**
+     * View space planes of the frustum as x, y, z of the unit normal pointing inside and the offset.
+     */
+    private final float[][] planes;
+
+    /**
+     * @param projection view to clip space transform
+     * @param guardBandX half width of the guard band in units of the half width of the screen
+     * @param guardBandY half height of the guard band in units of the half height of the screen
+     */
+    Clipper(Matrix4D projection, float guardBandX, float guardBandY) {
+        this.guardBandX = guardBandX;
+        this.guardBandY = guardBandY;
+        var rows = projection.contents();
+        this.planes = new float[][]{
+                plane(rows[2], rows[3], 0),
+                plane(rows[3], rows[0], 1),
+                plane(rows[3], rows[0], -1),
+                plane(rows[3], rows[1], 1),
+                plane(rows[3], rows[1], -1)
+        };
+    }
+
+    /**
+     * Vertex of a triangle before the division by w.
+     *
+     * @param position clip space position
+     * @param depth    view space depth
+     * @param normal   world space normal
+     * @param world    world space position
+     */
+    record Vertex(Vector4D position, float depth, Vector2D texture, Vector3D normal, Vector3D world) {
+
+        /**
+         * Gets the vertex the fraction of the way to the other one, all attributes are affine in clip space.
+         */
+        Vertex towards(Vertex other, float t) {
+            var from = position;
+            var to = other.position;
+            return new Vertex(
+                    new Vector4D(mix(from.x(), to.x(), t), mix(from.y(), to.y(), t), mix(from.z(), to.z(), t),
+                            mix(from.w(), to.w(), t)),
+                    mix(depth, other.depth, t),
+                    new Vector2D(mix(texture.u(), other.texture.u(), t), mix(texture.v(), other.texture.v(), t)),
+                    new Vector3D(mix(normal.x(), other.normal.x(), t), mix(normal.y(), other.normal.y(), t),
+                            mix(normal.z(), other.normal.z(), t)),
+                    new Vector3D(mix(world.x(), other.world.x(), t), mix(world.y(), other.world.y(), t),
+                            mix(world.z(), other.world.z(), t))
+            );
+        }
+    }
+
+    /**
+     * Gets the planes of the view frustum the clip space point is outside of. A triangle with all vertices outside
+     * the same plane is outside the view.
+     */
+    static int outcode(Vector4D position) {
+        return outcode(position, 1, 1);
+    }
+
+    /**
+     * Gets the planes the clip space point is outside of, with side planes moved out to the guard band.
+     * A triangle has to be clipped against the planes any of its vertices is outside of.
+     */
+    int guardBandOutcode(Vector4D position) {
+        return outcode(position, guardBandX, guardBandY);
+    }
+
+    private static int outcode(Vector4D position, float scaleX, float scaleY) {
+        var code = 0;
+        var w = position.w();
+        if (position.z() < 0)
+            code |= NEAR;
+        if (position.x() < -scaleX * w)
+            code |= LEFT;
+        if (position.x() > scaleX * w)
+            code |= RIGHT;
+        if (position.y() < -scaleY * w)
+            code |= BOTTOM;
+        if (position.y() > scaleY * w)
+            code |= TOP;
+        return code;
+    }
+
+    /**
+     * Clips the triangle against the planes with Sutherland-Hodgman algorithm.
+     *
+     * @param planes planes to clip against, see {@link #guardBandOutcode(Vector4D)}
+     * @return vertices of the convex polygon left in the order of the triangle, fewer than three if nothing is left
+     */
+    List<Vertex> clip(Vertex first, Vertex second, Vertex third, int planes) {
+        var polygon = List.of(first, second, third);
+        for (var plane : PLANES) {
+            if ((planes & plane) == 0)
+                continue;
+            var clipped = new ArrayList<Vertex>(polygon.size() + 1);
+            for (var i = 0; i < polygon.size(); i++) {
+                var from = polygon.get(i);
+                var to = polygon.get((i + 1) % polygon.size());
+                var fromDistance = distance(from.position(), plane);
+                var toDistance = distance(to.position(), plane);
+                if (fromDistance >= 0)
+                    clipped.add(from);
+                // always going from the inside vertex, so triangles sharing the edge get the same intersection
+                if (fromDistance >= 0 && toDistance < 0)
+                    clipped.add(from.towards(to, fromDistance / (fromDistance - toDistance)));
+                else if (fromDistance < 0 && toDistance >= 0)
+                    clipped.add(to.towards(from, toDistance / (toDistance - fromDistance)));
+            }
+            if (clipped.size() < 3)
+                return List.of();
+            polygon = clipped;
+        }
+        return polygon;
+    }
+
+    /**
+     * Gets the signed distance of the clip space point to the plane, positive inside.
+     */
+    private float distance(Vector4D position, int plane) {
+        return switch (plane) {
+            case NEAR -> position.z();
+            case LEFT -> position.x() + guardBandX * position.w();
+            case RIGHT -> guardBandX * position.w() - position.x();
+            case BOTTOM -> position.y() + guardBandY * position.w();
+            default -> guardBandY * position.w() - position.y();
+        };
+    }
+
+    /**
+     * Tells whether the view space sphere is outside the view frustum.
+     */
+    boolean isOutside(Vector3D center, float radius) {
+        for (var plane : planes)
+            if (plane[0] * center.x() + plane[1] * center.y() + plane[2] * center.z() + plane[3] < -radius)
+                return true;
+        return false;
+    }
+
+    /**
+     * Gets the view space plane where the sum of the first row and the signed second row of the projection is zero.
+     */
+    private static float[] plane(float[] first, float[] second, int sign) {
+        var x = first[0] + sign * second[0];
+        var y = first[1] + sign * second[1];
+        var z = first[2] + sign * second[2];
+        var offset = first[3] + sign * second[3];
+        var length = (float) Math.sqrt(x * x + y * y + z * z);
+        return new float[]{x / length, y / length, z / length, offset / length};
+    }
+}
@@ -0,0 +1,160 @@
+package com.morka.cga.viewer.render;
+
+import java.util.Arrays;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Two level min/max depth pyramid of a tile: the farthest and nearest depth of every pixel block of the tile
+ * and the farthest depth of the whole tile. A surface nearer than none of the farthest depths of a rectangle
+ * is hidden everywhere in it, so it is rejected without visiting its pixels.
+ * <p>
+ * Bounds are read from the frame buffer when the tile is started, so frames drawn over older content stay correct.
+ * Drawing only ever makes depth nearer, so the farthest depth of a block drawn to stays a valid bound and is read again
+ * only when a test would fail with it, while the nearest depth is raised right away.
+ */
+final class DepthBounds {
+
+    private static final int BLOCK_SIZE = Renderer.BLOCK_SIZE;
+
+    private static final int BLOCK_SHIFT = Integer.numberOfTrailingZeros(BLOCK_SIZE);
+
+    /**
+     * Blocks along a side of a tile.
+     */
+    private static final int BLOCKS = TileBins.TILE_SIZE / BLOCK_SIZE;
+
+    private final float[] depth;
+
+    private final int width;
+
+    private final int minX;
+
+    private final int minY;
+
+    private final int maxX;
+
+    private final int maxY;
+
+    private final float[] farthest = new float[BLOCKS * BLOCKS];
+
+    private final float[] nearest = new float[BLOCKS * BLOCKS];
+
+    /**
+     * Tells which blocks were drawn to since their farthest depth was read.
+     */
+    private final boolean[] isStale = new boolean[BLOCKS * BLOCKS];
+
+    private float tileFarthest;
+
+    private boolean isTileStale;
+
+    /**
+     * Reads the bounds of the pixel rectangle of a tile, bounds are inclusive.
+     */
+    DepthBounds(FrameBuffer target, int minX, int minY, int maxX, int maxY) {
+        this.depth = target.depth();
+        this.width = target.width();
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        // blocks past the edge of the frame cover no pixels
+        Arrays.fill(farthest, Float.POSITIVE_INFINITY);
+        for (var y = minY; y <= maxY; y += BLOCK_SIZE)
+            for (var x = minX; x <= maxX; x += BLOCK_SIZE)
+                read(block(x, y));
+    }
+
+    /**
+     * Tells whether a surface no nearer than the depth is hidden in the whole pixel rectangle, bounds are inclusive.
+     *
+     * @param isExact read farthest depths of blocks drawn to again where the last read ones do not hide the surface,
+     *                worth it for many triangles at once
+     */
+    boolean isHidden(int left, int top, int right, int bottom, float nearestDepth, boolean isExact) {
+        if (tileFarthest() >= nearestDepth)
+            return true;
+        var firstColumn = (max(left, minX) - minX) >> BLOCK_SHIFT;
+        var lastColumn = (min(right, maxX) - minX) >> BLOCK_SHIFT;
+        var firstRow = (max(top, minY) - minY) >> BLOCK_SHIFT;
+        var lastRow = (min(bottom, maxY) - minY) >> BLOCK_SHIFT;
+        for (var row = firstRow; row <= lastRow; row++) {
+            for (var column = firstColumn; column <= lastColumn; column++) {
+                var block = row * BLOCKS + column;
+                if (farthest[block] >= nearestDepth)
+                    continue;
+                if (!isExact || !isStale[block])
+                    return false;
+                read(block);
+                if (farthest[block] < nearestDepth)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tells whether a surface no nearer than the depth is hidden in the whole block of the pixel,
+     * going by the farthest depth last read.
+     */
+    boolean isHidden(int x, int y, float nearestDepth) {
+        return farthest[block(x, y)] >= nearestDepth;
+    }
+
+    /**
+     * Tells whether a surface no farther than the depth passes the depth test everywhere in the block of the pixel.
+     */
+    boolean isInFront(int x, int y, float farthestDepth) {
+        return nearest[block(x, y)] < farthestDepth;
+    }
+
+    /**
+     * Records that the block of the pixel was drawn to.
+     *
+     * @param nearestDepth depth no drawn pixel is nearer than
+     */
+    void drawn(int x, int y, float nearestDepth) {
+        var block = block(x, y);
+        nearest[block] = max(nearest[block], nearestDepth);
+        isStale[block] = true;
+    }
+
+    private void read(int block) {
+        var left = minX + (block % BLOCKS << BLOCK_SHIFT);
+        var top = minY + (block / BLOCKS << BLOCK_SHIFT);
+        var right = min(left + BLOCK_SIZE - 1, maxX);
+        var bottom = min(top + BLOCK_SIZE - 1, maxY);
+        var far = Float.POSITIVE_INFINITY;
+        var near = Float.NEGATIVE_INFINITY;
+        for (var row = top; row <= bottom; row++) {
+            for (var idx = left + row * width; idx <= right + row * width; idx++) {
+                var z = depth[idx];
+                if (z < far)
+                    far = z;
+                if (z > near)
+                    near = z;
+            }
+        }
+        farthest[block] = far;
+        nearest[block] = near;
+        isStale[block] = false;
+        isTileStale = true;
+    }
+
+    private float tileFarthest() {
+        if (isTileStale) {
+            var far = Float.POSITIVE_INFINITY;
+            for (var blockFarthest : farthest)
+                far = min(far, blockFarthest);
+            tileFarthest = far;
+            isTileStale = false;
+        }
+        return tileFarthest;
+    }
+
+    private int block(int x, int y) {
+        return ((y - minY) >> BLOCK_SHIFT) * BLOCKS + ((x - minX) >> BLOCK_SHIFT);
+    }
+}
@@ -0,0 +1,72 @@
+package com.morka.cga.viewer.render;
+
+import java.util.Arrays;
+
+/**
+ * Color and depth of rendered pixels, row by row from the top left corner.
+ * Depth is the view space z of the nearest triangle, larger values are closer.
+ */
+public final class FrameBuffer {
+
+    private final int width;
+
+    private final int height;
+
+    private final int[] pixels;
+
+    private final float[] depth;
+
+    private GBuffer gBuffer;
+
+    public FrameBuffer(int width, int height) {
+        this(width, height, new int[width * height]);
+    }
+
+    /**
+     * @param pixels ARGB array to render into, e.g. one backing an image
+     */
+    public FrameBuffer(int width, int height, int[] pixels) {
+        if (pixels.length != width * height)
+            throw new IllegalArgumentException("Expected " + width * height + " pixels, got " + pixels.length);
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+        this.depth = new float[width * height];
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /**
+     * @return ARGB colors
+     */
+    public int[] pixels() {
+        return pixels;
+    }
+
+    public float[] depth() {
+        return depth;
+    }
+
+    /**
+     * Gets the G-buffer of deferred shading, allocated the first time a frame is shaded deferred.
+     */
+    GBuffer gBuffer() {
+        if (gBuffer == null)
+            gBuffer = new GBuffer(width * height);
+        return gBuffer;
+    }
+
+    /**
+     * Fills the buffer with the background and moves depth infinitely far away.
+     */
+    public void clear(int background) {
+        Arrays.fill(pixels, background);
+        Arrays.fill(depth, Float.NEGATIVE_INFINITY);
+    }
+}
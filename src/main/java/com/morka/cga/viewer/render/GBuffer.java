@@ -0,0 +1,56 @@
+package com.morka.cga.viewer.render;
+
+/**
+ * Surface of the nearest triangle per pixel, written by the geometry pass of deferred shading and shaded by
+ * a later pass, so every pixel is shaded once however many triangles cover it. Pixels are laid out as in the
+ * {@link FrameBuffer} the G-buffer belongs to, depth is the one of the frame buffer.
+ */
+final class GBuffer {
+
+    /**
+     * Material of pixels no triangle covered since they were reset.
+     */
+    static final int NO_MATERIAL = -1;
+
+    /**
+     * Interpolated world space normal, not normalized.
+     */
+    final float[] normalX;
+
+    final float[] normalY;
+
+    final float[] normalZ;
+
+    /**
+     * Perspective correct texture coordinates and their mip level.
+     */
+    final float[] u;
+
+    final float[] v;
+
+    final float[] lod;
+
+    final float[] worldX;
+
+    final float[] worldY;
+
+    final float[] worldZ;
+
+    /**
+     * Index of the surface maps of the scene, see {@link Scene#materialMaps()}.
+     */
+    final int[] material;
+
+    GBuffer(int size) {
+        normalX = new float[size];
+        normalY = new float[size];
+        normalZ = new float[size];
+        u = new float[size];
+        v = new float[size];
+        lod = new float[size];
+        worldX = new float[size];
+        worldY = new float[size];
+        worldZ = new float[size];
+        material = new int[size];
+    }
+}
@@ -0,0 +1,210 @@
+package com.morka.cga.viewer.render;
+
+import com.morka.cga.parser.model.Material;
+import com.morka.cga.parser.model.TextureMap;
+import com.morka.cga.parser.service.TextureCache;
+import com.morka.cga.viewer.texture.FloatTexture;
+import com.morka.cga.viewer.texture.MipmappedTexture;
+import com.morka.cga.viewer.texture.TextureLayout;
+import com.morka.cga.viewer.texture.TextureUsage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Turns decoded maps into textures the renderer samples. Mip chains are kept as long as their maps are alive,
+ * so maps shared by materials or reopened models are prepared once.
+ * <p>
+ * Models hold {@link Mipmaps} instead of their materials, so nothing keeps maps alive but the texture cache,
+ * which lets go of maps once they are block compressed. Compressed textures then take only the memory of their blocks.
+ */
+public final class MaterialTextures {
+
+    private final TextureCache textureCache;
+
+    /**
+     * Mip chains of decoded maps, dropped together with maps evicted from the texture cache.
+     */
+    private final Map<TextureMap, MipmappedTexture> mipmaps = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Prepares maps decoded without a cache.
+     */
+    public MaterialTextures() {
+        this(null);
+    }
+
+    /**
+     * @param textureCache cache the maps are loaded through, released block compressed maps are decoded anew
+     *                     when loaded again
+     */
+    public MaterialTextures(TextureCache textureCache) {
+        this.textureCache = textureCache;
+    }
+
+    /**
+     * Gets the mip chain of the map.
+     * Chains leaving the block compressed layout are rebuilt from the map, so they do not keep the compression error.
+     * Block compressed maps are released from the texture cache once their chain is built.
+     *
+     * @param usage how shaders sample the map, {@code null} if they use raw colors
+     */
+    public MipmappedTexture mipmapped(TextureMap map, TextureLayout layout, TextureUsage usage) {
+        var texture = mipmaps.compute(map, (m, cached) ->
+                cached == null || cached.layout() == TextureLayout.BLOCK_COMPRESSED && layout != cached.layout()
+                        ? MipmappedTexture.of(m, layout, usage == TextureUsage.NORMAL)
+                        : cached.withLayout(layout));
+        if (textureCache != null && texture.layout() == TextureLayout.BLOCK_COMPRESSED)
+            textureCache.release(map);
+        return texture;
+    }
+
+    /**
+     * Gets the texture in another layout, rebuilding it from its map while the map is still alive.
+     * Block compressed textures whose maps are gone are decoded from their blocks.
+     */
+    public MipmappedTexture relaid(MipmappedTexture texture, TextureLayout layout) {
+        if (texture == null)
+            return null;
+        TextureMap source = null;
+        synchronized (mipmaps) {
+            for (var entry : mipmaps.entrySet())
+                if (entry.getValue() == texture)
+                    source = entry.getKey();
+        }
+        if (source == null)
+            return texture.withLayout(layout);
+        return mipmapped(source, layout, texture.isNormalMap() ? TextureUsage.NORMAL : null);
+    }
+
+    /**
+     * Builds mip chains of material maps, a map shared by several materials or slots gets one chain.
+     *
+     * @return chains of every material in the order of the materials
+     */
+    public List<Mipmaps> build(List<Material> materials, TextureLayout layout) {
+        var mipmaps = new ArrayList<Mipmaps>(materials.size());
+        for (var material : materials) {
+            mipmaps.add(new Mipmaps(
+                    texture(material.diffuseMap(), layout, TextureUsage.ALBEDO),
+                    texture(material.normalMap(), layout, TextureUsage.NORMAL),
+                    texture(material.emissionMap(), layout, null),
+                    texture(material.roughnessMap(), layout, TextureUsage.DATA),
+                    texture(material.metallicMap(), layout, TextureUsage.DATA)
+            ));
+        }
+        return mipmaps;
+    }
+
+    /**
+     * Gets material chains in another layout like {@link #relaid(MipmappedTexture, TextureLayout)},
+     * chains shared by several materials or slots stay shared.
+     */
+    public List<Mipmaps> relaid(List<Mipmaps> materials, TextureLayout layout) {
+        var relaid = new IdentityHashMap<MipmappedTexture, MipmappedTexture>();
+        var mipmaps = new ArrayList<Mipmaps>(materials.size());
+        for (var material : materials) {
+            mipmaps.add(new Mipmaps(
+                    relaid(relaid, material.diffuse(), layout),
+                    relaid(relaid, material.normal(), layout),
+                    relaid(relaid, material.emission(), layout),
+                    relaid(relaid, material.roughness(), layout),
+                    relaid(relaid, material.metallic(), layout)
+            ));
+        }
+        return mipmaps;
+    }
+
+    /**
+     * Gets maps of the materials in the order {@link Scene#materialMaps()} takes them.
+     *
+     * @param materials chains of the materials, see {@link #build(List, TextureLayout)}
+     * @param overrides maps picked by hand, they take precedence over material ones
+     */
+    public SurfaceMaps[] materialMaps(List<Mipmaps> materials, Overrides overrides) {
+        var materialMaps = new SurfaceMaps[materials.size() + 1];
+        materialMaps[0] = surfaceMaps(null, overrides);
+        for (var i = 0; i < materials.size(); i++)
+            materialMaps[i + 1] = surfaceMaps(materials.get(i), overrides);
+        return materialMaps;
+    }
+
+    /**
+     * @param material chains of the material or {@code null} for triangles without one
+     */
+    private SurfaceMaps surfaceMaps(Mipmaps material, Overrides overrides) {
+        if (material == null)
+            return surfaceMaps(overrides.diffuse(), overrides.normal(), overrides.emission(), overrides.mrao(), null, null);
+
+        var packed = material.metallic() != null && material.metallic() == material.roughness();
+        var separate = overrides.mrao() == null && !packed;
+        return surfaceMaps(
+                overrides.diffuse() != null ? overrides.diffuse() : material.diffuse(),
+                overrides.normal() != null ? overrides.normal() : material.normal(),
+                overrides.emission() != null ? overrides.emission() : material.emission(),
+                overrides.mrao() != null ? overrides.mrao() : packed ? material.metallic() : null,
+                separate ? material.metallic() : null,
+                separate ? material.roughness() : null
+        );
+    }
+
+    private SurfaceMaps surfaceMaps(MipmappedTexture diffuse,
+                                    MipmappedTexture normal,
+                                    MipmappedTexture emission,
+                                    MipmappedTexture mrao,
+                                    MipmappedTexture metallic,
+                                    MipmappedTexture roughness) {
+        return new SurfaceMaps(
+                diffuse,
+                decoded(diffuse, TextureUsage.ALBEDO),
+                decoded(normal, TextureUsage.NORMAL),
+                emission,
+                decoded(mrao, TextureUsage.DATA),
+                decoded(metallic, TextureUsage.DATA),
+                decoded(roughness, TextureUsage.DATA)
+        );
+    }
+
+    /**
+     * Views the texture for shading, texels are decoded while sampling.
+     */
+    private static FloatTexture decoded(MipmappedTexture texture, TextureUsage usage) {
+        return texture == null ? null : FloatTexture.of(texture, usage);
+    }
+
+    private MipmappedTexture texture(TextureMap map, TextureLayout layout, TextureUsage usage) {
+        return map == null ? null : mipmapped(map, layout, usage);
+    }
+
+    private MipmappedTexture relaid(Map<MipmappedTexture, MipmappedTexture> relaid,
+                                    MipmappedTexture texture,
+                                    TextureLayout layout) {
+        return texture == null ? null : relaid.computeIfAbsent(texture, t -> relaid(t, layout));
+    }
+
+    /**
+     * Mip chains of the maps of a material, any of them may be {@code null}. The chains do not refer to the maps,
+     * the metallic chain is the roughness one when both come from one map.
+     */
+    public record Mipmaps(MipmappedTexture diffuse,
+                          MipmappedTexture normal,
+                          MipmappedTexture emission,
+                          MipmappedTexture roughness,
+                          MipmappedTexture metallic) {
+    }
+
+    /**
+     * Maps applied to every material instead of its own ones, any of them may be {@code null}.
+     */
+    public record Overrides(MipmappedTexture diffuse,
+                            MipmappedTexture normal,
+                            MipmappedTexture emission,
+                            MipmappedTexture mrao) {
+
+        public static final Overrides NONE = new Overrides(null, null, null, null);
+    }
+}
@@ -0,0 +1,71 @@
+package com.morka.cga.viewer.render;
+
+import com.morka.cga.viewer.model.Vector3D;
+import com.morka.cga.viewer.texture.TextureFilter;
+import lombok.Builder;
+
+/**
+ * Shading settings of a frame. Colors are linear RGB in [0, 1]. Material values are used where maps are missing.
+ *
+ * @param background        ARGB color of pixels no triangle covers
+ * @param ambientIntensity  Phong ambient light
+ * @param diffuseIntensity  Phong diffuse light
+ * @param specularIntensity Phong specular light
+ * @param ambientColor      Phong ambient reflectance
+ * @param diffuseColor      Phong diffuse reflectance
+ * @param specularColor     Phong specular reflectance
+ * @param specularPower     Phong shininess exponent
+ * @param albedo            PBR base color
+ * @param metallic          PBR metalness
+ * @param roughness         PBR roughness
+ * @param ambientOcclusion  PBR ambient occlusion
+ * @param vectorShading     shade spans of pixels at once with the Vector API where it is available,
+ *                          see {@link Renderer#isVectorShadingAvailable()}
+ * @param deferredShading   draw surfaces of all triangles first and then shade only visible pixels, once each;
+ *                          takes precedence over vector shading, flat shading is never deferred
+ * @param occlusionCulling  skip triangles and pixel blocks hidden behind depth drawn before them
+ */
+@Builder(toBuilder = true)
+public record RenderSettings(Shading shading,
+                             ToneMapping toneMapping,
+                             TextureFilter textureFilter,
+                             int background,
+                             Vector3D ambientIntensity,
+                             Vector3D diffuseIntensity,
+                             Vector3D specularIntensity,
+                             Vector3D ambientColor,
+                             Vector3D diffuseColor,
+                             Vector3D specularColor,
+                             float specularPower,
+                             Vector3D albedo,
+                             float metallic,
+                             float roughness,
+                             float ambientOcclusion,
+                             boolean vectorShading,
+                             boolean deferredShading,
+                             boolean occlusionCulling) {
+
+    /**
+     * Settings the viewer starts with.
+     */
+    public static final RenderSettings DEFAULT = RenderSettings.builder()
+            .shading(Shading.PHONG)
+            .toneMapping(ToneMapping.REINHARD)
+            .textureFilter(TextureFilter.TRILINEAR)
+            .background(0xFFFFFFFF)
+            .ambientIntensity(Vector3D.from(0))
+            .diffuseIntensity(new Vector3D(0.6010136604309082, 0.9894737005233765, 0.6139622926712036))
+            .specularIntensity(Vector3D.from(1))
+            .ambientColor(Vector3D.from(1))
+            .diffuseColor(Vector3D.from(1))
+            .specularColor(Vector3D.from(1))
+            .specularPower(128)
+            .albedo(Vector3D.from(1))
+            .metallic(0.5f)
+            .roughness(0.5f)
+            .ambientOcclusion(0.5f)
+            .vectorShading(false)
+            .deferredShading(false)
+            .occlusionCulling(true)
+            .build();
+}
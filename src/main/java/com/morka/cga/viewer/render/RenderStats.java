@@ -0,0 +1,33 @@
+package com.morka.cga.viewer.render;
+
+/**
+ * Triangle counts of rendered frames. Triangles which pass setup are counted once per screen tile they overlap,
+ * as tiles reject them against their depth independently.
+ *
+ * @param triangles          triangles given to the renderer
+ * @param culled             triangles dropped by setup, facing away from the camera or outside the view
+ * @param binned             pairs of triangles and tiles they overlap
+ * @param occluded           binned triangles rejected as hidden behind drawn depth one by one
+ * @param occludedInClusters binned triangles rejected as hidden together with their cluster
+ */
+public record RenderStats(long triangles, long culled, long binned, long occluded, long occludedInClusters) {
+
+    public static final RenderStats NONE = new RenderStats(0, 0, 0, 0, 0);
+
+    /**
+     * @return binned triangles which were rasterized
+     */
+    public long drawn() {
+        return binned - occluded - occludedInClusters;
+    }
+
+    public RenderStats plus(RenderStats other) {
+        return new RenderStats(
+                triangles + other.triangles,
+                culled + other.culled,
+                binned + other.binned,
+                occluded + other.occluded,
+                occludedInClusters + other.occludedInClusters
+        );
+    }
+}
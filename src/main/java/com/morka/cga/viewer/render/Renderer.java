@@ -0,0 +1,1079 @@
+package com.morka.cga.viewer.render;
+
+import com.morka.cga.parser.model.IndexedMesh;
+import com.morka.cga.parser.model.MeshBatch;
+import com.morka.cga.viewer.model.BoundingSphere;
+import com.morka.cga.viewer.model.Matrix4D;
+import com.morka.cga.viewer.model.Vector2D;
+import com.morka.cga.viewer.model.Vector3D;
+import com.morka.cga.viewer.model.Vector4D;
+import com.morka.cga.viewer.texture.MipmappedTexture;
+import com.morka.cga.viewer.texture.TextureFilter;
+import com.morka.cga.viewer.utils.ColorUtils;
+import com.morka.cga.viewer.utils.GeomUtils;
+import com.morka.cga.viewer.utils.PbrUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.stream.IntStream;
+
+import static com.morka.cga.viewer.utils.GeomUtils.mix;
+import static com.morka.cga.viewer.utils.GeomUtils.vector2D;
+import static com.morka.cga.viewer.utils.GeomUtils.vector3D;
+import static com.morka.cga.viewer.utils.GeomUtils.vector4D;
+import static com.morka.cga.viewer.utils.MatrixUtils.buildProjectionMatrix;
+import static com.morka.cga.viewer.utils.MatrixUtils.buildViewportMatrix;
+import static com.morka.cga.viewer.utils.MatrixUtils.getViewMatrix;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Software rasterizer drawing meshes into {@link FrameBuffer}s. Triangles are set up concurrently, then sorted
+ * into screen tiles, and every tile is drawn by a single thread, so frames are the same whatever the number of threads.
+ * Deferred shading draws surfaces of all tiles into a {@link GBuffer} first and shades their pixels in a second pass.
+ * A renderer keeps no frame state, so it can render several frames at once from different threads.
+ */
+public final class Renderer {
+
+    /**
+     * Vertical field of view in degrees.
+     */
+    public static final float FIELD_OF_VIEW = 45;
+
+    private static final float NEAR = 0.1f;
+
+    private static final float FAR = 100;
+
+    /**
+     * Fractional bits of fixed point screen coordinates.
+     */
+    private static final int SUBPIXEL_BITS = 8;
+
+    /**
+     * Width and height of pixel blocks tested against triangle edges and drawn depth at once.
+     */
+    static final int BLOCK_SIZE = 8;
+
+    /**
+     * Consecutive triangles rejected as hidden together, neighbours in meshes mostly lie close on the screen.
+     */
+    private static final int CLUSTER_SIZE = 64;
+
+    /**
+     * Relative error of depth interpolated over triangles, nearest and farthest depths of triangles are widened by it,
+     * so rejecting hidden triangles and blocks never drops pixels which pass the depth test.
+     */
+    private static final float DEPTH_TOLERANCE = 0x1p-16f;
+
+    /**
+     * Furthest a vertex may be from the screen in pixels, so edge functions of its triangles fit in a {@code long}.
+     * Triangles are clipped to a guard band half as far out.
+     */
+    private static final float MAX_COORDINATE = 1 << 22;
+
+    private static final boolean VECTOR_SHADING_AVAILABLE =
+            ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private final int width;
+
+    private final int height;
+
+    private final Matrix4D projectionMatrix;
+
+    private final Matrix4D viewportMatrix;
+
+    private final Clipper clipper;
+
+    /**
+     * Bounding spheres of mesh and batch positions, computed once per array and dropped together with it.
+     */
+    private final Map<float[], BoundingSphere> boundingSpheres = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * @param width  width of frames in pixels
+     * @param height height of frames in pixels
+     */
+    public Renderer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.projectionMatrix = buildProjectionMatrix(width, height, FIELD_OF_VIEW, NEAR, FAR);
+        this.viewportMatrix = buildViewportMatrix(width, height);
+        this.clipper = new Clipper(projectionMatrix, MAX_COORDINATE / width, MAX_COORDINATE / height);
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Tells whether {@link RenderSettings#vectorShading()} takes effect. The Vector API is an incubating module,
+     * it is only there when the JVM is started with {@code --add-modules jdk.incubator.vector}.
+     */
+    public static boolean isVectorShadingAvailable() {
+        return VECTOR_SHADING_AVAILABLE;
+    }
+
+    /**
+     * Draws the mesh over what the frame buffer already holds, see {@link FrameBuffer#clear(int)}.
+     *
+     * @param vertexNormals x, y, z of normal per mesh vertex
+     * @return triangle counts of the frame
+     */
+    public RenderStats render(Scene scene, IndexedMesh mesh, float[] vertexNormals, FrameBuffer target) {
+        var frame = frameState(scene, target);
+        if (isOutsideView(frame, mesh.positions()))
+            return new RenderStats(mesh.triangleCount(), mesh.triangleCount(), 0, 0, 0);
+
+        var worldNormals = new Vector3D[mesh.vertexCount()];
+        IntStream.range(0, worldNormals.length).parallel()
+                .forEach(i -> worldNormals[i] = frame.worldMatrix().multiply(vector3D(vertexNormals, i)));
+        var positions = mesh.positions();
+        var uvs = mesh.uvs();
+        var indices = mesh.indices();
+        var materials = mesh.materials();
+        var triangles = new Triangle[mesh.triangleCount()];
+        for (var range = 0; range < materials.rangeCount(); range++) {
+            var material = materials.rangeMaterials()[range] + 1;
+            var maps = materialMaps(frame, material);
+            var end = range + 1 < materials.rangeCount()
+                    ? materials.rangeStarts()[range + 1]
+                    : mesh.triangleCount();
+            IntStream.range(materials.rangeStarts()[range], end).parallel().forEach(triangle -> {
+                var i0 = indices[triangle * 3];
+                var i1 = indices[triangle * 3 + 1];
+                var i2 = indices[triangle * 3 + 2];
+                triangles[triangle] = setUpTriangle(
+                        frame,
+                        material,
+                        maps,
+                        vector4D(positions, i0), vector4D(positions, i1), vector4D(positions, i2),
+                        vector2D(uvs, i0), vector2D(uvs, i1), vector2D(uvs, i2),
+                        worldNormals[i0], worldNormals[i1], worldNormals[i2]
+                );
+            });
+        }
+        return draw(frame, triangles);
+    }
+
+    /**
+     * Draws triangles of a mesh which is still loading with maps of triangles without material.
+     * Corners without normals get face normals until the whole mesh is there to average them.
+     *
+     * @return triangle counts of the frame
+     */
+    public RenderStats render(Scene scene, List<MeshBatch> batches, FrameBuffer target) {
+        var frame = frameState(scene, target);
+        var worldMatrix = frame.worldMatrix();
+        var maps = materialMaps(frame, 0);
+        var triangles = new Triangle[batches.stream().mapToInt(MeshBatch::triangleCount).sum()];
+        var offset = 0;
+        for (var batch : batches) {
+            var first = offset;
+            var positions = batch.positions();
+            var uvs = batch.uvs();
+            var normals = batch.normals();
+            offset += batch.triangleCount();
+            if (isOutsideView(frame, positions))
+                continue;
+            IntStream.range(0, batch.triangleCount()).parallel().forEach(triangle -> {
+                var i0 = triangle * 3;
+                var i1 = i0 + 1;
+                var i2 = i0 + 2;
+                Vector3D n0, n1, n2;
+                if (normals != null) {
+                    n0 = worldMatrix.multiply(vector3D(normals, i0));
+                    n1 = worldMatrix.multiply(vector3D(normals, i1));
+                    n2 = worldMatrix.multiply(vector3D(normals, i2));
+                } else {
+                    n0 = n1 = n2 = worldMatrix.multiply(GeomUtils.getNormal(positions, i0, i1, i2));
+                }
+                triangles[first + triangle] = setUpTriangle(
+                        frame,
+                        0,
+                        maps,
+                        vector4D(positions, i0), vector4D(positions, i1), vector4D(positions, i2),
+                        vector2D(uvs, i0), vector2D(uvs, i1), vector2D(uvs, i2),
+                        n0, n1, n2
+                );
+            });
+        }
+        return draw(frame, triangles);
+    }
+
+    /**
+     * Tells whether the bounding sphere of the model space positions is outside the view frustum,
+     * so none of their triangles are drawn.
+     */
+    private boolean isOutsideView(FrameState frame, float[] positions) {
+        if (positions.length == 0)
+            return false;
+
+        var sphere = boundingSpheres.computeIfAbsent(positions, BoundingSphere::of);
+        // the view transform is rigid, so only the world transform scales the sphere
+        var world = frame.worldMatrix().contents();
+        var scale = 0f;
+        for (var column = 0; column < 3; column++)
+            scale = max(scale, new Vector3D(world[0][column], world[1][column], world[2][column]).length());
+        var center = sphere.center();
+        var viewCenter = frame.modelViewMatrix()
+                .multiply(new Vector4D(center.x(), center.y(), center.z(), 1))
+                .to3D();
+        return clipper.isOutside(viewCenter, sphere.radius() * scale);
+    }
+
+    private static SurfaceMaps materialMaps(FrameState frame, int index) {
+        var materialMaps = frame.materialMaps();
+        return index < materialMaps.length ? materialMaps[index] : SurfaceMaps.NONE;
+    }
+
+    private FrameState frameState(Scene scene, FrameBuffer target) {
+        if (target.width() != width || target.height() != height)
+            throw new IllegalArgumentException("Frame buffer is " + target.width() + "x" + target.height()
+                    + ", the renderer draws " + width + "x" + height);
+
+        var worldMatrix = scene.modelMatrix();
+        var viewMatrix = getViewMatrix(scene.camera());
+        var mvp = projectionMatrix.multiply(viewMatrix).multiply(worldMatrix);
+        return new FrameState(target, scene.settings(), scene.lights(), scene.camera(), scene.materialMaps(),
+                worldMatrix, viewMatrix.multiply(worldMatrix), mvp);
+    }
+
+    /**
+     * Projects the triangle to the screen. Triangles outside the view frustum are rejected, ones crossing the near plane
+     * or the guard band are clipped to a polygon in clip space first, which is split into a fan of triangles.
+     *
+     * @param material index of the maps in {@link Scene#materialMaps()}
+     * @return the first triangle of the fan, {@code null} if it faces away from the camera or is outside the view
+     */
+    private Triangle setUpTriangle(FrameState frame,
+                                  int material,
+                                  SurfaceMaps maps,
+                                  Vector4D firstOriginal,
+                                  Vector4D secondOriginal,
+                                  Vector4D thirdOriginal,
+                                  Vector2D firstTexture,
+                                  Vector2D secondTexture,
+                                  Vector2D thirdTexture,
+                                  Vector3D n0,
+                                  Vector3D n1,
+                                  Vector3D n2) {
+        var mvp = frame.mvp();
+        var worldMatrix = frame.worldMatrix();
+        var modelViewMatrix = frame.modelViewMatrix();
+        var camera = frame.camera();
+        var lights = frame.lights();
+
+        var firstMvp = mvp.multiply(firstOriginal);
+        var secondMvp = mvp.multiply(secondOriginal);
+        var thirdMvp = mvp.multiply(thirdOriginal);
+        if ((Clipper.outcode(firstMvp) & Clipper.outcode(secondMvp) & Clipper.outcode(thirdMvp)) != 0)
+            return null;
+
+        var firstWorld = worldMatrix.multiply(firstOriginal).to3D();
+        var secondWorld = worldMatrix.multiply(secondOriginal).to3D();
+        var thirdWorld = worldMatrix.multiply(thirdOriginal).to3D();
+
+        var firstMv = modelViewMatrix.multiply(firstOriginal).to3D();
+        var secondMv = modelViewMatrix.multiply(secondOriginal).to3D();
+        var thirdMv = modelViewMatrix.multiply(thirdOriginal).to3D();
+
+        var N = firstWorld
+                .subtract(secondWorld)
+                .cross(firstWorld.subtract(thirdWorld))
+                .normalize();
+        var V = camera.subtract(firstWorld).normalize();
+        if (N.dot(V) <= 0)
+            return null;
+
+        var flat = max(N.dot(lights[0].normalize()), 0);
+        var flatColor = new Vector3D(flat, flat, flat);
+
+        var first = new Clipper.Vertex(firstMvp, firstMv.z(), firstTexture, n0, firstWorld);
+        var second = new Clipper.Vertex(secondMvp, secondMv.z(), secondTexture, n1, secondWorld);
+        var third = new Clipper.Vertex(thirdMvp, thirdMv.z(), thirdTexture, n2, thirdWorld);
+        var planes = clipper.guardBandOutcode(firstMvp)
+                | clipper.guardBandOutcode(secondMvp)
+                | clipper.guardBandOutcode(thirdMvp);
+        if (planes == 0)
+            return new Triangle(material, maps, project(first), project(second), project(third), flatColor, null);
+
+        var polygon = clipper.clip(first, second, third, planes);
+        if (polygon.isEmpty())
+            return null;
+        var vertices = new VertexTextureNormal[polygon.size()];
+        for (var i = 0; i < polygon.size(); i++)
+            vertices[i] = project(polygon.get(i));
+        Triangle fan = null;
+        for (var i = vertices.length - 2; i > 0; i--)
+            fan = new Triangle(material, maps, vertices[0], vertices[i], vertices[i + 1], flatColor, fan);
+        return fan;
+    }
+
+    /**
+     * Divides the vertex by w and maps it to the viewport, keeping view space depth.
+     */
+    private VertexTextureNormal project(Clipper.Vertex vertex) {
+        var position = vertex.position();
+        var viewport = viewportMatrix.multiply(position.divide(position.w()));
+        return new VertexTextureNormal(
+                new Vector3D(viewport.x(), viewport.y(), vertex.depth()),
+                vertex.texture(),
+                vertex.normal(),
+                vertex.world()
+        );
+    }
+
+    record FrameState(FrameBuffer target,
+                      RenderSettings settings,
+                      Vector3D[] lights,
+                      Vector3D camera,
+                      SurfaceMaps[] materialMaps,
+                      Matrix4D worldMatrix,
+                      Matrix4D modelViewMatrix,
+                      Matrix4D mvp) {
+    }
+
+    /**
+     * @param world world space position, interpolated for lighting
+     */
+    private record VertexTextureNormal(Vector3D vertex, Vector2D texture, Vector3D normal, Vector3D world) {
+    }
+
+    /**
+     * Triangle projected to the screen, vertices hold pixel coordinates and view space depth.
+     *
+     * @param material index of the maps in {@link Scene#materialMaps()}
+     * @param next     next triangle of the fan the clipped triangle was split into, {@code null} for the last one
+     */
+    private record Triangle(int material,
+                            SurfaceMaps maps,
+                            VertexTextureNormal t0,
+                            VertexTextureNormal t1,
+                            VertexTextureNormal t2,
+                            Vector3D flatColor,
+                            Triangle next) {
+    }
+
+    /**
+     * Bins the triangles into tiles and draws the tiles concurrently, triangles of a tile in the order given.
+     * With occlusion culling, every tile keeps {@link DepthBounds} of what it has drawn and skips clusters
+     * of triangles and single triangles hidden behind it. Triangles of a clipped fan are binned and tested together.
+     *
+     * @param triangles triangles, {@code null} for culled ones
+     */
+    private RenderStats draw(FrameState frame, Triangle[] triangles) {
+        var bounds = new int[triangles.length * 4];
+        var nearest = new float[triangles.length];
+        IntStream.range(0, triangles.length).parallel().forEach(i -> {
+            var triangle = triangles[i];
+            var b = i * 4;
+            if (triangle == null) {
+                bounds[b + 2] = -1;
+                return;
+            }
+            var depth = Float.NEGATIVE_INFINITY;
+            var minX = Float.POSITIVE_INFINITY;
+            var minY = Float.POSITIVE_INFINITY;
+            var maxX = Float.NEGATIVE_INFINITY;
+            var maxY = Float.NEGATIVE_INFINITY;
+            for (var part = triangle; part != null; part = part.next()) {
+                var p0 = part.t0().vertex();
+                var p1 = part.t1().vertex();
+                var p2 = part.t2().vertex();
+                depth = max(depth, nearestDepth(p0.z(), p1.z(), p2.z()));
+                minX = min(minX, min(p0.x(), min(p1.x(), p2.x())));
+                minY = min(minY, min(p0.y(), min(p1.y(), p2.y())));
+                maxX = max(maxX, max(p0.x(), max(p1.x(), p2.x())));
+                maxY = max(maxY, max(p0.y(), max(p1.y(), p2.y())));
+            }
+            nearest[i] = depth;
+            // also drops triangles with vertices which are not numbers
+            var isOnScreen = minX < width && minY < height && maxX >= 0 && maxY >= 0;
+            var isInRange = minX > -MAX_COORDINATE && minY > -MAX_COORDINATE
+                    && maxX < MAX_COORDINATE && maxY < MAX_COORDINATE;
+            if (!isOnScreen || !isInRange) {
+                bounds[b + 2] = -1;
+                return;
+            }
+            bounds[b] = max(0, (int) Math.floor(minX));
+            bounds[b + 1] = max(0, (int) Math.floor(minY));
+            bounds[b + 2] = min(width - 1, (int) Math.floor(maxX));
+            bounds[b + 3] = min(height - 1, (int) Math.floor(maxY));
+        });
+
+        var bins = TileBins.bin(width, height, bounds);
+        var settings = frame.settings();
+        var isOcclusionCulling = settings.occlusionCulling();
+        var clusterBounds = isOcclusionCulling ? clusterBounds(bounds) : null;
+        var clusterNearest = isOcclusionCulling ? clusterNearest(bounds, nearest) : null;
+        var occluded = new int[bins.tileCount()];
+        var occludedInClusters = new int[bins.tileCount()];
+        // flat shading has no lighting to defer
+        var gBuffer = settings.deferredShading() && settings.shading() != Shading.FLAT
+                ? frame.target().gBuffer()
+                : null;
+        var isVectorShading = gBuffer == null && VECTOR_SHADING_AVAILABLE && settings.vectorShading();
+        IntStream.range(0, bins.tileCount()).parallel().forEach(tile -> {
+            if (bins.start(tile) == bins.end(tile))
+                return;
+            var minX = bins.minX(tile);
+            var minY = bins.minY(tile);
+            var maxX = bins.maxX(tile);
+            var maxY = bins.maxY(tile);
+            if (gBuffer != null) {
+                for (var y = minY; y <= maxY; y++)
+                    Arrays.fill(gBuffer.material, minX + y * width, maxX + 1 + y * width, GBuffer.NO_MATERIAL);
+            }
+            var spans = isVectorShading ? new SpanShader() : null;
+            var texel = new float[3];
+            var depth = isOcclusionCulling ? new DepthBounds(frame.target(), minX, minY, maxX, maxY) : null;
+            var testedCluster = -1;
+            for (var i = bins.start(tile); i < bins.end(tile); i++) {
+                var index = bins.triangle(i);
+                if (depth != null) {
+                    // depth only gets nearer, so a cluster hidden before its first triangle in the tile stays hidden
+                    var cluster = index / CLUSTER_SIZE;
+                    if (cluster != testedCluster) {
+                        testedCluster = cluster;
+                        var c = cluster * 4;
+                        if (depth.isHidden(clusterBounds[c], clusterBounds[c + 1], clusterBounds[c + 2],
+                                clusterBounds[c + 3], clusterNearest[cluster], true)) {
+                            var next = i + 1;
+                            while (next < bins.end(tile) && bins.triangle(next) / CLUSTER_SIZE == cluster)
+                                next++;
+                            occludedInClusters[tile] += next - i;
+                            i = next - 1;
+                            continue;
+                        }
+                    }
+                    // reading depth of a block again costs about as much as drawing the pixels of a small triangle
+                    var b = index * 4;
+                    var area = (bounds[b + 2] - bounds[b] + 1) * (bounds[b + 3] - bounds[b + 1] + 1);
+                    var isHidden = depth.isHidden(bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3],
+                            nearest[index], area > BLOCK_SIZE * BLOCK_SIZE);
+                    if (isHidden) {
+                        occluded[tile]++;
+                        continue;
+                    }
+                }
+                for (var part = triangles[index]; part != null; part = part.next())
+                    drawTriangle(frame, part, minX, minY, maxX, maxY, spans, texel, gBuffer, depth);
+            }
+        });
+
+        if (gBuffer != null) {
+            IntStream.range(0, bins.tileCount()).parallel().forEach(tile -> {
+                if (bins.start(tile) != bins.end(tile))
+                    shadeSurfaces(frame, gBuffer, bins.minX(tile), bins.minY(tile), bins.maxX(tile), bins.maxY(tile));
+            });
+        }
+
+        var culled = 0;
+        for (var b = 0; b < bounds.length; b += 4)
+            if (bounds[b + 2] < bounds[b])
+                culled++;
+        return new RenderStats(triangles.length, culled, bins.size(), IntStream.of(occluded).asLongStream().sum(),
+                IntStream.of(occludedInClusters).asLongStream().sum());
+    }
+
+    /**
+     * Gets bounds of every {@link #CLUSTER_SIZE} consecutive triangles, laid out as the bounds of triangles.
+     */
+    private static int[] clusterBounds(int[] bounds) {
+        var triangleCount = bounds.length / 4;
+        var clusterBounds = new int[(triangleCount + CLUSTER_SIZE - 1) / CLUSTER_SIZE * 4];
+        IntStream.range(0, clusterBounds.length / 4).parallel().forEach(cluster -> {
+            var minX = Integer.MAX_VALUE;
+            var minY = Integer.MAX_VALUE;
+            var maxX = -1;
+            var maxY = -1;
+            var end = Math.min(triangleCount, (cluster + 1) * CLUSTER_SIZE);
+            for (var b = cluster * CLUSTER_SIZE * 4; b < end * 4; b += 4) {
+                if (bounds[b + 2] < bounds[b])
+                    continue;
+                minX = min(minX, bounds[b]);
+                minY = min(minY, bounds[b + 1]);
+                maxX = max(maxX, bounds[b + 2]);
+                maxY = max(maxY, bounds[b + 3]);
+            }
+            var c = cluster * 4;
+            clusterBounds[c] = minX;
+            clusterBounds[c + 1] = minY;
+            clusterBounds[c + 2] = maxX;
+            clusterBounds[c + 3] = maxY;
+        });
+        return clusterBounds;
+    }
+
+    /**
+     * Gets the nearest depth of every {@link #CLUSTER_SIZE} consecutive triangles.
+     */
+    private static float[] clusterNearest(int[] bounds, float[] nearest) {
+        var clusterNearest = new float[(nearest.length + CLUSTER_SIZE - 1) / CLUSTER_SIZE];
+        IntStream.range(0, clusterNearest.length).parallel().forEach(cluster -> {
+            var depth = Float.NEGATIVE_INFINITY;
+            var end = Math.min(nearest.length, (cluster + 1) * CLUSTER_SIZE);
+            for (var i = cluster * CLUSTER_SIZE; i < end; i++)
+                if (bounds[i * 4 + 2] >= bounds[i * 4])
+                    depth = max(depth, nearest[i]);
+            clusterNearest[cluster] = depth;
+        });
+        return clusterNearest;
+    }
+
+    /**
+     * Gets the depth no pixel of a triangle with the vertex depths is nearer than.
+     */
+    private static float nearestDepth(float z0, float z1, float z2) {
+        var z = max(z0, max(z1, z2));
+        return z + Math.abs(z) * DEPTH_TOLERANCE;
+    }
+
+    /**
+     * Gets the depth no pixel of a triangle with the vertex depths is farther than.
+     */
+    private static float farthestDepth(float z0, float z1, float z2) {
+        var z = min(z0, min(z1, z2));
+        return z - Math.abs(z) * DEPTH_TOLERANCE;
+    }
+
+    /**
+     * Shades pixels of the rectangle which the geometry pass of deferred shading covered, bounds are inclusive.
+     */
+    private void shadeSurfaces(FrameState frame, GBuffer gBuffer, int minX, int minY, int maxX, int maxY) {
+        var pixels = frame.target().pixels();
+        var texel = new float[3];
+        for (var y = minY; y <= maxY; y++) {
+            for (var idx = minX + y * width; idx <= maxX + y * width; idx++) {
+                var material = gBuffer.material[idx];
+                if (material == GBuffer.NO_MATERIAL)
+                    continue;
+                pixels[idx] = shade(frame, materialMaps(frame, material),
+                        gBuffer.worldX[idx], gBuffer.worldY[idx], gBuffer.worldZ[idx],
+                        gBuffer.normalX[idx], gBuffer.normalY[idx], gBuffer.normalZ[idx],
+                        gBuffer.u[idx], gBuffer.v[idx], gBuffer.lod[idx], null, texel);
+            }
+        }
+    }
+
+    /**
+     * Draws the part of the triangle inside the pixel rectangle, bounds are inclusive.
+     * <p>
+     * Vertices are snapped to fixed point with {@link #SUBPIXEL_BITS} fractional bits and pixels are sampled at their
+     * centers. A pixel is covered when it is inside all three edges or on a top or left one, so triangles sharing
+     * an edge cover every pixel along it exactly once. The bounds are walked in aligned blocks, blocks outside an edge
+     * are skipped whole and blocks inside all edges are filled without testing their pixels. Blocks hidden behind
+     * drawn depth are skipped too, and blocks the triangle is in front of everywhere are drawn without depth tests.
+     *
+     * @param spans   shader of block rows, {@code null} to shade pixel by pixel
+     * @param texel   scratch array for samples
+     * @param gBuffer G-buffer to write surfaces of covered pixels to instead of shading them, {@code null} to shade
+     * @param depth   depth bounds of the tile to test blocks against and update, {@code null} to test pixels only
+     */
+    private void drawTriangle(FrameState frame,
+                              Triangle triangle,
+                              int minX,
+                              int minY,
+                              int maxX,
+                              int maxY,
+                              SpanShader spans,
+                              float[] texel,
+                              GBuffer gBuffer,
+                              DepthBounds depth) {
+        var t0 = triangle.t0();
+        var t1 = triangle.t1();
+        var t2 = triangle.t2();
+        var x0 = fixed(t0.vertex().x());
+        var y0 = fixed(t0.vertex().y());
+        var x1 = fixed(t1.vertex().x());
+        var y1 = fixed(t1.vertex().y());
+        var x2 = fixed(t2.vertex().x());
+        var y2 = fixed(t2.vertex().y());
+        var area = (x1 - x0) * (y2 - y0) - (y1 - y0) * (x2 - x0);
+        if (area == 0)
+            return;
+        if (area < 0) {
+            var vertex = t1;
+            t1 = t2;
+            t2 = vertex;
+            var x = x1;
+            x1 = x2;
+            x2 = x;
+            var y = y1;
+            y1 = y2;
+            y2 = y;
+            area = -area;
+        }
+
+        var startX = max(minX, (int) (min(x0, min(x1, x2)) >> SUBPIXEL_BITS));
+        var startY = max(minY, (int) (min(y0, min(y1, y2)) >> SUBPIXEL_BITS));
+        var endX = min(maxX, (int) (max(x0, max(x1, x2)) >> SUBPIXEL_BITS));
+        var endY = min(maxY, (int) (max(y0, max(y1, y2)) >> SUBPIXEL_BITS));
+        if (startX > endX || startY > endY)
+            return;
+
+        // edge functions are positive inside, every one is the weight of the vertex opposite to its edge
+        var a0 = y1 - y2;
+        var b0 = x2 - x1;
+        var c0 = (y2 - y1) * x1 - (x2 - x1) * y1 + fillBias(x1, y1, x2, y2);
+        var a1 = y2 - y0;
+        var b1 = x0 - x2;
+        var c1 = (y0 - y2) * x2 - (x0 - x2) * y2 + fillBias(x2, y2, x0, y0);
+        var a2 = y0 - y1;
+        var b2 = x1 - x0;
+        var c2 = (y1 - y0) * x0 - (x1 - x0) * y0 + fillBias(x0, y0, x1, y1);
+        var stepX0 = a0 << SUBPIXEL_BITS;
+        var stepX1 = a1 << SUBPIXEL_BITS;
+        var stepX2 = a2 << SUBPIXEL_BITS;
+        var stepY0 = b0 << SUBPIXEL_BITS;
+        var stepY1 = b1 << SUBPIXEL_BITS;
+        var stepY2 = b2 << SUBPIXEL_BITS;
+        var invArea = 1f / area;
+
+        // 1/z, u/z, v/z and world position over z are affine in screen space,
+        // gradients of the first three give texture coordinate derivatives
+        var z0 = t0.vertex().z();
+        var z1 = t1.vertex().z();
+        var z2 = t2.vertex().z();
+        var nearest = nearestDepth(z0, z1, z2);
+        var farthest = farthestDepth(z0, z1, z2);
+        var q0 = 1f / z0;
+        var q1 = 1f / z1;
+        var q2 = 1f / z2;
+        var s0 = t0.texture().u() * q0;
+        var s1 = t1.texture().u() * q1;
+        var s2 = t2.texture().u() * q2;
+        var r0 = t0.texture().v() * q0;
+        var r1 = t1.texture().v() * q1;
+        var r2 = t2.texture().v() * q2;
+        var dqdx = gradientX(t0, t1, t2, q0, q1, q2);
+        var dqdy = gradientY(t0, t1, t2, q0, q1, q2);
+        var dsdx = gradientX(t0, t1, t2, s0, s1, s2);
+        var dsdy = gradientY(t0, t1, t2, s0, s1, s2);
+        var dtdx = gradientX(t0, t1, t2, r0, r1, r2);
+        var dtdy = gradientY(t0, t1, t2, r0, r1, r2);
+        var n0 = t0.normal();
+        var n1 = t1.normal();
+        var n2 = t2.normal();
+        var px0 = t0.world().x() * q0;
+        var py0 = t0.world().y() * q0;
+        var pz0 = t0.world().z() * q0;
+        var px1 = t1.world().x() * q1;
+        var py1 = t1.world().y() * q1;
+        var pz1 = t1.world().z() * q1;
+        var px2 = t2.world().x() * q2;
+        var py2 = t2.world().y() * q2;
+        var pz2 = t2.world().z() * q2;
+        var filter = frame.settings().textureFilter();
+
+        var frameBuffer = frame.target();
+        var pixels = frameBuffer.pixels();
+        var zBuffer = frameBuffer.depth();
+        var varyings = spans == null ? null : new SpanShader.Varyings(triangle.maps(), triangle.flatColor(), invArea,
+                z0, z1, z2, q0, q1, q2, s0, s1, s2, r0, r1, r2, dqdx, dqdy, dsdx, dsdy, dtdx, dtdy, n0, n1, n2,
+                t0.world().mul(q0), t1.world().mul(q1), t2.world().mul(q2));
+
+        for (var blockY = startY & -BLOCK_SIZE; blockY <= endY; blockY += BLOCK_SIZE) {
+            var top = max(blockY, startY);
+            var bottom = min(blockY + BLOCK_SIZE - 1, endY);
+            var blockHeight = (long) (bottom - top) << SUBPIXEL_BITS;
+            for (var blockX = startX & -BLOCK_SIZE; blockX <= endX; blockX += BLOCK_SIZE) {
+                var left = max(blockX, startX);
+                var right = min(blockX + BLOCK_SIZE - 1, endX);
+                var blockWidth = (long) (right - left) << SUBPIXEL_BITS;
+                var e0 = edge(a0, b0, c0, left, top);
+                var e1 = edge(a1, b1, c1, left, top);
+                var e2 = edge(a2, b2, c2, left, top);
+
+                // edge functions are linear, so their extremes over a block are at its corners
+                var low0 = e0 + min(0, a0 * blockWidth) + min(0, b0 * blockHeight);
+                var low1 = e1 + min(0, a1 * blockWidth) + min(0, b1 * blockHeight);
+                var low2 = e2 + min(0, a2 * blockWidth) + min(0, b2 * blockHeight);
+                var high0 = e0 + max(0, a0 * blockWidth) + max(0, b0 * blockHeight);
+                var high1 = e1 + max(0, a1 * blockWidth) + max(0, b1 * blockHeight);
+                var high2 = e2 + max(0, a2 * blockWidth) + max(0, b2 * blockHeight);
+                if ((high0 | high1 | high2) < 0)
+                    continue;
+                if (depth != null && depth.isHidden(left, top, nearest))
+                    continue;
+                var covered = (low0 | low1 | low2) >= 0;
+                var isInFront = depth != null && depth.isInFront(left, top, farthest);
+                var isWritten = false;
+
+                for (var y = top; y <= bottom; y++) {
+                    if (spans != null && spans.shade(frame, varyings, left, y, right - left + 1, covered,
+                            e0, e1, e2, stepX0, stepX1, stepX2)) {
+                        isWritten = true;
+                        e0 += stepY0;
+                        e1 += stepY1;
+                        e2 += stepY2;
+                        continue;
+                    }
+                    var w0 = e0;
+                    var w1 = e1;
+                    var w2 = e2;
+                    for (var x = left; x <= right; x++, w0 += stepX0, w1 += stepX1, w2 += stepX2) {
+                        if (!covered && (w0 | w1 | w2) < 0)
+                            continue;
+
+                        var l0 = w0 * invArea;
+                        var l1 = w1 * invArea;
+                        var l2 = w2 * invArea;
+                        var z = z0 * l0 + z1 * l1 + z2 * l2;
+                        var idx = x + y * width;
+                        if (!isInFront && zBuffer[idx] >= z)
+                            continue;
+
+                        var q = q0 * l0 + q1 * l1 + q2 * l2;
+                        var u = (s0 * l0 + s1 * l1 + s2 * l2) / q;
+                        var v = (r0 * l0 + r1 * l1 + r2 * l2) / q;
+                        var lod = filter == TextureFilter.NEAREST ? 0 : MipmappedTexture.uvLod(
+                                (dsdx - u * dqdx) / q,
+                                (dtdx - v * dqdx) / q,
+                                (dsdy - u * dqdy) / q,
+                                (dtdy - v * dqdy) / q
+                        );
+                        var nx = n0.x() * l0 + n1.x() * l1 + n2.x() * l2;
+                        var ny = n0.y() * l0 + n1.y() * l1 + n2.y() * l2;
+                        var nz = n0.z() * l0 + n1.z() * l1 + n2.z() * l2;
+                        var px = (px0 * l0 + px1 * l1 + px2 * l2) / q;
+                        var py = (py0 * l0 + py1 * l1 + py2 * l2) / q;
+                        var pz = (pz0 * l0 + pz1 * l1 + pz2 * l2) / q;
+
+                        if (gBuffer == null) {
+                            pixels[idx] = shade(frame, triangle.maps(), px, py, pz, nx, ny, nz, u, v, lod,
+                                    triangle.flatColor(), texel);
+                        } else {
+                            gBuffer.normalX[idx] = nx;
+                            gBuffer.normalY[idx] = ny;
+                            gBuffer.normalZ[idx] = nz;
+                            gBuffer.u[idx] = u;
+                            gBuffer.v[idx] = v;
+                            gBuffer.lod[idx] = lod;
+                            gBuffer.worldX[idx] = px;
+                            gBuffer.worldY[idx] = py;
+                            gBuffer.worldZ[idx] = pz;
+                            gBuffer.material[idx] = triangle.material();
+                        }
+                        zBuffer[idx] = z;
+                        isWritten = true;
+                    }
+                    e0 += stepY0;
+                    e1 += stepY1;
+                    e2 += stepY2;
+                }
+                if (isWritten && depth != null)
+                    depth.drawn(left, top, nearest);
+            }
+        }
+    }
+
+    /**
+     * Converts a screen coordinate to fixed point.
+     */
+    private static long fixed(float coordinate) {
+        return Math.round(coordinate * (1 << SUBPIXEL_BITS));
+    }
+
+    /**
+     * Gets the edge function of a fixed point edge at the center of the pixel.
+     */
+    private static long edge(long a, long b, long c, int x, int y) {
+        var half = 1L << SUBPIXEL_BITS - 1;
+        return a * (((long) x << SUBPIXEL_BITS) + half) + b * (((long) y << SUBPIXEL_BITS) + half) + c;
+    }
+
+    /**
+     * Gets the offset of the edge function making pixels exactly on the edge covered only for top and left edges,
+     * with y pointing down and edges going clockwise on the screen.
+     */
+    private static long fillBias(long fromX, long fromY, long toX, long toY) {
+        var isTop = fromY == toY && toX > fromX;
+        var isLeft = toY < fromY;
+        return isTop || isLeft ? 0 : -1;
+    }
+
+    /**
+     * Shades a pixel of a triangle. Works on primitives only, so shading a pixel allocates nothing.
+     *
+     * @param px        world space position of the pixel
+     * @param normalX   interpolated world space normal, not normalized
+     * @param u         perspective correct texture coordinate
+     * @param flatColor color of flat shading, unused by other shadings
+     * @param texel     scratch array for samples
+     * @return color of the pixel
+     */
+    private static int shade(FrameState frame,
+                             SurfaceMaps maps,
+                             float px,
+                             float py,
+                             float pz,
+                             float normalX,
+                             float normalY,
+                             float normalZ,
+                             float u,
+                             float v,
+                             float lod,
+                             Vector3D flatColor,
+                             float[] texel) {
+        var settings = frame.settings();
+        var filter = settings.textureFilter();
+        var shading = settings.shading();
+
+        float red;
+        float green;
+        float blue;
+        if (shading == Shading.FLAT) {
+            red = flatColor.x();
+            green = flatColor.y();
+            blue = flatColor.z();
+        } else {
+            float nx;
+            float ny;
+            float nz;
+            if (maps.normal() == null) {
+                var length = length(normalX, normalY, normalZ);
+                nx = normalX / length;
+                ny = normalY / length;
+                nz = normalZ / length;
+            } else {
+                maps.normal().sample(u, v, lod, filter, texel);
+                nx = texel[0];
+                ny = texel[1];
+                nz = texel[2];
+            }
+            var camera = frame.camera();
+            var viewX = camera.x() - px;
+            var viewY = camera.y() - py;
+            var viewZ = camera.z() - pz;
+            var viewLength = length(viewX, viewY, viewZ);
+            viewX /= viewLength;
+            viewY /= viewLength;
+            viewZ /= viewLength;
+
+            if (shading == Shading.PBR) {
+                float metallic;
+                float roughness;
+                float ao;
+                if (maps.mrao() != null) {
+                    maps.mrao().sample(u, v, lod, filter, texel);
+                    metallic = texel[0];
+                    roughness = texel[1];
+                    ao = texel[2];
+                } else {
+                    metallic = settings.metallic();
+                    roughness = settings.roughness();
+                    ao = settings.ambientOcclusion();
+                }
+                if (maps.metallic() != null) {
+                    maps.metallic().sample(u, v, lod, filter, texel);
+                    metallic = texel[0];
+                }
+                if (maps.roughness() != null) {
+                    maps.roughness().sample(u, v, lod, filter, texel);
+                    roughness = texel[0];
+                }
+                float albedoRed;
+                float albedoGreen;
+                float albedoBlue;
+                if (maps.albedo() != null) {
+                    maps.albedo().sample(u, v, lod, filter, texel);
+                    albedoRed = texel[0];
+                    albedoGreen = texel[1];
+                    albedoBlue = texel[2];
+                } else {
+                    var albedo = settings.albedo();
+                    albedoRed = albedo.x();
+                    albedoGreen = albedo.y();
+                    albedoBlue = albedo.z();
+                }
+                var emissionRed = 0f;
+                var emissionGreen = 0f;
+                var emissionBlue = 0f;
+                if (maps.emission() != null) {
+                    var argb = maps.emission().sample(u, v, lod, filter);
+                    emissionRed = ColorUtils.channel(argb, 16) * 10;
+                    emissionGreen = ColorUtils.channel(argb, 8) * 10;
+                    emissionBlue = ColorUtils.channel(argb, 0) * 10;
+                }
+
+                var outRed = 0f;
+                var outGreen = 0f;
+                var outBlue = 0f;
+                var nDotV = nx * viewX + ny * viewY + nz * viewZ;
+                for (var light : frame.lights()) {
+                    var lx = light.x() - px;
+                    var ly = light.y() - py;
+                    var lz = light.z() - pz;
+                    var distance = length(lx, ly, lz);
+                    lx /= distance;
+                    ly /= distance;
+                    lz /= distance;
+                    var hx = viewX + lx;
+                    var hy = viewY + ly;
+                    var hz = viewZ + lz;
+                    var halfwayLength = length(hx, hy, hz);
+                    hx /= halfwayLength;
+                    hy /= halfwayLength;
+                    hz /= halfwayLength;
+
+                    var radiance = 1000 / (distance * distance + 0.001f);
+                    var nDotL = nx * lx + ny * ly + nz * lz;
+                    var weight = PbrUtils.schlickWeight(max(hx * viewX + hy * viewY + hz * viewZ, 0.0f));
+                    var dg = PbrUtils.distributionGGX(nx * hx + ny * hy + nz * hz, roughness)
+                            * PbrUtils.geometrySmith(nDotV, nDotL, roughness);
+                    var denominator = 4.0f * max(nDotV, 0.0f) * max(nDotL, 0.0f) + 0.001f;
+                    var irradiance = max(nDotL, 0.0f);
+
+                    // emission is added per light, brighter with more lights
+                    outRed += cookTorrance(albedoRed, metallic, weight, dg, denominator) * radiance * irradiance
+                            + emissionRed;
+                    outGreen += cookTorrance(albedoGreen, metallic, weight, dg, denominator) * radiance * irradiance
+                            + emissionGreen;
+                    outBlue += cookTorrance(albedoBlue, metallic, weight, dg, denominator) * radiance * irradiance
+                            + emissionBlue;
+                }
+                red = 0.03f * albedoRed * ao + outRed;
+                green = 0.03f * albedoGreen * ao + outGreen;
+                blue = 0.03f * albedoBlue * ao + outBlue;
+            } else {
+                var light = frame.lights()[0];
+                var lx = light.x() - px;
+                var ly = light.y() - py;
+                var lz = light.z() - pz;
+                var lightLength = length(lx, ly, lz);
+                lx /= lightLength;
+                ly /= lightLength;
+                lz /= lightLength;
+
+                float ambientRed;
+                float ambientGreen;
+                float ambientBlue;
+                float diffuseRed;
+                float diffuseGreen;
+                float diffuseBlue;
+                if (maps.diffuse() != null) {
+                    // the alpha channel of diffuse maps is the ambient reflectance
+                    var argb = maps.diffuse().sample(u, v, lod, filter);
+                    ambientRed = ambientGreen = ambientBlue = ColorUtils.channel(argb, 24);
+                    diffuseRed = ColorUtils.channel(argb, 16);
+                    diffuseGreen = ColorUtils.channel(argb, 8);
+                    diffuseBlue = ColorUtils.channel(argb, 0);
+                } else {
+                    var ambient = settings.ambientColor();
+                    var diffuse = settings.diffuseColor();
+                    ambientRed = ambient.x();
+                    ambientGreen = ambient.y();
+                    ambientBlue = ambient.z();
+                    diffuseRed = diffuse.x();
+                    diffuseGreen = diffuse.y();
+                    diffuseBlue = diffuse.z();
+                }
+                float specularRed;
+                float specularGreen;
+                float specularBlue;
+                if (maps.emission() != null) {
+                    var argb = maps.emission().sample(u, v, lod, filter);
+                    specularRed = ColorUtils.channel(argb, 16);
+                    specularGreen = ColorUtils.channel(argb, 8);
+                    specularBlue = ColorUtils.channel(argb, 0);
+                } else {
+                    var specular = settings.specularColor();
+                    specularRed = specular.x();
+                    specularGreen = specular.y();
+                    specularBlue = specular.z();
+                }
+
+                var nDotL = nx * lx + ny * ly + nz * lz;
+                var reflectX = nx * (2 * nDotL) - lx;
+                var reflectY = ny * (2 * nDotL) - ly;
+                var reflectZ = nz * (2 * nDotL) - lz;
+                var diffuse = max(nDotL, 0);
+                var specular = (float) Math.pow(
+                        max(reflectX * viewX + reflectY * viewY + reflectZ * viewZ, 0f), settings.specularPower());
+
+                var iA = settings.ambientIntensity();
+                var iD = settings.diffuseIntensity();
+                var iS = settings.specularIntensity();
+                red = ambientRed * iA.x() + diffuseRed * diffuse * iD.x() + specularRed * specular * iS.x();
+                green = ambientGreen * iA.y() + diffuseGreen * diffuse * iD.y() + specularGreen * specular * iS.y();
+                blue = ambientBlue * iA.z() + diffuseBlue * diffuse * iD.z() + specularBlue * specular * iS.z();
+            }
+        }
+
+        if (settings.toneMapping() == ToneMapping.REINHARD) {
+            red /= red + 1;
+            green /= green + 1;
+            blue /= blue + 1;
+        } else {
+            red = acesFilm(red);
+            green = acesFilm(green);
+            blue = acesFilm(blue);
+        }
+        var gamma = 1.0f / 2.2f;
+        return ColorUtils.toArgbWithClamp(
+                (float) Math.pow(red, gamma),
+                (float) Math.pow(green, gamma),
+                (float) Math.pow(blue, gamma)
+        );
+    }
+
+    /**
+     * Gets the light of a color channel reflected by Cook-Torrance BRDF per unit of irradiance.
+     *
+     * @param weight      Fresnel-Schlick weight of the grazing reflectance
+     * @param dg          product of normal distribution and geometry terms
+     * @param denominator denominator of the specular term
+     */
+    private static float cookTorrance(float albedo, float metallic, float weight, float dg, float denominator) {
+        var f0 = mix(0.04f, albedo, metallic);
+        var f = f0 + (1.0f - f0) * weight;
+        var kD = (1 - f) * (1.0f - metallic);
+        var lambert = albedo / (float) Math.PI;
+        return kD * lambert + f * dg / denominator;
+    }
+
+    private static float acesFilm(float x) {
+        var a = 2.51f;
+        var b = 0.03f;
+        var c = 2.43f;
+        var d = 0.59f;
+        var e = 0.14f;
+        return min(max((x * (x * a + b)) / (x * (x * c + d) + e), 0), 1);
+    }
+
+    private static float length(float x, float y, float z) {
+        return (float) Math.sqrt(x * x + y * y + z * z);
+    }
+
+    /**
+     * Gets the change of a value linear over the screen triangle per pixel along x.
+     */
+    private static float gradientX(VertexTextureNormal t0, VertexTextureNormal t1, VertexTextureNormal t2,
+                                   float a0, float a1, float a2) {
+        var p0 = t0.vertex();
+        var p1 = t1.vertex();
+        var p2 = t2.vertex();
+        var det = (p1.x() - p0.x()) * (p2.y() - p0.y()) - (p2.x() - p0.x()) * (p1.y() - p0.y());
+        return ((a1 - a0) * (p2.y() - p0.y()) - (a2 - a0) * (p1.y() - p0.y())) / det;
+    }
+
+    /**
+     * Gets the change of a value linear over the screen triangle per pixel along y.
+     */
+    private static float gradientY(VertexTextureNormal t0, VertexTextureNormal t1, VertexTextureNormal t2,
+                                   float a0, float a1, float a2) {
+        var p0 = t0.vertex();
+        var p1 = t1.vertex();
+        var p2 = t2.vertex();
+        var det = (p1.x() - p0.x()) * (p2.y() - p0.y()) - (p2.x() - p0.x()) * (p1.y() - p0.y());
+        return ((a2 - a0) * (p1.x() - p0.x()) - (a1 - a0) * (p2.x() - p0.x())) / det;
+    }
+}
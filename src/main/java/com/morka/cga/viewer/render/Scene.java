@@ -0,0 +1,21 @@
+package com.morka.cga.viewer.render;
+
+import com.morka.cga.viewer.model.Matrix4D;
+import com.morka.cga.viewer.model.Vector3D;
+
+/**
+ * Everything a frame shows besides the geometry.
+ *
+ * @param modelMatrix  model to world transform
+ * @param camera       world position of the eye, which looks at the origin
+ * @param lights       world positions of point lights, flat and Phong shading only use the first one
+ * @param materialMaps maps of triangles without material at index {@code 0} and of material id {@code i}
+ *                     at index {@code i + 1}
+ * @param settings     shading settings
+ */
+public record Scene(Matrix4D modelMatrix,
+                    Vector3D camera,
+                    Vector3D[] lights,
+                    SurfaceMaps[] materialMaps,
+                    RenderSettings settings) {
+}
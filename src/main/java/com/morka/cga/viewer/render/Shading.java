@@ -0,0 +1,19 @@
+package com.morka.cga.viewer.render;
+
+/**
+ * Lighting model of rendered pixels.
+ */
+public enum Shading {
+    /**
+     * One intensity per triangle from the angle between its normal and the first light.
+     */
+    FLAT,
+    /**
+     * Ambient, diffuse and specular terms of the first light.
+     */
+    PHONG,
+    /**
+     * Cook-Torrance BRDF with GGX distribution over all lights.
+     */
+    PBR
+}
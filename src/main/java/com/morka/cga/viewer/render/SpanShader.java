@@ -0,0 +1,525 @@
+package com.morka.cga.viewer.render;
+
+import com.morka.cga.viewer.model.Vector3D;
+import com.morka.cga.viewer.texture.FloatTexture;
+import com.morka.cga.viewer.texture.MipmappedTexture;
+import com.morka.cga.viewer.texture.TextureFilter;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Shades spans of up to {@link #LANES} pixels of a row at once with the incubating Vector API. Every pixel is a lane
+ * and every attribute a vector of lanes, pixels outside the triangle or behind the depth buffer are masked off.
+ * Textures are sampled lane by lane into scratch arrays, the rest of the shading is done on whole vectors.
+ * <p>
+ * Only load this class when {@link Renderer#isVectorShadingAvailable()}. An instance keeps scratch lanes,
+ * so it must be used by one thread at a time.
+ */
+final class SpanShader {
+
+    /**
+     * Pixels shaded at once, as wide as the blocks the rasterizer walks.
+     */
+    static final int LANES = 8;
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_256;
+
+    private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_256;
+
+    private static final float PI = (float) Math.PI;
+
+    /**
+     * Fewest visible pixels worth shading as a span, sparser spans of small triangles are cheaper pixel by pixel.
+     */
+    private static final int MIN_LANES = 4;
+
+    private final float[] weight0 = new float[LANES];
+
+    private final float[] weight1 = new float[LANES];
+
+    private final float[] weight2 = new float[LANES];
+
+    private final float[] u = new float[LANES];
+
+    private final float[] v = new float[LANES];
+
+    private final float[] lod = new float[LANES];
+
+    private final float[] channel0 = new float[LANES];
+
+    private final float[] channel1 = new float[LANES];
+
+    private final float[] channel2 = new float[LANES];
+
+    private final float[] channel3 = new float[LANES];
+
+    private final float[] texel = new float[3];
+
+    private final float[] red = new float[LANES];
+
+    private final float[] green = new float[LANES];
+
+    private final float[] blue = new float[LANES];
+
+    /**
+     * Shades pixels of a triangle row starting at the given one.
+     *
+     * @param count   pixels in the span, at most {@link #LANES}
+     * @param covered whether all pixels of the span are known to be inside the triangle
+     * @param w0      edge function opposite to the first vertex at the first pixel, with the fill rule bias
+     * @param step0   change of the edge function per pixel
+     * @return whether the span was drawn, {@code false} if too few of its pixels are visible
+     *         and they are left to be shaded one by one
+     */
+    boolean shade(Renderer.FrameState frame,
+               Varyings triangle,
+               int x,
+               int y,
+               int count,
+               boolean covered,
+               long w0,
+               long w1,
+               long w2,
+               long step0,
+               long step1,
+               long step2) {
+        var lanes = 0L;
+        var invArea = triangle.invArea();
+        for (var lane = 0; lane < count; lane++, w0 += step0, w1 += step1, w2 += step2) {
+            if (!covered && (w0 | w1 | w2) < 0)
+                continue;
+            lanes |= 1L << lane;
+            weight0[lane] = w0 * invArea;
+            weight1[lane] = w1 * invArea;
+            weight2[lane] = w2 * invArea;
+        }
+        if (lanes == 0)
+            return true;
+
+        var target = frame.target();
+        var idx = x + y * target.width();
+        var l0 = FloatVector.fromArray(SPECIES, weight0, 0);
+        var l1 = FloatVector.fromArray(SPECIES, weight1, 0);
+        var l2 = FloatVector.fromArray(SPECIES, weight2, 0);
+        var z = l0.mul(triangle.z0()).add(l1.mul(triangle.z1())).add(l2.mul(triangle.z2()));
+        var mask = VectorMask.fromLong(SPECIES, lanes);
+        mask = mask.and(z.compare(VectorOperators.GT, FloatVector.fromArray(SPECIES, target.depth(), idx, mask)));
+        if (!mask.anyTrue())
+            return true;
+        if (mask.trueCount() < MIN_LANES)
+            return false;
+        lanes = mask.toLong();
+
+        var settings = frame.settings();
+        var shading = settings.shading();
+        var maps = triangle.maps();
+        var filter = settings.textureFilter();
+        var isTextured = shading == Shading.PBR
+                ? maps.normal() != null || maps.mrao() != null || maps.metallic() != null
+                || maps.roughness() != null || maps.albedo() != null || maps.emission() != null
+                : shading == Shading.PHONG && (maps.normal() != null || maps.diffuse() != null || maps.emission() != null);
+        var q = l0.mul(triangle.q0()).add(l1.mul(triangle.q1())).add(l2.mul(triangle.q2()));
+        if (isTextured)
+            textureCoordinates(triangle, l0, l1, l2, q, filter);
+
+        FloatVector r;
+        FloatVector g;
+        FloatVector b;
+        if (shading == Shading.FLAT) {
+            var flat = triangle.flatColor();
+            r = FloatVector.broadcast(SPECIES, flat.x());
+            g = FloatVector.broadcast(SPECIES, flat.y());
+            b = FloatVector.broadcast(SPECIES, flat.z());
+        } else {
+            FloatVector nx;
+            FloatVector ny;
+            FloatVector nz;
+            if (maps.normal() == null) {
+                var n0 = triangle.n0();
+                var n1 = triangle.n1();
+                var n2 = triangle.n2();
+                nx = l0.mul(n0.x()).add(l1.mul(n1.x())).add(l2.mul(n2.x()));
+                ny = l0.mul(n0.y()).add(l1.mul(n1.y())).add(l2.mul(n2.y()));
+                nz = l0.mul(n0.z()).add(l1.mul(n1.z())).add(l2.mul(n2.z()));
+                var length = length(nx, ny, nz);
+                nx = nx.div(length);
+                ny = ny.div(length);
+                nz = nz.div(length);
+            } else {
+                sample(maps.normal(), filter, lanes);
+                nx = FloatVector.fromArray(SPECIES, channel0, 0);
+                ny = FloatVector.fromArray(SPECIES, channel1, 0);
+                nz = FloatVector.fromArray(SPECIES, channel2, 0);
+            }
+
+            var p0 = triangle.p0();
+            var p1 = triangle.p1();
+            var p2 = triangle.p2();
+            var px = l0.mul(p0.x()).add(l1.mul(p1.x())).add(l2.mul(p2.x())).div(q);
+            var py = l0.mul(p0.y()).add(l1.mul(p1.y())).add(l2.mul(p2.y())).div(q);
+            var pz = l0.mul(p0.z()).add(l1.mul(p1.z())).add(l2.mul(p2.z())).div(q);
+
+            var camera = frame.camera();
+            var viewX = px.neg().add(camera.x());
+            var viewY = py.neg().add(camera.y());
+            var viewZ = pz.neg().add(camera.z());
+            var viewLength = length(viewX, viewY, viewZ);
+            viewX = viewX.div(viewLength);
+            viewY = viewY.div(viewLength);
+            viewZ = viewZ.div(viewLength);
+
+            if (shading == Shading.PBR)
+                pbr(frame, maps, filter, lanes, nx, ny, nz, viewX, viewY, viewZ, px, py, pz);
+            else
+                phong(frame, maps, filter, lanes, nx, ny, nz, viewX, viewY, viewZ, px, py, pz);
+            r = FloatVector.fromArray(SPECIES, red, 0);
+            g = FloatVector.fromArray(SPECIES, green, 0);
+            b = FloatVector.fromArray(SPECIES, blue, 0);
+        }
+
+        if (settings.toneMapping() == ToneMapping.REINHARD) {
+            r = r.div(r.add(1));
+            g = g.div(g.add(1));
+            b = b.div(b.add(1));
+        } else {
+            r = acesFilm(r);
+            g = acesFilm(g);
+            b = acesFilm(b);
+        }
+        var gamma = 1.0f / 2.2f;
+        var argb = channel(pow(r, gamma)).lanewise(VectorOperators.LSHL, 16)
+                .or(channel(pow(g, gamma)).lanewise(VectorOperators.LSHL, 8))
+                .or(channel(pow(b, gamma)))
+                .or(0xFF000000);
+        argb.intoArray(target.pixels(), idx, mask.cast(INT_SPECIES));
+        z.intoArray(target.depth(), idx, mask);
+        return true;
+    }
+
+    /**
+     * Fills perspective correct texture coordinates and mip levels of the lanes.
+     */
+    private void textureCoordinates(Varyings triangle,
+                                    FloatVector l0,
+                                    FloatVector l1,
+                                    FloatVector l2,
+                                    FloatVector q,
+                                    TextureFilter filter) {
+        var s = l0.mul(triangle.s0()).add(l1.mul(triangle.s1())).add(l2.mul(triangle.s2())).div(q);
+        var t = l0.mul(triangle.t0()).add(l1.mul(triangle.t1())).add(l2.mul(triangle.t2())).div(q);
+        s.intoArray(u, 0);
+        t.intoArray(v, 0);
+        if (filter == TextureFilter.NEAREST)
+            return;
+
+        s.mul(triangle.dqdx()).neg().add(triangle.dsdx()).div(q).intoArray(channel0, 0);
+        t.mul(triangle.dqdx()).neg().add(triangle.dtdx()).div(q).intoArray(channel1, 0);
+        s.mul(triangle.dqdy()).neg().add(triangle.dsdy()).div(q).intoArray(channel2, 0);
+        t.mul(triangle.dqdy()).neg().add(triangle.dtdy()).div(q).intoArray(channel3, 0);
+        for (var lane = 0; lane < LANES; lane++)
+            lod[lane] = MipmappedTexture.uvLod(channel0[lane], channel1[lane], channel2[lane], channel3[lane]);
+    }
+
+    /**
+     * Fills the color lanes with Phong shading lit by the first light.
+     */
+    private void phong(Renderer.FrameState frame,
+                                SurfaceMaps maps,
+                                TextureFilter filter,
+                                long lanes,
+                                FloatVector nx, FloatVector ny, FloatVector nz,
+                                FloatVector viewX, FloatVector viewY, FloatVector viewZ,
+                                FloatVector px, FloatVector py, FloatVector pz) {
+        var settings = frame.settings();
+        var light = frame.lights()[0];
+        var lx = px.neg().add(light.x());
+        var ly = py.neg().add(light.y());
+        var lz = pz.neg().add(light.z());
+        var lightLength = length(lx, ly, lz);
+        lx = lx.div(lightLength);
+        ly = ly.div(lightLength);
+        lz = lz.div(lightLength);
+
+        FloatVector ambientRed;
+        FloatVector ambientGreen;
+        FloatVector ambientBlue;
+        FloatVector diffuseRed;
+        FloatVector diffuseGreen;
+        FloatVector diffuseBlue;
+        if (maps.diffuse() != null) {
+            // the alpha channel of diffuse maps is the ambient reflectance
+            sample(maps.diffuse(), filter, lanes);
+            ambientRed = ambientGreen = ambientBlue = FloatVector.fromArray(SPECIES, channel0, 0);
+            diffuseRed = FloatVector.fromArray(SPECIES, channel1, 0);
+            diffuseGreen = FloatVector.fromArray(SPECIES, channel2, 0);
+            diffuseBlue = FloatVector.fromArray(SPECIES, channel3, 0);
+        } else {
+            var ambient = settings.ambientColor();
+            var diffuse = settings.diffuseColor();
+            ambientRed = FloatVector.broadcast(SPECIES, ambient.x());
+            ambientGreen = FloatVector.broadcast(SPECIES, ambient.y());
+            ambientBlue = FloatVector.broadcast(SPECIES, ambient.z());
+            diffuseRed = FloatVector.broadcast(SPECIES, diffuse.x());
+            diffuseGreen = FloatVector.broadcast(SPECIES, diffuse.y());
+            diffuseBlue = FloatVector.broadcast(SPECIES, diffuse.z());
+        }
+        FloatVector specularRed;
+        FloatVector specularGreen;
+        FloatVector specularBlue;
+        if (maps.emission() != null) {
+            sample(maps.emission(), filter, lanes);
+            specularRed = FloatVector.fromArray(SPECIES, channel1, 0);
+            specularGreen = FloatVector.fromArray(SPECIES, channel2, 0);
+            specularBlue = FloatVector.fromArray(SPECIES, channel3, 0);
+        } else {
+            var specular = settings.specularColor();
+            specularRed = FloatVector.broadcast(SPECIES, specular.x());
+            specularGreen = FloatVector.broadcast(SPECIES, specular.y());
+            specularBlue = FloatVector.broadcast(SPECIES, specular.z());
+        }
+
+        var nDotL = dot(nx, ny, nz, lx, ly, lz);
+        var twoNDotL = nDotL.mul(2);
+        var rx = nx.mul(twoNDotL).sub(lx);
+        var ry = ny.mul(twoNDotL).sub(ly);
+        var rz = nz.mul(twoNDotL).sub(lz);
+        var diffuse = nDotL.max(0);
+        var specular = pow(dot(rx, ry, rz, viewX, viewY, viewZ).max(0), settings.specularPower());
+
+        var iA = settings.ambientIntensity();
+        var iD = settings.diffuseIntensity();
+        var iS = settings.specularIntensity();
+        phong(ambientRed, diffuseRed, specularRed, diffuse, specular, iA.x(), iD.x(), iS.x()).intoArray(red, 0);
+        phong(ambientGreen, diffuseGreen, specularGreen, diffuse, specular, iA.y(), iD.y(), iS.y()).intoArray(green, 0);
+        phong(ambientBlue, diffuseBlue, specularBlue, diffuse, specular, iA.z(), iD.z(), iS.z()).intoArray(blue, 0);
+    }
+
+    private static FloatVector phong(FloatVector kA,
+                                     FloatVector kD,
+                                     FloatVector kS,
+                                     FloatVector diffuse,
+                                     FloatVector specular,
+                                     float iA,
+                                     float iD,
+                                     float iS) {
+        return kA.mul(iA).add(kD.mul(diffuse).mul(iD)).add(kS.mul(specular).mul(iS));
+    }
+
+    /**
+     * Fills the color lanes with Cook-Torrance shading lit by all lights.
+     */
+    private void pbr(Renderer.FrameState frame,
+                              SurfaceMaps maps,
+                              TextureFilter filter,
+                              long lanes,
+                              FloatVector nx, FloatVector ny, FloatVector nz,
+                              FloatVector viewX, FloatVector viewY, FloatVector viewZ,
+                              FloatVector px, FloatVector py, FloatVector pz) {
+        var settings = frame.settings();
+        FloatVector metallic;
+        FloatVector roughness;
+        FloatVector ao;
+        if (maps.mrao() != null) {
+            sample(maps.mrao(), filter, lanes);
+            metallic = FloatVector.fromArray(SPECIES, channel0, 0);
+            roughness = FloatVector.fromArray(SPECIES, channel1, 0);
+            ao = FloatVector.fromArray(SPECIES, channel2, 0);
+        } else {
+            metallic = FloatVector.broadcast(SPECIES, settings.metallic());
+            roughness = FloatVector.broadcast(SPECIES, settings.roughness());
+            ao = FloatVector.broadcast(SPECIES, settings.ambientOcclusion());
+        }
+        if (maps.metallic() != null) {
+            sample(maps.metallic(), filter, lanes);
+            metallic = FloatVector.fromArray(SPECIES, channel0, 0);
+        }
+        if (maps.roughness() != null) {
+            sample(maps.roughness(), filter, lanes);
+            roughness = FloatVector.fromArray(SPECIES, channel0, 0);
+        }
+        FloatVector albedoRed;
+        FloatVector albedoGreen;
+        FloatVector albedoBlue;
+        if (maps.albedo() != null) {
+            sample(maps.albedo(), filter, lanes);
+            albedoRed = FloatVector.fromArray(SPECIES, channel0, 0);
+            albedoGreen = FloatVector.fromArray(SPECIES, channel1, 0);
+            albedoBlue = FloatVector.fromArray(SPECIES, channel2, 0);
+        } else {
+            var albedo = settings.albedo();
+            albedoRed = FloatVector.broadcast(SPECIES, albedo.x());
+            albedoGreen = FloatVector.broadcast(SPECIES, albedo.y());
+            albedoBlue = FloatVector.broadcast(SPECIES, albedo.z());
+        }
+        var emissionRed = FloatVector.zero(SPECIES);
+        var emissionGreen = emissionRed;
+        var emissionBlue = emissionRed;
+        if (maps.emission() != null) {
+            sample(maps.emission(), filter, lanes);
+            emissionRed = FloatVector.fromArray(SPECIES, channel1, 0).mul(10);
+            emissionGreen = FloatVector.fromArray(SPECIES, channel2, 0).mul(10);
+            emissionBlue = FloatVector.fromArray(SPECIES, channel3, 0).mul(10);
+        }
+
+        // Fresnel reflectance at normal incidence, diffuse reflectance and terms of the light loop shared by lights
+        var dielectric = metallic.neg().add(1);
+        var f0Red = albedoRed.mul(metallic).add(dielectric.mul(0.04f));
+        var f0Green = albedoGreen.mul(metallic).add(dielectric.mul(0.04f));
+        var f0Blue = albedoBlue.mul(metallic).add(dielectric.mul(0.04f));
+        var lambertRed = albedoRed.div(PI);
+        var lambertGreen = albedoGreen.div(PI);
+        var lambertBlue = albedoBlue.div(PI);
+        var a = roughness.mul(roughness);
+        var a2 = a.mul(a);
+        var r = roughness.add(1);
+        var k = r.mul(r).div(8);
+        var nDotV = dot(nx, ny, nz, viewX, viewY, viewZ).max(0);
+        var ggxV = schlickGGX(nDotV, k);
+
+        var outRed = FloatVector.zero(SPECIES);
+        var outGreen = outRed;
+        var outBlue = outRed;
+        for (var light : frame.lights()) {
+            var lx = px.neg().add(light.x());
+            var ly = py.neg().add(light.y());
+            var lz = pz.neg().add(light.z());
+            var distance = length(lx, ly, lz);
+            lx = lx.div(distance);
+            ly = ly.div(distance);
+            lz = lz.div(distance);
+            var hx = viewX.add(lx);
+            var hy = viewY.add(ly);
+            var hz = viewZ.add(lz);
+            var halfLength = length(hx, hy, hz);
+            hx = hx.div(halfLength);
+            hy = hy.div(halfLength);
+            hz = hz.div(halfLength);
+            var radiance = FloatVector.broadcast(SPECIES, 1000).div(distance.mul(distance).add(0.001f));
+
+            var oneMinusCos = dot(hx, hy, hz, viewX, viewY, viewZ).max(0).neg().add(1);
+            var oneMinusCos2 = oneMinusCos.mul(oneMinusCos);
+            var fresnel = oneMinusCos2.mul(oneMinusCos2).mul(oneMinusCos);
+            var fRed = f0Red.add(f0Red.neg().add(1).mul(fresnel));
+            var fGreen = f0Green.add(f0Green.neg().add(1).mul(fresnel));
+            var fBlue = f0Blue.add(f0Blue.neg().add(1).mul(fresnel));
+
+            var nDotH = dot(nx, ny, nz, hx, hy, hz).max(0);
+            var d = nDotH.mul(nDotH).mul(a2.sub(1)).add(1);
+            var distribution = a2.div(d.mul(d).mul(PI).max(0.001f));
+            var nDotL = dot(nx, ny, nz, lx, ly, lz).max(0);
+            var geometry = schlickGGX(nDotL, k).mul(ggxV);
+            var specular = distribution.mul(geometry).div(nDotV.mul(4).mul(nDotL).add(0.001f));
+            var lit = radiance.mul(nDotL);
+
+            outRed = outRed.add(pbr(fRed, dielectric, lambertRed, specular, lit, emissionRed));
+            outGreen = outGreen.add(pbr(fGreen, dielectric, lambertGreen, specular, lit, emissionGreen));
+            outBlue = outBlue.add(pbr(fBlue, dielectric, lambertBlue, specular, lit, emissionBlue));
+        }
+
+        var ambient = ao.mul(0.03f);
+        albedoRed.mul(ambient).add(outRed).intoArray(red, 0);
+        albedoGreen.mul(ambient).add(outGreen).intoArray(green, 0);
+        albedoBlue.mul(ambient).add(outBlue).intoArray(blue, 0);
+    }
+
+    /**
+     * Gets the light a channel reflects.
+     *
+     * @param fresnel  Fresnel reflectance of the channel
+     * @param specular specular BRDF without the Fresnel term
+     * @param lit      incoming radiance scaled by the cosine of the light angle
+     */
+    private static FloatVector pbr(FloatVector fresnel,
+                                   FloatVector dielectric,
+                                   FloatVector lambert,
+                                   FloatVector specular,
+                                   FloatVector lit,
+                                   FloatVector emission) {
+        var diffuse = fresnel.neg().add(1).mul(dielectric);
+        return diffuse.mul(lambert).add(fresnel.mul(specular)).mul(lit).add(emission);
+    }
+
+    private static FloatVector schlickGGX(FloatVector cosine, FloatVector k) {
+        return cosine.div(cosine.mul(k.neg().add(1)).add(k).max(0.001f));
+    }
+
+    private static FloatVector acesFilm(FloatVector x) {
+        var color = x.mul(x.mul(2.51f).add(0.03f)).div(x.mul(x.mul(2.43f).add(0.59f)).add(0.14f));
+        return color.max(0).min(1);
+    }
+
+    /**
+     * Converts a color channel to its byte the way {@link com.morka.cga.viewer.utils.ColorUtils#toArgbWithClamp}
+     * does.
+     */
+    private static IntVector channel(FloatVector value) {
+        return (IntVector) value.min(1).mul(255).convert(VectorOperators.F2I, 0);
+    }
+
+    /**
+     * Raises lanes to the power. Exponent and logarithm have vectorized intrinsics while the power has not,
+     * so this is several times faster than {@link VectorOperators#POW}.
+     */
+    private static FloatVector pow(FloatVector base, float exponent) {
+        if (exponent == 0)
+            return FloatVector.broadcast(SPECIES, 1);
+        return base.lanewise(VectorOperators.LOG).mul(exponent).lanewise(VectorOperators.EXP);
+    }
+
+    private static FloatVector dot(FloatVector ax, FloatVector ay, FloatVector az,
+                                   FloatVector bx, FloatVector by, FloatVector bz) {
+        return ax.mul(bx).add(ay.mul(by)).add(az.mul(bz));
+    }
+
+    private static FloatVector length(FloatVector x, FloatVector y, FloatVector z) {
+        return dot(x, y, z, x, y, z).sqrt();
+    }
+
+    /**
+     * Samples the texture at the coordinates of the lanes into the first three channels.
+     */
+    private void sample(FloatTexture texture, TextureFilter filter, long lanes) {
+        for (var bits = lanes; bits != 0; bits &= bits - 1) {
+            var lane = Long.numberOfTrailingZeros(bits);
+            texture.sample(u[lane], v[lane], lod[lane], filter, texel);
+            channel0[lane] = texel[0];
+            channel1[lane] = texel[1];
+            channel2[lane] = texel[2];
+        }
+    }
+
+    /**
+     * Samples the texture at the coordinates of the lanes into alpha, red, green and blue channels in [0, 1].
+     */
+    private void sample(MipmappedTexture texture, TextureFilter filter, long lanes) {
+        for (var bits = lanes; bits != 0; bits &= bits - 1) {
+            var lane = Long.numberOfTrailingZeros(bits);
+            var argb = texture.sample(u[lane], v[lane], lod[lane], filter);
+            channel0[lane] = (argb >>> 24) / 255f;
+            channel1[lane] = (argb >> 16 & 0xFF) / 255f;
+            channel2[lane] = (argb >> 8 & 0xFF) / 255f;
+            channel3[lane] = (argb & 0xFF) / 255f;
+        }
+    }
+
+    /**
+     * Values of a triangle interpolated with barycentric weights: view space depth, 1/z, u/z and v/z with their
+     * screen space gradients, world space vertex normals and world space vertex positions over z.
+     */
+    record Varyings(SurfaceMaps maps,
+                    Vector3D flatColor,
+                    float invArea,
+                    float z0, float z1, float z2,
+                    float q0, float q1, float q2,
+                    float s0, float s1, float s2,
+                    float t0, float t1, float t2,
+                    float dqdx, float dqdy,
+                    float dsdx, float dsdy,
+                    float dtdx, float dtdy,
+                    Vector3D n0, Vector3D n1, Vector3D n2,
+                    Vector3D p0, Vector3D p1, Vector3D p2) {
+    }
+}
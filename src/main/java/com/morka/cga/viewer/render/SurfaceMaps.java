@@ -0,0 +1,22 @@
+package com.morka.cga.viewer.render;
+
+import com.morka.cga.viewer.texture.FloatTexture;
+import com.morka.cga.viewer.texture.MipmappedTexture;
+
+/**
+ * Texture maps a triangle is shaded with, any of them may be {@code null}. Metallic and roughness maps are only set
+ * when a material has them as separate grayscale maps instead of a packed MRAO map.
+ *
+ * @param diffuse  diffuse map as sampled by Phong shading
+ * @param albedo   diffuse map decoded for PBR shading
+ */
+public record SurfaceMaps(MipmappedTexture diffuse,
+                          FloatTexture albedo,
+                          FloatTexture normal,
+                          MipmappedTexture emission,
+                          FloatTexture mrao,
+                          FloatTexture metallic,
+                          FloatTexture roughness) {
+
+    public static final SurfaceMaps NONE = new SurfaceMaps(null, null, null, null, null, null, null);
+}
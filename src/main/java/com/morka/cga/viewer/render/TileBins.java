@@ -0,0 +1,143 @@
+package com.morka.cga.viewer.render;
+
+import java.util.stream.IntStream;
+
+/**
+ * Triangles of a frame sorted into the screen tiles their bounds overlap. Every tile lists its triangles
+ * in submission order, so a tile drawn by a single thread gives the same pixels however the frame is split
+ * between threads.
+ * <p>
+ * Triangles are binned by fixed size chunks in two passes: the first one counts triangles of every chunk per tile,
+ * the second one writes them at offsets of the chunk in the tile, so chunks are binned concurrently without locks.
+ */
+final class TileBins {
+
+    /**
+     * Width and height of tiles in pixels.
+     */
+    static final int TILE_SIZE = 64;
+
+    private static final int TILE_SHIFT = Integer.numberOfTrailingZeros(TILE_SIZE);
+
+    /**
+     * Triangles binned by one task, fixed so the split does not depend on the number of threads.
+     */
+    private static final int CHUNK_SIZE = 4096;
+
+    private final int width;
+
+    private final int height;
+
+    private final int columns;
+
+    /**
+     * Index of the first triangle of every tile in {@link #triangles} followed by the number of binned triangles.
+     */
+    private final int[] starts;
+
+    private final int[] triangles;
+
+    private TileBins(int width, int height, int columns, int[] starts, int[] triangles) {
+        this.width = width;
+        this.height = height;
+        this.columns = columns;
+        this.starts = starts;
+        this.triangles = triangles;
+    }
+
+    /**
+     * @param bounds min x, min y, max x and max y in pixels per triangle, both inclusive and inside the screen;
+     *               triangles with max x less than min x are skipped
+     */
+    static TileBins bin(int width, int height, int[] bounds) {
+        var columns = (width + TILE_SIZE - 1) >> TILE_SHIFT;
+        var rows = (height + TILE_SIZE - 1) >> TILE_SHIFT;
+        var tileCount = columns * rows;
+        var triangleCount = bounds.length / 4;
+        var chunkCount = (triangleCount + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+        var offsets = new int[chunkCount][];
+        IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+            var counts = new int[tileCount];
+            var end = Math.min(triangleCount, (chunk + 1) * CHUNK_SIZE);
+            for (var triangle = chunk * CHUNK_SIZE; triangle < end; triangle++) {
+                var b = triangle * 4;
+                if (bounds[b + 2] < bounds[b])
+                    continue;
+                for (var row = bounds[b + 1] >> TILE_SHIFT; row <= bounds[b + 3] >> TILE_SHIFT; row++)
+                    for (var column = bounds[b] >> TILE_SHIFT; column <= bounds[b + 2] >> TILE_SHIFT; column++)
+                        counts[row * columns + column]++;
+            }
+            offsets[chunk] = counts;
+        });
+
+        var starts = new int[tileCount + 1];
+        var total = 0;
+        for (var tile = 0; tile < tileCount; tile++) {
+            starts[tile] = total;
+            for (var chunk = 0; chunk < chunkCount; chunk++) {
+                var count = offsets[chunk][tile];
+                offsets[chunk][tile] = total;
+                total += count;
+            }
+        }
+        starts[tileCount] = total;
+
+        var triangles = new int[total];
+        IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+            var next = offsets[chunk];
+            var end = Math.min(triangleCount, (chunk + 1) * CHUNK_SIZE);
+            for (var triangle = chunk * CHUNK_SIZE; triangle < end; triangle++) {
+                var b = triangle * 4;
+                if (bounds[b + 2] < bounds[b])
+                    continue;
+                for (var row = bounds[b + 1] >> TILE_SHIFT; row <= bounds[b + 3] >> TILE_SHIFT; row++)
+                    for (var column = bounds[b] >> TILE_SHIFT; column <= bounds[b + 2] >> TILE_SHIFT; column++)
+                        triangles[next[row * columns + column]++] = triangle;
+            }
+        });
+        return new TileBins(width, height, columns, starts, triangles);
+    }
+
+    int tileCount() {
+        return starts.length - 1;
+    }
+
+    int minX(int tile) {
+        return (tile % columns) << TILE_SHIFT;
+    }
+
+    int minY(int tile) {
+        return (tile / columns) << TILE_SHIFT;
+    }
+
+    int maxX(int tile) {
+        return Math.min(minX(tile) + TILE_SIZE, width) - 1;
+    }
+
+    int maxY(int tile) {
+        return Math.min(minY(tile) + TILE_SIZE, height) - 1;
+    }
+
+    /**
+     * @return index of the first triangle of the tile, see {@link #triangle(int)}
+     */
+    int start(int tile) {
+        return starts[tile];
+    }
+
+    int end(int tile) {
+        return starts[tile + 1];
+    }
+
+    /**
+     * @return number of binned triangles, counting every triangle once per tile
+     */
+    int size() {
+        return starts[starts.length - 1];
+    }
+
+    int triangle(int index) {
+        return triangles[index];
+    }
+}
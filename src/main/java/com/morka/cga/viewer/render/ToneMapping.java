@@ -0,0 +1,9 @@
+package com.morka.cga.viewer.render;
+
+/**
+ * Curve mapping linear radiance into displayable [0, 1] colors before gamma encoding.
+ */
+public enum ToneMapping {
+    REINHARD,
+    ACES
+}
@@ -0,0 +1,278 @@
+package com.morka.cga.viewer.texture;
+
+/**
+ * Encodings of 4x4 texel blocks of {@link TextureLayout#BLOCK_COMPRESSED} textures, modelled on BC1, BC3 and BC5.
+ * A block takes one or two longs, texels of a block are numbered row by row.
+ */
+enum BlockFormat {
+    /**
+     * Two RGB565 endpoints and a 2 bit index per texel into four colors between them, opaque, 4 bits per texel.
+     */
+    BC1(1),
+    /**
+     * BC4 alpha block followed by a BC1 color block, 8 bits per texel.
+     */
+    BC3(2),
+    /**
+     * BC4 blocks of the red and the green channel of a normal map, blue is derived from them, 8 bits per texel.
+     */
+    BC5(2);
+
+    static final int BLOCK_TEXELS = 16;
+
+    private static final int POWER_ITERATIONS = 4;
+
+    private final int longsPerBlock;
+
+    BlockFormat(int longsPerBlock) {
+        this.longsPerBlock = longsPerBlock;
+    }
+
+    /**
+     * Picks the cheapest format keeping what the map needs. Only normal maps with no normal facing away
+     * from the surface, i.e. tangent space ones, can drop their blue channel.
+     *
+     * @param pixels    ARGB texels of the map
+     * @param normalMap whether the map holds normals
+     */
+    static BlockFormat of(int[] pixels, boolean normalMap) {
+        var opaque = true;
+        var facingOut = normalMap;
+        for (var pixel : pixels) {
+            opaque &= pixel >>> 24 == 0xFF;
+            facingOut &= (pixel & 0xFF) >= 0x80;
+        }
+        if (facingOut)
+            return BC5;
+        return opaque ? BC1 : BC3;
+    }
+
+    int longsPerBlock() {
+        return longsPerBlock;
+    }
+
+    /**
+     * Encodes one block.
+     *
+     * @param texels 16 ARGB texels row by row
+     */
+    void encode(int[] texels, long[] blocks, int offset) {
+        switch (this) {
+            case BC1 -> blocks[offset] = encodeColor(texels);
+            case BC3 -> {
+                blocks[offset] = encodeChannel(texels, 24);
+                blocks[offset + 1] = encodeColor(texels);
+            }
+            case BC5 -> {
+                blocks[offset] = encodeChannel(texels, 16);
+                blocks[offset + 1] = encodeChannel(texels, 8);
+            }
+        }
+    }
+
+    /**
+     * Decodes all texels of one block.
+     *
+     * @param offset index of the first long of the block
+     * @param out    receives 16 ARGB texels row by row
+     */
+    void decode(long[] blocks, int offset, int[] out, int outOffset) {
+        switch (this) {
+            case BC1 -> decodeColors(blocks[offset], 0xFF000000, out, outOffset);
+            case BC3 -> {
+                decodeColors(blocks[offset + 1], 0, out, outOffset);
+                var alpha = blocks[offset];
+                for (var i = 0; i < BLOCK_TEXELS; i++)
+                    out[outOffset + i] |= decodeChannel(alpha, i) << 24;
+            }
+            case BC5 -> {
+                var redBlock = blocks[offset];
+                var greenBlock = blocks[offset + 1];
+                for (var i = 0; i < BLOCK_TEXELS; i++) {
+                    var red = decodeChannel(redBlock, i);
+                    var green = decodeChannel(greenBlock, i);
+                    var x = red / 127.5f - 1;
+                    var y = green / 127.5f - 1;
+                    var z = (float) Math.sqrt(Math.max(0, 1 - x * x - y * y));
+                    var blue = Math.round((z + 1) * 127.5f);
+                    out[outOffset + i] = 0xFF000000 | red << 16 | green << 8 | blue;
+                }
+            }
+        }
+    }
+
+    /**
+     * Fits the endpoints to the extremes of the block colors along their principal axis.
+     */
+    private static long encodeColor(int[] texels) {
+        float meanR = 0, meanG = 0, meanB = 0;
+        for (var texel : texels) {
+            meanR += texel >> 16 & 0xFF;
+            meanG += texel >> 8 & 0xFF;
+            meanB += texel & 0xFF;
+        }
+        meanR /= BLOCK_TEXELS;
+        meanG /= BLOCK_TEXELS;
+        meanB /= BLOCK_TEXELS;
+
+        float rr = 0, rg = 0, rb = 0, gg = 0, gb = 0, bb = 0;
+        for (var texel : texels) {
+            var r = (texel >> 16 & 0xFF) - meanR;
+            var g = (texel >> 8 & 0xFF) - meanG;
+            var b = (texel & 0xFF) - meanB;
+            rr += r * r;
+            rg += r * g;
+            rb += r * b;
+            gg += g * g;
+            gb += g * b;
+            bb += b * b;
+        }
+        float axisR = 1, axisG = 1, axisB = 1;
+        for (var i = 0; i < POWER_ITERATIONS; i++) {
+            var r = rr * axisR + rg * axisG + rb * axisB;
+            var g = rg * axisR + gg * axisG + gb * axisB;
+            var b = rb * axisR + gb * axisG + bb * axisB;
+            var length = (float) Math.sqrt(r * r + g * g + b * b);
+            if (length == 0)
+                break;
+            axisR = r / length;
+            axisG = g / length;
+            axisB = b / length;
+        }
+
+        var min = Float.POSITIVE_INFINITY;
+        var max = Float.NEGATIVE_INFINITY;
+        for (var texel : texels) {
+            var t = ((texel >> 16 & 0xFF) - meanR) * axisR
+                    + ((texel >> 8 & 0xFF) - meanG) * axisG
+                    + ((texel & 0xFF) - meanB) * axisB;
+            min = Math.min(min, t);
+            max = Math.max(max, t);
+        }
+        var c0 = toRgb565(meanR + max * axisR, meanG + max * axisG, meanB + max * axisB);
+        var c1 = toRgb565(meanR + min * axisR, meanG + min * axisG, meanB + min * axisB);
+        if (c0 < c1) {
+            var swap = c0;
+            c0 = c1;
+            c1 = swap;
+        }
+        if (c0 == c1)
+            return c0 | (long) c1 << 16;
+
+        var palette = new int[4];
+        for (var i = 0; i < palette.length; i++)
+            palette[i] = paletteColor(c0, c1, i);
+        var indices = 0L;
+        for (var i = 0; i < BLOCK_TEXELS; i++) {
+            var best = 0;
+            var bestError = Integer.MAX_VALUE;
+            for (var j = 0; j < palette.length; j++) {
+                var error = distance(texels[i], palette[j]);
+                if (error < bestError) {
+                    bestError = error;
+                    best = j;
+                }
+            }
+            indices |= (long) best << 2 * i;
+        }
+        return c0 | (long) c1 << 16 | indices << 32;
+    }
+
+    private static void decodeColors(long block, int alpha, int[] out, int outOffset) {
+        var c0 = (int) block & 0xFFFF;
+        var c1 = (int) (block >>> 16) & 0xFFFF;
+        var p0 = alpha | paletteColor(c0, c1, 0);
+        var p1 = alpha | paletteColor(c0, c1, 1);
+        var p2 = alpha | paletteColor(c0, c1, 2);
+        var p3 = alpha | paletteColor(c0, c1, 3);
+        var indices = (int) (block >>> 32);
+        for (var i = 0; i < BLOCK_TEXELS; i++) {
+            out[outOffset + i] = switch (indices >>> 2 * i & 3) {
+                case 0 -> p0;
+                case 1 -> p1;
+                case 2 -> p2;
+                default -> p3;
+            };
+        }
+    }
+
+    /**
+     * @return RGB of an entry of the four color palette, the alpha byte is zero
+     */
+    private static int paletteColor(int c0, int c1, int index) {
+        return switch (index) {
+            case 0 -> fromRgb565(c0);
+            case 1 -> fromRgb565(c1);
+            case 2 -> blend(fromRgb565(c0), fromRgb565(c1));
+            default -> blend(fromRgb565(c1), fromRgb565(c0));
+        };
+    }
+
+    /**
+     * @return two thirds of {@code a} and one third of {@code b}
+     */
+    private static int blend(int a, int b) {
+        var result = 0;
+        for (var shift = 0; shift < 24; shift += 8)
+            result |= ((a >> shift & 0xFF) * 2 + (b >> shift & 0xFF)) / 3 << shift;
+        return result;
+    }
+
+    private static int toRgb565(float r, float g, float b) {
+        var red = Math.round(Math.min(Math.max(r, 0), 255) * 31 / 255);
+        var green = Math.round(Math.min(Math.max(g, 0), 255) * 63 / 255);
+        var blue = Math.round(Math.min(Math.max(b, 0), 255) * 31 / 255);
+        return red << 11 | green << 5 | blue;
+    }
+
+    private static int fromRgb565(int color) {
+        var red = color >> 11 & 0x1F;
+        var green = color >> 5 & 0x3F;
+        var blue = color & 0x1F;
+        return (red << 3 | red >> 2) << 16 | (green << 2 | green >> 4) << 8 | blue << 3 | blue >> 2;
+    }
+
+    private static int distance(int a, int b) {
+        var red = (a >> 16 & 0xFF) - (b >> 16 & 0xFF);
+        var green = (a >> 8 & 0xFF) - (b >> 8 & 0xFF);
+        var blue = (a & 0xFF) - (b & 0xFF);
+        return red * red + green * green + blue * blue;
+    }
+
+    /**
+     * Encodes one 8 bit channel of the block with the maximum and minimum as endpoints
+     * and a 3 bit index per texel into eight values between them.
+     */
+    private static long encodeChannel(int[] texels, int shift) {
+        var max = 0;
+        var min = 255;
+        for (var texel : texels) {
+            var value = texel >> shift & 0xFF;
+            max = Math.max(max, value);
+            min = Math.min(min, value);
+        }
+        var block = max | (long) min << 8;
+        if (max == min)
+            return block;
+
+        for (var i = 0; i < BLOCK_TEXELS; i++) {
+            var value = texels[i] >> shift & 0xFF;
+            // position on the ramp from min (0) to max (7)
+            var step = Math.round((value - min) * 7f / (max - min));
+            var index = step == 7 ? 0 : step == 0 ? 1 : 8 - step;
+            block |= (long) index << 16 + 3 * i;
+        }
+        return block;
+    }
+
+    private static int decodeChannel(long block, int texel) {
+        var max = (int) block & 0xFF;
+        var min = (int) (block >>> 8) & 0xFF;
+        var index = (int) (block >>> 16 + 3 * texel) & 7;
+        return switch (index) {
+            case 0 -> max;
+            case 1 -> min;
+            default -> ((8 - index) * max + (index - 1) * min) / 7;
+        };
+    }
+}
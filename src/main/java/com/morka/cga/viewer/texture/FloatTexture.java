@@ -0,0 +1,89 @@
+package com.morka.cga.viewer.texture;
+
+/**
+ * Mipmapped texture sampled into float channels ready for shading, see {@link TextureUsage}.
+ * Texels stay the 8-bit ones of the texture, every texel a filter reads is decoded through lookup tables
+ * when sampled, so a view takes no memory besides the texture. Block compressed textures decode their
+ * filtered samples instead.
+ */
+public final class FloatTexture {
+
+    private final MipmappedTexture texture;
+
+    private final MipmappedTexture.Level[] levels;
+
+    private final TextureUsage usage;
+
+    private FloatTexture(MipmappedTexture texture, TextureUsage usage) {
+        this.texture = texture;
+        this.levels = texture.levels();
+        this.usage = usage;
+    }
+
+    /**
+     * Views the texture as the usage decodes it.
+     */
+    public static FloatTexture of(MipmappedTexture texture, TextureUsage usage) {
+        return new FloatTexture(texture, usage);
+    }
+
+    /**
+     * Samples the texture like {@link MipmappedTexture#sample(float, float, float, TextureFilter)}.
+     *
+     * @param out receives the three channels
+     */
+    public void sample(float u, float v, float uvLod, TextureFilter filter, float[] out) {
+        if (texture.layout() == TextureLayout.BLOCK_COMPRESSED) {
+            usage.decode(texture.sample(u, v, uvLod, filter), out, filter == TextureFilter.NEAREST);
+            return;
+        }
+        out[0] = 0;
+        out[1] = 0;
+        out[2] = 0;
+        switch (filter) {
+            case NEAREST -> {
+                var level = levels[0];
+                var x = Math.min(Math.max((int) (u * level.w()) - 1, 0), level.w() - 1);
+                var y = Math.min(Math.max((int) ((1 - v) * level.h()) - 1, 0), level.h() - 1);
+                accumulate(0, x, y, 1, out);
+            }
+            case BILINEAR -> {
+                var level = Math.min(Math.max(Math.round(uvLod + texture.sizeLod()), 0), levels.length - 1);
+                bilinear(level, u, v, 1, out);
+            }
+            case TRILINEAR -> {
+                var lod = Math.min(Math.max(uvLod + texture.sizeLod(), 0), levels.length - 1);
+                var fine = (int) lod;
+                var blend = lod - fine;
+                bilinear(fine, u, v, 1 - blend, out);
+                if (blend > 0)
+                    bilinear(fine + 1, u, v, blend, out);
+            }
+        }
+    }
+
+    private void bilinear(int level, float u, float v, float weight, float[] out) {
+        var w = levels[level].w();
+        var h = levels[level].h();
+        var fx = u * w - 0.5f;
+        var fy = (1 - v) * h - 0.5f;
+        var left = (int) Math.floor(fx);
+        var top = (int) Math.floor(fy);
+        var wx = fx - left;
+        var wy = fy - top;
+        var x0 = Math.min(Math.max(left, 0), w - 1);
+        var x1 = Math.min(Math.max(left + 1, 0), w - 1);
+        var y0 = Math.min(Math.max(top, 0), h - 1);
+        var y1 = Math.min(Math.max(top + 1, 0), h - 1);
+        accumulate(level, x0, y0, weight * (1 - wx) * (1 - wy), out);
+        accumulate(level, x1, y0, weight * wx * (1 - wy), out);
+        accumulate(level, x0, y1, weight * (1 - wx) * wy, out);
+        accumulate(level, x1, y1, weight * wx * wy, out);
+    }
+
+    private void accumulate(int level, int x, int y, float weight, float[] out) {
+        var texels = levels[level];
+        var argb = texels.texels()[texture.layout().index(x, y, texels.stride())];
+        usage.accumulate(argb, weight, out, level == 0);
+    }
+}
@@ -0,0 +1,352 @@
+package com.morka.cga.viewer.texture;
+
+import com.morka.cga.parser.model.TextureMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Texture map with its mip chain. Every level halves the previous one with a 2x2 box filter,
+ * down to a single texel. Levels are stored in the {@link TextureLayout} picked when the texture is built.
+ */
+public final class MipmappedTexture {
+
+    private static final int ROWS_PER_TASK = 32;
+
+    private static final AtomicInteger LEVEL_IDS = new AtomicInteger();
+
+    private static final ThreadLocal<BlockCache> BLOCK_CACHE = ThreadLocal.withInitial(BlockCache::new);
+
+    private final TextureLayout layout;
+
+    private final boolean normalMap;
+
+    private final Level[] levels;
+
+    /**
+     * Level of detail of a texel-sized uv footprint, {@code log2} of the larger side of the map.
+     */
+    private final float sizeLod;
+
+    private MipmappedTexture(TextureLayout layout, boolean normalMap, Level[] levels) {
+        this.layout = layout;
+        this.normalMap = normalMap;
+        this.levels = levels;
+        var base = levels[0];
+        this.sizeLod = (float) (Math.log(Math.max(base.w(), base.h())) / Math.log(2));
+    }
+
+    /**
+     * Builds the mip chain of the map, rows of every level are filtered concurrently.
+     *
+     * @param layout order of texels of the levels, row-major levels share the array of the map
+     */
+    public static MipmappedTexture of(TextureMap map, TextureLayout layout) {
+        return of(map, layout, false);
+    }
+
+    /**
+     * Builds the mip chain of the map like {@link #of(TextureMap, TextureLayout)}.
+     *
+     * @param normalMap whether the map holds normals, which compress into their red and green channels
+     */
+    public static MipmappedTexture of(TextureMap map, TextureLayout layout, boolean normalMap) {
+        var format = layout == TextureLayout.BLOCK_COMPRESSED ? BlockFormat.of(map.pixels(), normalMap) : null;
+        var levels = new ArrayList<Level>();
+        var level = map;
+        levels.add(Level.of(level, layout, format));
+        while (level.w() > 1 || level.h() > 1) {
+            level = downsample(level);
+            levels.add(Level.of(level, layout, format));
+        }
+        return new MipmappedTexture(layout, normalMap, levels.toArray(Level[]::new));
+    }
+
+    /**
+     * Gets the texture with texels stored in another layout. Leaving the block compressed layout
+     * decodes the blocks, the texture keeps their compression error.
+     */
+    public MipmappedTexture withLayout(TextureLayout layout) {
+        if (layout == this.layout)
+            return this;
+        if (layout == TextureLayout.BLOCK_COMPRESSED)
+            return of(levels[0].toMap(this.layout), layout, normalMap);
+        var relaid = new Level[levels.length];
+        for (var i = 0; i < levels.length; i++)
+            relaid[i] = Level.of(levels[i].toMap(this.layout), layout, null);
+        return new MipmappedTexture(layout, normalMap, relaid);
+    }
+
+    public TextureLayout layout() {
+        return layout;
+    }
+
+    public boolean isNormalMap() {
+        return normalMap;
+    }
+
+    public int levelCount() {
+        return levels.length;
+    }
+
+    /**
+     * @return bytes taken by texels of all levels
+     */
+    public long sizeBytes() {
+        var bytes = 0L;
+        for (var level : levels)
+            bytes += level.blocks() != null ? (long) level.blocks().length * Long.BYTES : (long) level.texels().length * Integer.BYTES;
+        return bytes;
+    }
+
+    Level[] levels() {
+        return levels;
+    }
+
+    float sizeLod() {
+        return sizeLod;
+    }
+
+    /**
+     * Samples the texture.
+     *
+     * @param u      horizontal texture coordinate
+     * @param v      vertical texture coordinate, {@code 0} is the bottom row
+     * @param uvLod  {@code log2} of the uv distance a pixel spans, see {@link #uvLod(float, float, float, float)}
+     * @param filter filter
+     * @return ARGB color
+     */
+    public int sample(float u, float v, float uvLod, TextureFilter filter) {
+        var cache = layout == TextureLayout.BLOCK_COMPRESSED ? BLOCK_CACHE.get() : null;
+        return switch (filter) {
+            case NEAREST -> nearest(levels[0], u, v, cache);
+            case BILINEAR -> bilinear(levels[level(Math.round(uvLod + sizeLod))], u, v, cache);
+            case TRILINEAR -> {
+                var lod = Math.min(Math.max(uvLod + sizeLod, 0), levels.length - 1);
+                var fine = (int) lod;
+                var blend = (int) ((lod - fine) * 256);
+                var color = bilinear(levels[fine], u, v, cache);
+                yield blend == 0 ? color : lerp(color, bilinear(levels[fine + 1], u, v, cache), blend);
+            }
+        };
+    }
+
+    /**
+     * Gets the footprint of a pixel from screen space derivatives of texture coordinates.
+     *
+     * @return {@code log2} of the longer of the pixel's uv steps along screen x and y
+     */
+    public static float uvLod(float dudx, float dvdx, float dudy, float dvdy) {
+        var footprint = Math.max(dudx * dudx + dvdx * dvdx, dudy * dudy + dvdy * dvdy);
+        return (float) (0.5 * Math.log(footprint) / Math.log(2));
+    }
+
+    private int level(int lod) {
+        return Math.min(Math.max(lod, 0), levels.length - 1);
+    }
+
+    private int nearest(Level level, float u, float v, BlockCache cache) {
+        var x = Math.min(Math.max((int) (u * level.w()) - 1, 0), level.w() - 1);
+        var y = Math.min(Math.max((int) ((1 - v) * level.h()) - 1, 0), level.h() - 1);
+        return level.texel(layout.index(x, y, level.stride()), cache);
+    }
+
+    private int bilinear(Level level, float u, float v, BlockCache cache) {
+        var w = level.w();
+        var h = level.h();
+        var fx = u * w - 0.5f;
+        var fy = (1 - v) * h - 0.5f;
+        var left = (int) Math.floor(fx);
+        var top = (int) Math.floor(fy);
+        var wx = (int) ((fx - left) * 256);
+        var wy = (int) ((fy - top) * 256);
+        var x0 = Math.min(Math.max(left, 0), w - 1);
+        var x1 = Math.min(Math.max(left + 1, 0), w - 1);
+        var y0 = Math.min(Math.max(top, 0), h - 1);
+        var y1 = Math.min(Math.max(top + 1, 0), h - 1);
+        var stride = level.stride();
+        if (cache != null && ((x0 ^ x1 | y0 ^ y1) & ~3) == 0) {
+            // the whole footprint lies in one block
+            var texels = cache.texels;
+            var offset = level.decodedBlock(layout.index(x0, y0, stride), cache) + (y0 & 3) * 4;
+            var right = x1 - x0;
+            var below = (y1 - y0) * 4;
+            return lerp(
+                    lerp(texels[offset + (x0 & 3)], texels[offset + (x0 & 3) + right], wx),
+                    lerp(texels[offset + below + (x0 & 3)], texels[offset + below + (x0 & 3) + right], wx),
+                    wy
+            );
+        }
+        return lerp(
+                lerp(level.texel(layout.index(x0, y0, stride), cache), level.texel(layout.index(x1, y0, stride), cache), wx),
+                lerp(level.texel(layout.index(x0, y1, stride), cache), level.texel(layout.index(x1, y1, stride), cache), wx),
+                wy
+        );
+    }
+
+    /**
+     * Blends ARGB colors channel by channel.
+     *
+     * @param weight weight of {@code b} in 1/256
+     */
+    private static int lerp(int a, int b, int weight) {
+        var result = 0;
+        for (var shift = 0; shift < 32; shift += 8) {
+            var from = a >>> shift & 0xFF;
+            var to = b >>> shift & 0xFF;
+            result |= (from + ((to - from) * weight >> 8)) << shift;
+        }
+        return result;
+    }
+
+    private static TextureMap downsample(TextureMap map) {
+        var sourceW = map.w();
+        var sourceH = map.h();
+        var w = Math.max(sourceW >> 1, 1);
+        var h = Math.max(sourceH >> 1, 1);
+        var source = map.pixels();
+        var pixels = new int[w * h];
+        IntStream.range(0, (h + ROWS_PER_TASK - 1) / ROWS_PER_TASK).parallel().forEach(band -> {
+            for (var y = band * ROWS_PER_TASK; y < Math.min(h, (band + 1) * ROWS_PER_TASK); y++) {
+                var top = 2 * y * sourceW;
+                var bottom = Math.min(2 * y + 1, sourceH - 1) * sourceW;
+                for (var x = 0; x < w; x++) {
+                    var left = 2 * x;
+                    var right = Math.min(left + 1, sourceW - 1);
+                    pixels[y * w + x] = average(source[top + left], source[top + right],
+                            source[bottom + left], source[bottom + right]);
+                }
+            }
+        });
+        return new TextureMap(w, h, pixels);
+    }
+
+    private static int average(int a, int b, int c, int d) {
+        var result = 0;
+        for (var shift = 0; shift < 32; shift += 8) {
+            var sum = (a >>> shift & 0xFF) + (b >>> shift & 0xFF) + (c >>> shift & 0xFF) + (d >>> shift & 0xFF);
+            result |= (sum + 2 >> 2) << shift;
+        }
+        return result;
+    }
+
+    /**
+     * Mip level with texels in the layout of the texture. Block compressed levels keep encoded blocks
+     * instead of texels.
+     */
+    record Level(int w, int h, int stride, int[] texels, long[] blocks, BlockFormat format, int id) {
+
+        static Level of(TextureMap map, TextureLayout layout, BlockFormat format) {
+            var w = map.w();
+            var h = map.h();
+            var stride = layout.stride(w);
+            if (layout == TextureLayout.ROW_MAJOR)
+                return new Level(w, h, stride, map.pixels(), null, null, 0);
+
+            var source = map.pixels();
+            if (layout == TextureLayout.BLOCK_COMPRESSED)
+                return compressed(w, h, stride, source, layout.size(w, h) / BlockFormat.BLOCK_TEXELS, format);
+
+            var texels = new int[layout.size(w, h)];
+            IntStream.range(0, (h + ROWS_PER_TASK - 1) / ROWS_PER_TASK).parallel().forEach(band -> {
+                for (var y = band * ROWS_PER_TASK; y < Math.min(h, (band + 1) * ROWS_PER_TASK); y++)
+                    for (var x = 0; x < w; x++)
+                        texels[layout.index(x, y, stride)] = source[y * w + x];
+            });
+            return new Level(w, h, stride, texels, null, null, 0);
+        }
+
+        /**
+         * Encodes blocks concurrently. Padding texels of partial blocks repeat the last row and column,
+         * so they do not skew endpoints.
+         */
+        private static Level compressed(int w, int h, int stride, int[] source, int blockCount, BlockFormat format) {
+            var tilesW = stride / BlockFormat.BLOCK_TEXELS;
+            var blocks = new long[blockCount * format.longsPerBlock()];
+            IntStream.range(0, blockCount).parallel().forEach(block -> {
+                var blockTexels = new int[BlockFormat.BLOCK_TEXELS];
+                var left = block % tilesW * 4;
+                var top = block / tilesW * 4;
+                for (var i = 0; i < BlockFormat.BLOCK_TEXELS; i++) {
+                    var x = Math.min(left + (i & 3), w - 1);
+                    var y = Math.min(top + (i >> 2), h - 1);
+                    blockTexels[i] = source[y * w + x];
+                }
+                format.encode(blockTexels, blocks, block * format.longsPerBlock());
+            });
+            return new Level(w, h, stride, null, blocks, format, LEVEL_IDS.incrementAndGet());
+        }
+
+        /**
+         * @param cache blocks decoded by the calling thread, only used by block compressed levels
+         */
+        int texel(int index, BlockCache cache) {
+            if (blocks == null)
+                return texels[index];
+            return cache.texels[decodedBlock(index, cache) + (index & BlockFormat.BLOCK_TEXELS - 1)];
+        }
+
+        /**
+         * Decodes the block of a texel into the cache unless it is there already.
+         *
+         * @return offset of the first texel of the block in {@link BlockCache#texels}
+         */
+        int decodedBlock(int index, BlockCache cache) {
+            var block = index / BlockFormat.BLOCK_TEXELS;
+            var offset = cache.offset(id, block);
+            if (offset >= 0)
+                return offset;
+            format.decode(blocks, block * format.longsPerBlock(), cache.texels, ~offset);
+            return ~offset;
+        }
+
+        TextureMap toMap(TextureLayout layout) {
+            if (layout == TextureLayout.ROW_MAJOR)
+                return new TextureMap(w, h, texels);
+
+            var cache = blocks != null ? new BlockCache() : null;
+            var pixels = new int[w * h];
+            for (var y = 0; y < h; y++)
+                for (var x = 0; x < w; x++)
+                    pixels[y * w + x] = texel(layout.index(x, y, stride), cache);
+            return new TextureMap(w, h, pixels);
+        }
+    }
+
+    /**
+     * Direct-mapped cache of decoded blocks of one thread. A bilinear footprint mostly stays in one block
+     * and neighbouring pixels share blocks, so blocks are decoded whole once instead of texel by texel.
+     * Slots cover a few rows of blocks, enough for the previous scanline to still be cached.
+     */
+    static final class BlockCache {
+
+        private static final int SLOT_BITS = 10;
+
+        private static final int SLOTS = 1 << SLOT_BITS;
+
+        private final long[] keys = new long[SLOTS];
+
+        final int[] texels = new int[SLOTS * BlockFormat.BLOCK_TEXELS];
+
+        BlockCache() {
+            Arrays.fill(keys, -1);
+        }
+
+        /**
+         * @return offset of the decoded texels of the block, or its bitwise complement when the slot
+         * was taken over and the block has to be decoded into it
+         */
+        int offset(int level, int block) {
+            var key = (long) level << 32 | block;
+            // Fibonacci hashing, so blocks of one column in consecutive block rows do not share a slot
+            var slot = (block + level) * 0x9E3779B9 >>> Integer.SIZE - SLOT_BITS;
+            var offset = slot * BlockFormat.BLOCK_TEXELS;
+            if (keys[slot] == key)
+                return offset;
+            keys[slot] = key;
+            return ~offset;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.morka.cga.viewer.texture;
+
+public enum TextureFilter {
+    /**
+     * Closest texel of the full resolution map.
+     */
+    NEAREST,
+    /**
+     * Four closest texels of the mip level closest to the pixel footprint.
+     */
+    BILINEAR,
+    /**
+     * Bilinear samples of the two mip levels around the pixel footprint, blended by the fractional level.
+     */
+    TRILINEAR
+}
@@ -0,0 +1,60 @@
+package com.morka.cga.viewer.texture;
+
+/**
+ * Order of texels in memory.
+ */
+public enum TextureLayout {
+    /**
+     * Rows one after another.
+     */
+    ROW_MAJOR,
+    /**
+     * 4x4 texel tiles, each filling one 64 byte cache line, in row-major order of tiles.
+     * Texels close in both directions share a line, so sampling along any direction misses less often.
+     */
+    TILED,
+    /**
+     * Tiles of {@link #TILED} encoded into 4 or 8 bits per texel, see {@link BlockFormat}.
+     * Texels are decoded when sampled. Encoding is lossy.
+     */
+    BLOCK_COMPRESSED;
+
+    private static final int TILE_BITS = 2;
+
+    private static final int TILE_MASK = (1 << TILE_BITS) - 1;
+
+    /**
+     * @param w width in texels
+     * @return distance between starts of consecutive rows, of texels or of tiles
+     */
+    int stride(int w) {
+        return switch (this) {
+            case ROW_MAJOR -> w;
+            case TILED, BLOCK_COMPRESSED -> tiles(w) << 2 * TILE_BITS;
+        };
+    }
+
+    /**
+     * @return number of texels of a map of the size, partial tiles are padded
+     */
+    int size(int w, int h) {
+        return switch (this) {
+            case ROW_MAJOR -> w * h;
+            case TILED, BLOCK_COMPRESSED -> stride(w) * tiles(h);
+        };
+    }
+
+    int index(int x, int y, int stride) {
+        return switch (this) {
+            case ROW_MAJOR -> y * stride + x;
+            case TILED, BLOCK_COMPRESSED -> (y >> TILE_BITS) * stride
+                    + (x >> TILE_BITS << 2 * TILE_BITS)
+                    + ((y & TILE_MASK) << TILE_BITS)
+                    + (x & TILE_MASK);
+        };
+    }
+
+    private static int tiles(int texels) {
+        return (texels + TILE_MASK) >> TILE_BITS;
+    }
+}
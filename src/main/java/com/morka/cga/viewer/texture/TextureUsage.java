@@ -0,0 +1,80 @@
+package com.morka.cga.viewer.texture;
+
+/**
+ * What the channels of a map hold, which decides how {@link FloatTexture} decodes them.
+ */
+public enum TextureUsage {
+    /**
+     * Base color with gamma encoded channels, decoded to linear ones.
+     */
+    ALBEDO,
+    /**
+     * Normals with components packed into [0, 1], expanded to [-1, 1]. Normals of coarser mip levels are
+     * renormalized, averaging shortens them.
+     */
+    NORMAL,
+    /**
+     * Linear values such as metallic, roughness and ambient occlusion, kept in [0, 1].
+     */
+    DATA;
+
+    private static final float GAMMA = 2.2f;
+
+    private static final float[] GAMMA_TO_LINEAR = new float[256];
+
+    private static final float[] UNIT = new float[256];
+
+    static {
+        for (var i = 0; i < 256; i++) {
+            GAMMA_TO_LINEAR[i] = (float) Math.pow(i / 255f, GAMMA);
+            UNIT[i] = i / 255f;
+        }
+    }
+
+    /**
+     * Writes the red, green and blue channels of the texel.
+     *
+     * @param baseLevel whether the texel is of the full resolution map
+     */
+    void decode(int argb, float[] out, boolean baseLevel) {
+        out[0] = 0;
+        out[1] = 0;
+        out[2] = 0;
+        accumulate(argb, 1, out, baseLevel);
+    }
+
+    /**
+     * Adds the weighted red, green and blue channels of the texel, filters decode texels one at a time
+     * so they weight linear values.
+     *
+     * @param baseLevel whether the texel is of the full resolution map
+     */
+    void accumulate(int argb, float weight, float[] out, boolean baseLevel) {
+        var red = argb >> 16 & 0xFF;
+        var green = argb >> 8 & 0xFF;
+        var blue = argb & 0xFF;
+        switch (this) {
+            case ALBEDO -> {
+                out[0] += GAMMA_TO_LINEAR[red] * weight;
+                out[1] += GAMMA_TO_LINEAR[green] * weight;
+                out[2] += GAMMA_TO_LINEAR[blue] * weight;
+            }
+            case NORMAL -> {
+                var x = UNIT[red] * 2 - 1;
+                var y = UNIT[green] * 2 - 1;
+                var z = UNIT[blue] * 2 - 1;
+                var length = baseLevel ? 1 : (float) Math.sqrt(x * x + y * y + z * z);
+                if (length == 0)
+                    length = 1;
+                out[0] += x / length * weight;
+                out[1] += y / length * weight;
+                out[2] += z / length * weight;
+            }
+            case DATA -> {
+                out[0] += UNIT[red] * weight;
+                out[1] += UNIT[green] * weight;
+                out[2] += UNIT[blue] * weight;
+            }
+        }
+    }
+}
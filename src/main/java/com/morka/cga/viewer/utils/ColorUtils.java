@@ -19,25 +19,32 @@ public final class ColorUtils {
     }
 
     public static int toArgbWithClamp(Vector3D color) {
-        var red = (int) (Math.min(color.x(), 1) * 255);
-        var green = (int) (Math.min(color.y(), 1) * 255);
-        var blue = (int) (Math.min(color.z(), 1) * 255);
+        return toArgbWithClamp(color.x(), color.y(), color.z());
+    }
+
+    public static int toArgbWithClamp(float r, float g, float b) {
+        var red = (int) (Math.min(r, 1) * 255);
+        var green = (int) (Math.min(g, 1) * 255);
+        var blue = (int) (Math.min(b, 1) * 255);
         return 255 << 24 | red << 16 | green << 8 | blue;
     }
 
     public static Vector3D toVector(int pixel) {
-        int red = (pixel >> 16) & 0xff;
-        int green = (pixel >> 8) & 0xff;
-        int blue = (pixel) & 0xff;
-        return new Vector3D((float) red / 255f, (float) green / 255f, (float) blue / 255f);
+        return new Vector3D(channel(pixel, 16), channel(pixel, 8), channel(pixel, 0));
     }
 
     public static Vector4D toVector4(int pixel) {
-        int alpha = (pixel >> 24) & 0xff;
-        int red = (pixel >> 16) & 0xff;
-        int green = (pixel >> 8) & 0xff;
-        int blue = (pixel) & 0xff;
-        return new Vector4D((float) alpha / 255f, (float) red / 255f, (float) green / 255f, (float) blue / 255f);
+        return new Vector4D(channel(pixel, 24), channel(pixel, 16), channel(pixel, 8), channel(pixel, 0));
+    }
+
+    /**
+     * Gets a channel of a packed color.
+     *
+     * @param shift 24 for alpha, 16 for red, 8 for green and 0 for blue
+     * @return the channel from 0 to 1
+     */
+    public static float channel(int pixel, int shift) {
+        return (float) ((pixel >> shift) & 0xff) / 255f;
     }
 
     public static Vector3D toVector(Color color) {
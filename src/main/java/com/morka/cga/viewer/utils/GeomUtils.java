@@ -1,15 +1,11 @@
 package com.morka.cga.viewer.utils;
 
-import com.morka.cga.parser.model.Face;
-import com.morka.cga.parser.model.FaceElement;
-import com.morka.cga.parser.model.Vertex;
-import com.morka.cga.parser.model.VertexNormal;
-import com.morka.cga.parser.model.VertexTexture;
+import com.morka.cga.parser.model.IndexedMesh;
 import com.morka.cga.viewer.model.Vector2D;
 import com.morka.cga.viewer.model.Vector3D;
 import com.morka.cga.viewer.model.Vector4D;
 
-import java.util.List;
+import java.util.stream.IntStream;
 
 public final class GeomUtils {
 
@@ -17,44 +13,98 @@ public final class GeomUtils {
         throw new AssertionError();
     }
 
-    public static Vector3D getNormal(Face face) {
-        var elements = face.faceElements();
-        var v1 = vector3D(elements[0].getVertex());
-        var v2 = vector3D(elements[1].getVertex());
-        var v3 = vector3D(elements[2].getVertex());
+    public static Vector3D getNormal(float[] positions, int first, int second, int third) {
+        var v1 = vector3D(positions, first);
+        var v2 = vector3D(positions, second);
+        var v3 = vector3D(positions, third);
         return v2.subtract(v1).cross(v3.subtract(v1)).normalize();
     }
 
-    public static Vector3D getNormalForVertex(FaceElement element, List<Face> faces, boolean forceCalculation) {
-        var shouldCalculateNormal = forceCalculation || element.getVertexNormal() == null;
-        if (shouldCalculateNormal) {
-            return faces.stream()
-                    .map(GeomUtils::getNormal)
-                    .reduce(Vector3D::add)
-                    .map(normal -> normal.divide(faces.size()))
-                    .orElseThrow(() ->
-                            new IllegalStateException("No faces for vertex with id=%s".formatted(element.getId())));
-        }
-        return vector3D(element.getVertexNormal());
+    /**
+     * Gets normal of every mesh vertex. Calculated normals are averages of normals of triangles sharing
+     * the position, so vertices split by texture seams stay smooth. Triangles around a position are taken
+     * from the mesh adjacency, so nothing is boxed on the way.
+     *
+     * @param mesh             mesh
+     * @param forceCalculation calculate normals even if the mesh has them
+     * @return x, y, z of normal per vertex
+     */
+    public static float[] getVertexNormals(IndexedMesh mesh, boolean forceCalculation) {
+        if (!forceCalculation && mesh.normals() != null)
+            return mesh.normals();
+
+        var positions = mesh.positions();
+        var indices = mesh.indices();
+        var faceNormals = new float[mesh.triangleCount() * 3];
+        IntStream.range(0, mesh.triangleCount()).parallel().forEach(triangle -> {
+            var first = indices[triangle * 3] * 3;
+            var second = indices[triangle * 3 + 1] * 3;
+            var third = indices[triangle * 3 + 2] * 3;
+            var ax = positions[second] - positions[first];
+            var ay = positions[second + 1] - positions[first + 1];
+            var az = positions[second + 2] - positions[first + 2];
+            var bx = positions[third] - positions[first];
+            var by = positions[third + 1] - positions[first + 1];
+            var bz = positions[third + 2] - positions[first + 2];
+            var x = ay * bz - by * az;
+            var y = az * bx - bz * ax;
+            var z = ax * by - bx * ay;
+            var length = (float) Math.sqrt(x * x + y * y + z * z);
+            faceNormals[triangle * 3] = x / length;
+            faceNormals[triangle * 3 + 1] = y / length;
+            faceNormals[triangle * 3 + 2] = z / length;
+        });
+
+        var offsets = mesh.adjacency().offsets();
+        var faces = mesh.adjacency().faces();
+        var positionNormals = new float[mesh.positionCount() * 3];
+        IntStream.range(0, mesh.positionCount()).parallel().forEach(position -> {
+            var x = 0f;
+            var y = 0f;
+            var z = 0f;
+            var count = 0;
+            for (var i = offsets[position]; i < offsets[position + 1]; i++) {
+                var face = faces[i] * 3;
+                if (Float.isNaN(faceNormals[face]))
+                    continue;
+                x += faceNormals[face];
+                y += faceNormals[face + 1];
+                z += faceNormals[face + 2];
+                count++;
+            }
+            if (count > 0) {
+                positionNormals[position * 3] = x / count;
+                positionNormals[position * 3 + 1] = y / count;
+                positionNormals[position * 3 + 2] = z / count;
+            }
+        });
+
+        var positionIds = mesh.positionIds();
+        var normals = new float[mesh.vertexCount() * 3];
+        IntStream.range(0, mesh.vertexCount()).parallel()
+                .forEach(vertex -> System.arraycopy(positionNormals, positionIds[vertex] * 3, normals, vertex * 3, 3));
+        return normals;
     }
 
     public static Vector3D mix(Vector3D i0, Vector3D i1, float t) {
         return i1.mul(t).add(i0.mul(1 - t));
     }
 
-    public static Vector3D vector3D(Vertex vertex) {
-        return new Vector3D(vertex.getX(), vertex.getY(), vertex.getZ());
+    public static float mix(float i0, float i1, float t) {
+        return i1 * t + i0 * (1 - t);
     }
 
-    public static Vector3D vector3D(VertexNormal vertex) {
-        return new Vector3D(vertex.getX(), vertex.getY(), vertex.getZ());
+    public static Vector3D vector3D(float[] items, int index) {
+        return new Vector3D(items[index * 3], items[index * 3 + 1], items[index * 3 + 2]);
     }
 
-    public static Vector4D vector4D(Vertex vertex) {
-        return new Vector4D(vertex.getX(), vertex.getY(), vertex.getZ(), vertex.getW());
+    public static Vector4D vector4D(float[] positions, int index) {
+        return new Vector4D(positions[index * 3], positions[index * 3 + 1], positions[index * 3 + 2], 1f);
     }
 
-    public static Vector2D vector2D(VertexTexture texture) {
-        return new Vector2D(texture.getU(), texture.getV());
+    public static Vector2D vector2D(float[] uvs, int index) {
+        if (uvs == null)
+            return new Vector2D(0, 0);
+        return new Vector2D(uvs[index * 2], uvs[index * 2 + 1]);
     }
 }
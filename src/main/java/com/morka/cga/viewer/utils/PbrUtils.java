@@ -17,9 +17,20 @@ public final class PbrUtils {
      * @return ggx distribution
      */
     public static float distributionGGX(Vector3D N, Vector3D H, float roughness) {
+        return distributionGGX(N.dot(H), roughness);
+    }
+
+    /**
+     * Calculates ggx distribution.
+     *
+     * @param nDotH     dot product of normal and halfway vectors
+     * @param roughness roughness
+     * @return ggx distribution
+     */
+    public static float distributionGGX(float nDotH, float roughness) {
         float a = roughness * roughness;
         float a2 = a * a;
-        float nDotH = Math.max(N.dot(H), 0.0f);
+        nDotH = Math.max(nDotH, 0.0f);
         float nDotH2 = nDotH * nDotH;
 
         float denominator = (nDotH2 * (a2 - 1.0f) + 1.0f);
@@ -54,8 +65,20 @@ public final class PbrUtils {
      * @return geometry smith
      */
     public static float geometrySmith(Vector3D N, Vector3D V, Vector3D L, float roughness) {
-        float nDotV = Math.max(N.dot(V), 0.0f);
-        float nDotL = Math.max(N.dot(L), 0.0f);
+        return geometrySmith(N.dot(V), N.dot(L), roughness);
+    }
+
+    /**
+     * Calculates geometry smith.
+     *
+     * @param nDotV     dot product of normal and view vectors
+     * @param nDotL     dot product of normal and light vectors
+     * @param roughness roughness coefficient
+     * @return geometry smith
+     */
+    public static float geometrySmith(float nDotV, float nDotL, float roughness) {
+        nDotV = Math.max(nDotV, 0.0f);
+        nDotL = Math.max(nDotL, 0.0f);
         float ggx2 = geometrySchlickGGX(nDotV, roughness);
         float ggx1 = geometrySchlickGGX(nDotL, roughness);
 
@@ -63,8 +86,19 @@ public final class PbrUtils {
     }
 
     public static Vector3D fresnelSchlick(float cosTheta, Vector3D f0) {
-        float clampedOneMinusCos = 1.0f - cosTheta;
-        float pow = (float) Math.pow(clampedOneMinusCos, 5.0f);
+        float pow = schlickWeight(cosTheta);
         return f0.add(f0.subtractFrom(1.0f).mul(pow));
     }
+
+    /**
+     * Calculates the weight of the reflectance at grazing angle in Fresnel-Schlick, the same for all channels,
+     * so reflectance of a channel is {@code f0 + (1 - f0) * weight}.
+     *
+     * @param cosTheta cosine of the angle between halfway and view vectors
+     * @return weight of the grazing reflectance
+     */
+    public static float schlickWeight(float cosTheta) {
+        float clampedOneMinusCos = 1.0f - cosTheta;
+        return (float) Math.pow(clampedOneMinusCos, 5.0f);
+    }
 }
@@ -1,10 +1,15 @@
 module com.morka.cga.viewer {
     requires javafx.controls;
     requires javafx.fxml;
-    requires com.morka.cga.parser;
+    requires java.desktop;
+    requires transitive com.morka.cga.parser;
     requires static lombok;
+    requires static jdk.incubator.vector;
 
     exports com.morka.cga.viewer;
     exports com.morka.cga.viewer.controller;
+    exports com.morka.cga.viewer.model;
+    exports com.morka.cga.viewer.render;
+    exports com.morka.cga.viewer.texture;
     opens com.morka.cga.viewer.controller to javafx.fxml;
 }
@@ -0,0 +1,32 @@
+package model;
+
+import com.morka.cga.viewer.model.BoundingSphere;
+import com.morka.cga.viewer.model.Vector3D;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class BoundingSphereTest {
+
+    @Test
+    public void testCenteredAtBoundsCenter() {
+        var sphere = BoundingSphere.of(new float[]{
+                1, 2, 3,
+                5, 2, 3,
+                1, 8, 3,
+                3, 5, 7
+        });
+
+        assertEquals(new Vector3D(3, 5, 5), sphere.center());
+        // the farthest corners are 2 away along x, 3 along y and 2 along z
+        assertEquals((float) Math.sqrt(17), sphere.radius(), 1e-6f);
+    }
+
+    @Test
+    public void testEmpty() {
+        var sphere = BoundingSphere.of(new float[0]);
+
+        assertEquals(Vector3D.from(0), sphere.center());
+        assertEquals(0, sphere.radius());
+    }
+}
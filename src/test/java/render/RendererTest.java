@@ -0,0 +1,376 @@
+package render;
+
+import com.morka.cga.parser.model.MeshBatch;
+import com.morka.cga.viewer.model.Vector3D;
+import com.morka.cga.viewer.model.Vector4D;
+import com.morka.cga.viewer.render.FrameBuffer;
+import com.morka.cga.viewer.render.RenderSettings;
+import com.morka.cga.viewer.render.Renderer;
+import com.morka.cga.viewer.render.Scene;
+import com.morka.cga.viewer.render.Shading;
+import com.morka.cga.viewer.render.SurfaceMaps;
+import com.morka.cga.viewer.render.ToneMapping;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.morka.cga.viewer.utils.MatrixUtils.buildProjectionMatrix;
+import static com.morka.cga.viewer.utils.MatrixUtils.buildViewportMatrix;
+import static com.morka.cga.viewer.utils.MatrixUtils.getScaleMatrix;
+import static com.morka.cga.viewer.utils.MatrixUtils.getViewMatrix;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RendererTest {
+
+    private static final int SIZE = 256;
+
+    private static final int BACKGROUND = 0;
+
+    @Test
+    public void testAdjacentTrianglesLeaveNoGaps() {
+        var cells = 24;
+        var random = new Random(42);
+        var grid = new float[cells + 1][cells + 1][];
+        for (var i = 0; i <= cells; i++) {
+            for (var j = 0; j <= cells; j++) {
+                // inner vertices are moved off the pixel grid, so edges cross pixels at arbitrary slopes
+                var isInner = i > 0 && j > 0 && i < cells && j < cells;
+                var jitter = isInner ? 0.6f / cells : 0;
+                grid[i][j] = new float[]{
+                        -1 + 2f * i / cells + (random.nextFloat() - 0.5f) * jitter,
+                        -1 + 2f * j / cells + (random.nextFloat() - 0.5f) * jitter,
+                        0
+                };
+            }
+        }
+        var positions = new float[cells * cells * 18];
+        var offset = 0;
+        for (var i = 0; i < cells; i++) {
+            for (var j = 0; j < cells; j++) {
+                for (var corner : new float[][]{
+                        grid[i][j], grid[i + 1][j], grid[i][j + 1],
+                        grid[i + 1][j], grid[i + 1][j + 1], grid[i][j + 1]}) {
+                    System.arraycopy(corner, 0, positions, offset, 3);
+                    offset += 3;
+                }
+            }
+        }
+
+        var scene = new Scene(
+                getScaleMatrix(Vector3D.from(1)),
+                new Vector3D(0, 0, 4),
+                new Vector3D[]{new Vector3D(0, 0, 4)},
+                new SurfaceMaps[]{SurfaceMaps.NONE},
+                RenderSettings.DEFAULT.toBuilder().shading(Shading.FLAT).background(BACKGROUND).build()
+        );
+        var frame = new FrameBuffer(SIZE, SIZE);
+        frame.clear(BACKGROUND);
+        new Renderer(SIZE, SIZE).render(scene, List.of(new MeshBatch(positions, null, null, 0)), frame);
+
+        var pixels = frame.pixels();
+        var minX = SIZE;
+        var minY = SIZE;
+        var maxX = -1;
+        var maxY = -1;
+        for (var y = 0; y < SIZE; y++) {
+            for (var x = 0; x < SIZE; x++) {
+                if (pixels[x + y * SIZE] != BACKGROUND) {
+                    minX = Math.min(minX, x);
+                    minY = Math.min(minY, y);
+                    maxX = Math.max(maxX, x);
+                    maxY = Math.max(maxY, y);
+                }
+            }
+        }
+        var gaps = 0;
+        for (var y = minY; y <= maxY; y++)
+            for (var x = minX; x <= maxX; x++)
+                if (pixels[x + y * SIZE] == BACKGROUND)
+                    gaps++;
+        assertTrue(maxX - minX > SIZE / 4, "grid is drawn");
+        assertEquals(0, gaps);
+    }
+
+    @Test
+    public void testDeferredShadingMatchesForwardShading() {
+        // overlapping spheres drawn back to front, so most pixels are covered several times
+        var positions = new float[0];
+        for (var sphere = 0; sphere < 3; sphere++)
+            positions = concat(positions, sphere(0.4f * sphere - 0.4f, 0, -0.5f * sphere, 0.6f));
+        var batches = List.of(new MeshBatch(positions, null, null, 0));
+        for (var shading : Shading.values()) {
+            var settings = RenderSettings.DEFAULT.toBuilder().shading(shading).background(BACKGROUND).build();
+            var forward = render(batches, settings);
+            var deferred = render(batches, settings.toBuilder().deferredShading(true).build());
+            var covered = Arrays.stream(forward.pixels()).filter(pixel -> pixel != BACKGROUND).count();
+            assertTrue(covered > SIZE * SIZE / 8, "spheres are drawn");
+            assertArrayEquals(forward.depth(), deferred.depth(), shading + " depth");
+            assertArrayEquals(forward.pixels(), deferred.pixels(), shading + " pixels");
+        }
+    }
+
+    @Test
+    public void testOcclusionCullingDropsOnlyHiddenTriangles() {
+        // a quad in front of a sphere, drawn before it
+        var quad = new float[]{-1, -1, 1, 1, -1, 1, -1, 1, 1, 1, -1, 1, 1, 1, 1, -1, 1, 1};
+        var hidden = sphere(0, 0, -1, 0.5f);
+        var visible = sphere(1.5f, 0, -1, 0.5f);
+        var batches = List.of(new MeshBatch(concat(quad, concat(hidden, visible)), null, null, 0));
+        var settings = RenderSettings.DEFAULT.toBuilder().background(BACKGROUND).build();
+        var culled = new FrameBuffer(SIZE, SIZE);
+        culled.clear(BACKGROUND);
+        var stats = new Renderer(SIZE, SIZE).render(scene(settings), batches, culled);
+        var drawn = render(batches, settings.toBuilder().occlusionCulling(false).build());
+
+        assertArrayEquals(drawn.depth(), culled.depth());
+        assertArrayEquals(drawn.pixels(), culled.pixels());
+        var occluded = stats.occluded() + stats.occludedInClusters();
+        // the quad is drawn first, back faces of the spheres are culled by setup
+        var hiddenFrontFaces = hidden.length / 9 / 2;
+        assertTrue(occluded >= hiddenFrontFaces, occluded + " of " + stats.binned() + " occluded");
+        assertTrue(stats.drawn() > 2, "visible sphere is drawn");
+    }
+
+    @Test
+    public void testGeometryBehindCameraIsClippedAway() {
+        // a floor running from far ahead to behind the camera, and the part of it in front of the camera
+        var floor = floor(50);
+        var front = floor(2);
+        var behind = sphere(0, 0, 8, 0.5f);
+        var settings = RenderSettings.DEFAULT.toBuilder().background(BACKGROUND).build();
+        var clipped = new FrameBuffer(SIZE, SIZE);
+        clipped.clear(BACKGROUND);
+        var stats = new Renderer(SIZE, SIZE).render(scene(settings),
+                List.of(new MeshBatch(floor, null, null, 0), new MeshBatch(behind, null, null, 0)), clipped);
+        var expected = render(List.of(new MeshBatch(front, null, null, 0)), settings);
+
+        var covered = Arrays.stream(expected.pixels()).filter(pixel -> pixel != BACKGROUND).count();
+        assertTrue(covered > SIZE * SIZE / 8, "floor is drawn");
+        assertArrayEquals(coverage(expected), coverage(clipped));
+        assertEquals(behind.length / 9, stats.culled(), "sphere behind the camera is culled");
+    }
+
+    @Test
+    public void testSurfacesAreLitAtTheirWorldPositions() {
+        // a quad facing the camera, diffuse light peaks where it is straight below the light
+        var positions = new float[]{-4, -4, 0, 4, -4, 0, -4, 4, 0, 4, -4, 0, 4, 4, 0, -4, 4, 0};
+        var camera = new Vector3D(0, 0, 4);
+        var light = new Vector3D(1.5f, 0.5f, 1);
+        var settings = RenderSettings.DEFAULT.toBuilder()
+                .shading(Shading.PHONG)
+                .specularIntensity(Vector3D.from(0))
+                .background(BACKGROUND)
+                .build();
+        for (var vectorShading : new boolean[]{false, true}) {
+            var scene = new Scene(getScaleMatrix(Vector3D.from(1)), camera, new Vector3D[]{light},
+                    new SurfaceMaps[]{SurfaceMaps.NONE}, settings.toBuilder().vectorShading(vectorShading).build());
+            var frame = new FrameBuffer(SIZE, SIZE);
+            frame.clear(BACKGROUND);
+            new Renderer(SIZE, SIZE).render(scene, List.of(new MeshBatch(positions, null, null, 0)), frame);
+
+            var pixels = frame.pixels();
+            var brightest = Arrays.stream(pixels).map(pixel -> pixel >> 8 & 0xFF).max().orElseThrow();
+            var sumX = 0L;
+            var sumY = 0L;
+            var count = 0;
+            for (var i = 0; i < pixels.length; i++) {
+                if ((pixels[i] >> 8 & 0xFF) == brightest) {
+                    sumX += i % SIZE;
+                    sumY += i / SIZE;
+                    count++;
+                }
+            }
+            var clip = buildProjectionMatrix(SIZE, SIZE, Renderer.FIELD_OF_VIEW, 0.1f, 100)
+                    .multiply(getViewMatrix(camera))
+                    .multiply(new Vector4D(light.x(), light.y(), 0, 1));
+            var expected = buildViewportMatrix(SIZE, SIZE).multiply(clip.divide(clip.w()));
+            // pixels are sampled at their centers
+            assertEquals(expected.x() - 0.5f, (float) sumX / count, 1.5f, "peak x");
+            assertEquals(expected.y() - 0.5f, (float) sumY / count, 1.5f, "peak y");
+        }
+    }
+
+    @Test
+    public void testShadingDoesNotAllocatePerPixel() {
+        // a quad filling the frame, so nearly all of the work is shading pixels
+        var positions = new float[]{-4, -4, 0, 4, -4, 0, -4, 4, 0, 4, -4, 0, 4, 4, 0, -4, 4, 0};
+        var batches = List.of(new MeshBatch(positions, null, null, 0));
+        var renderer = new Renderer(SIZE, SIZE);
+        var frame = new FrameBuffer(SIZE, SIZE);
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        // a single worker runs all tasks of the renderer's parallel streams, so its counter sees the whole frame
+        var pool = new ForkJoinPool(1);
+        try {
+            for (var shading : new Shading[]{Shading.PHONG, Shading.PBR}) {
+                for (var toneMapping : ToneMapping.values()) {
+                    var scene = new Scene(
+                            getScaleMatrix(Vector3D.from(1)),
+                            new Vector3D(0, 0, 3),
+                            new Vector3D[]{new Vector3D(1, 1, 3), new Vector3D(-1, 1, 3)},
+                            new SurfaceMaps[]{SurfaceMaps.NONE},
+                            RenderSettings.DEFAULT.toBuilder().shading(shading).toneMapping(toneMapping).build()
+                    );
+                    var allocated = pool.submit(() -> {
+                        var bytes = 0L;
+                        // the first frames run before the shading code is compiled
+                        for (var i = 0; i < 30; i++) {
+                            var before = threads.getCurrentThreadAllocatedBytes();
+                            frame.clear(BACKGROUND);
+                            renderer.render(scene, batches, frame);
+                            bytes = threads.getCurrentThreadAllocatedBytes() - before;
+                        }
+                        return bytes;
+                    }).join();
+                    assertTrue(frame.pixels()[SIZE * SIZE / 2 + SIZE / 2] != BACKGROUND, "quad is drawn");
+                    // setting up the frame allocates a few kilobytes, a single object per pixel would be megabytes
+                    assertTrue(allocated < SIZE * SIZE, shading + " with " + toneMapping + " allocates "
+                            + allocated + " bytes per frame of " + SIZE * SIZE + " pixels");
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testVectorShadingMatchesScalarShading() {
+        assertTrue(Renderer.isVectorShadingAvailable(), "tests run with jdk.incubator.vector");
+        var positions = concat(sphere(-0.5f, 0, 0, 0.8f), sphere(0.6f, 0.2f, -0.6f, 0.8f));
+        var batches = List.of(new MeshBatch(positions, null, null, 0));
+        for (var shading : new Shading[]{Shading.PHONG, Shading.PBR}) {
+            for (var toneMapping : ToneMapping.values()) {
+                var settings = RenderSettings.DEFAULT.toBuilder()
+                        .shading(shading)
+                        .toneMapping(toneMapping)
+                        .background(BACKGROUND)
+                        .build();
+                var scalar = render(batches, settings);
+                var vector = render(batches, settings.toBuilder().vectorShading(true).build());
+                var covered = Arrays.stream(scalar.pixels()).filter(pixel -> pixel != BACKGROUND).count();
+                assertTrue(covered > SIZE * SIZE / 8, "spheres are drawn");
+                assertArrayEquals(scalar.depth(), vector.depth(), shading + " with " + toneMapping + " depth");
+                // vector lanes raise to powers in float, scalar shading in double
+                assertChannelsWithin(scalar.pixels(), vector.pixels(), 1, shading + " with " + toneMapping + " pixels");
+            }
+        }
+    }
+
+    @Test
+    public void testFramesDoNotDependOnThreadCount() {
+        // overlapping spheres spanning many tiles, drawn in an order where later triangles hide earlier ones
+        var positions = new float[0];
+        for (var sphere = 0; sphere < 4; sphere++)
+            positions = concat(positions, sphere(0.5f * sphere - 0.75f, 0.2f * sphere - 0.3f, -0.4f * sphere, 0.7f));
+        var batches = List.of(new MeshBatch(positions, null, null, 0));
+        var single = new ForkJoinPool(1);
+        var several = new ForkJoinPool(4);
+        try {
+            for (var deferredShading : new boolean[]{false, true}) {
+                var settings = RenderSettings.DEFAULT.toBuilder()
+                        .shading(Shading.PBR)
+                        .deferredShading(deferredShading)
+                        .background(BACKGROUND)
+                        .build();
+                // the renderer's parallel streams run on the pool its task is submitted to
+                var expected = single.submit(() -> render(batches, settings)).join();
+                var actual = several.submit(() -> render(batches, settings)).join();
+                var covered = Arrays.stream(expected.pixels()).filter(pixel -> pixel != BACKGROUND).count();
+                assertTrue(covered > SIZE * SIZE / 8, "spheres are drawn");
+                assertArrayEquals(expected.depth(), actual.depth(), "deferred " + deferredShading + " depth");
+                assertArrayEquals(expected.pixels(), actual.pixels(), "deferred " + deferredShading + " pixels");
+            }
+        } finally {
+            single.shutdown();
+            several.shutdown();
+        }
+    }
+
+    private static FrameBuffer render(List<MeshBatch> batches, RenderSettings settings) {
+        var frame = new FrameBuffer(SIZE, SIZE);
+        frame.clear(BACKGROUND);
+        new Renderer(SIZE, SIZE).render(scene(settings), batches, frame);
+        return frame;
+    }
+
+    private static Scene scene(RenderSettings settings) {
+        return new Scene(
+                getScaleMatrix(Vector3D.from(1)),
+                new Vector3D(0, 0, 4),
+                new Vector3D[]{new Vector3D(2, 2, 4), new Vector3D(-2, 1, 4)},
+                new SurfaceMaps[]{SurfaceMaps.NONE},
+                settings
+        );
+    }
+
+    /**
+     * Gets triangles of a UV sphere facing outwards.
+     */
+    private static float[] sphere(float x, float y, float z, float radius) {
+        var rings = 16;
+        var segments = 32;
+        var positions = new float[rings * segments * 18];
+        var offset = 0;
+        for (var ring = 0; ring < rings; ring++) {
+            for (var segment = 0; segment < segments; segment++) {
+                var corners = new float[4][];
+                for (var corner = 0; corner < 4; corner++) {
+                    var theta = Math.PI * (ring + corner / 2) / rings;
+                    var phi = 2 * Math.PI * (segment + corner % 2) / segments;
+                    corners[corner] = new float[]{
+                            x + radius * (float) (Math.sin(theta) * Math.cos(phi)),
+                            y + radius * (float) Math.cos(theta),
+                            z + radius * (float) (Math.sin(theta) * Math.sin(phi))
+                    };
+                }
+                for (var corner : new float[][]{
+                        corners[0], corners[1], corners[2], corners[1], corners[3], corners[2]}) {
+                    System.arraycopy(corner, 0, positions, offset, 3);
+                    offset += 3;
+                }
+            }
+        }
+        return positions;
+    }
+
+    private static float[] concat(float[] first, float[] second) {
+        var result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    /**
+     * Gets a quad facing up below the camera, from far ahead to the depth.
+     */
+    private static float[] floor(float z) {
+        return new float[]{
+                -50, -1, -50, -50, -1, z, 50, -1, -50,
+                50, -1, -50, -50, -1, z, 50, -1, z
+        };
+    }
+
+    private static void assertChannelsWithin(int[] expected, int[] actual, int tolerance, String message) {
+        assertEquals(expected.length, actual.length, message);
+        for (var i = 0; i < expected.length; i++) {
+            for (var shift = 0; shift < 32; shift += 8) {
+                var difference = Math.abs((expected[i] >>> shift & 0xFF) - (actual[i] >>> shift & 0xFF));
+                var pixel = i;
+                assertTrue(difference <= tolerance, () -> message + " differ at " + pixel + ": "
+                        + Integer.toHexString(expected[pixel]) + " and " + Integer.toHexString(actual[pixel]));
+            }
+        }
+    }
+
+    private static boolean[] coverage(FrameBuffer frame) {
+        var pixels = frame.pixels();
+        var coverage = new boolean[pixels.length];
+        for (var i = 0; i < pixels.length; i++)
+            coverage[i] = pixels[i] != BACKGROUND;
+        return coverage;
+    }
+}
@@ -0,0 +1,123 @@
+package texture;
+
+import com.morka.cga.parser.model.TextureMap;
+import com.morka.cga.parser.service.ObjFileParserBuilder;
+import com.morka.cga.viewer.texture.MipmappedTexture;
+import com.morka.cga.viewer.texture.TextureFilter;
+import com.morka.cga.viewer.texture.TextureLayout;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BlockCompressionTest {
+
+    private static final int RGB = 0x00FFFFFF;
+
+    private static final int ARGB = 0xFFFFFFFF;
+
+    private static final int RED_GREEN = 0x00FFFF00;
+
+    @Test
+    public void testColorMapsCompressToBc1() {
+        var map = load("Models/Pink Soldier/BaseColor Map.png");
+        assertCompressed(map, false, 8, RGB, 38);
+    }
+
+    @Test
+    public void testTransparentMapsCompressToBc3() {
+        // the bundled maps are opaque, metallic of the material ball becomes alpha of its base color
+        var color = load("Models/Material Ball/BaseColor Map.png");
+        var metallic = load("Models/Material Ball/MRAO Map.png").pixels();
+        var pixels = color.pixels().clone();
+        for (var i = 0; i < pixels.length; i++)
+            pixels[i] = metallic[i] << 8 & 0xFF000000 | pixels[i] & RGB;
+        assertCompressed(new TextureMap(color.w(), color.h(), pixels), false, 4, ARGB, 40);
+    }
+
+    @Test
+    public void testTangentSpaceNormalMapsCompressToBc5() {
+        // the background and a few texels of the bundled normal map face away, they are made flat
+        var map = load("Models/Pink Soldier/Normal Map.png");
+        var pixels = map.pixels().clone();
+        for (var i = 0; i < pixels.length; i++)
+            if ((pixels[i] & 0xFF) < 0x80)
+                pixels[i] = 0xFF8080FF;
+        // only red and green are stored, blue is derived from them
+        assertCompressed(new TextureMap(map.w(), map.h(), pixels), true, 4, RED_GREEN, 44);
+    }
+
+    @Test
+    public void testBc1RoundTrip() {
+        // endpoints and both colors between them are exact in RGB565
+        var palette = new int[]{0xFF000000, 0xFFFFFFFF, 0xFFAAAAAA, 0xFF555555};
+        var pixels = new int[16];
+        for (var i = 0; i < pixels.length; i++)
+            pixels[i] = palette[(i + i / 4) % palette.length];
+        var map = new TextureMap(4, 4, pixels);
+
+        var texture = MipmappedTexture.of(map, TextureLayout.BLOCK_COMPRESSED);
+        assertEquals(3 * Long.BYTES, texture.sizeBytes(), "one block per level");
+        assertEquals(0.0, meanSquaredError(map, texture, ARGB));
+    }
+
+    @Test
+    public void testBc4RoundTrip() {
+        // alpha of all eight steps of the ramp between 14 and 252, over an opaque red exact in RGB565
+        var pixels = new int[16];
+        for (var i = 0; i < pixels.length; i++)
+            pixels[i] = (14 + 34 * (i * 3 % 8)) << 24 | 0xFF0000;
+        var map = new TextureMap(4, 4, pixels);
+
+        var texture = MipmappedTexture.of(map, TextureLayout.BLOCK_COMPRESSED);
+        assertEquals(3 * 2 * Long.BYTES, texture.sizeBytes(), "alpha and color block per level");
+        assertEquals(0.0, meanSquaredError(map, texture, ARGB));
+    }
+
+    /**
+     * Compresses the map and compares it with the row-major chain in size and with the map in peak signal to noise.
+     *
+     * @param ratio    times the row-major chain is larger
+     * @param channels mask of channels the error is measured in
+     * @param minPsnr  lowest peak signal to noise ratio of the top level in decibels
+     */
+    private static void assertCompressed(TextureMap map, boolean normalMap, int ratio, int channels, double minPsnr) {
+        var rowMajor = MipmappedTexture.of(map, TextureLayout.ROW_MAJOR, normalMap);
+        var compressed = MipmappedTexture.of(map, TextureLayout.BLOCK_COMPRESSED, normalMap);
+        assertEquals(1.0 / ratio, (double) compressed.sizeBytes() / rowMajor.sizeBytes(), 1e-3);
+
+        var psnr = 10 * Math.log10(255 * 255 / meanSquaredError(map, compressed, channels));
+        assertTrue(psnr >= minPsnr, "PSNR of " + psnr + " dB");
+    }
+
+    /**
+     * Compares the top level of the texture with the map texel by texel.
+     */
+    private static double meanSquaredError(TextureMap map, MipmappedTexture texture, int channels) {
+        var w = map.w();
+        var h = map.h();
+        var error = 0.0;
+        var count = 0L;
+        for (var y = 0; y < h; y++) {
+            for (var x = 0; x < w; x++) {
+                // texel centers of the top level sample single texels
+                var actual = texture.sample((x + 0.5f) / w, 1 - (y + 0.5f) / h, -64, TextureFilter.BILINEAR);
+                var expected = map.at(x, y);
+                for (var shift = 0; shift < 32; shift += 8) {
+                    if ((channels >>> shift & 0xFF) == 0)
+                        continue;
+                    var difference = (actual >>> shift & 0xFF) - (expected >>> shift & 0xFF);
+                    error += difference * difference;
+                    count++;
+                }
+            }
+        }
+        return error / count;
+    }
+
+    private static TextureMap load(String path) {
+        return ObjFileParserBuilder.buildTextureParser().parse(new File(path));
+    }
+}
@@ -0,0 +1,84 @@
+package texture;
+
+import com.morka.cga.parser.model.TextureMap;
+import com.morka.cga.viewer.texture.MipmappedTexture;
+import com.morka.cga.viewer.texture.TextureFilter;
+import com.morka.cga.viewer.texture.TextureLayout;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MipmappedTextureTest {
+
+    private static final int BLACK = 0xFF000000;
+
+    private static final int WHITE = 0xFFFFFFFF;
+
+    @Test
+    public void testChainOfOddAndNonSquareMaps() {
+        // 5x3, 2x1, 1x1
+        var odd = MipmappedTexture.of(map(5, 3), TextureLayout.ROW_MAJOR);
+        assertEquals(3, odd.levelCount());
+        assertEquals((15 + 2 + 1) * Integer.BYTES, odd.sizeBytes());
+
+        // 8x2, 4x1, 2x1, 1x1
+        var wide = MipmappedTexture.of(map(8, 2), TextureLayout.ROW_MAJOR);
+        assertEquals(4, wide.levelCount());
+        assertEquals((16 + 4 + 2 + 1) * Integer.BYTES, wide.sizeBytes());
+
+        // 1x6, 1x3, 1x1
+        var tall = MipmappedTexture.of(map(1, 6), TextureLayout.ROW_MAJOR);
+        assertEquals(3, tall.levelCount());
+        assertEquals((6 + 3 + 1) * Integer.BYTES, tall.sizeBytes());
+    }
+
+    @Test
+    public void testLevelsAverageTexelsWithBoxFilter() {
+        var map = new TextureMap(4, 2, new int[]{
+                0xFF102030, 0xFF203040, 0x00000000, 0xFFFFFFFF,
+                0xFF304050, 0xFF405061, 0x80808080, 0x80808080
+        });
+        for (var layout : new TextureLayout[]{TextureLayout.ROW_MAJOR, TextureLayout.TILED}) {
+            var texture = MipmappedTexture.of(map, layout);
+            // texel centers of the 2x1 level, channels are rounded to nearest
+            assertEquals(0xFF283848, texture.sample(0.25f, 0.5f, -1, TextureFilter.BILINEAR), layout.name());
+            assertEquals(0x80808080, texture.sample(0.75f, 0.5f, -1, TextureFilter.BILINEAR), layout.name());
+        }
+
+        // the last column and row of an odd map are left out
+        var odd = MipmappedTexture.of(new TextureMap(3, 3, new int[]{
+                BLACK, WHITE, BLACK,
+                WHITE, WHITE, BLACK,
+                BLACK, BLACK, BLACK
+        }), TextureLayout.ROW_MAJOR);
+        assertEquals(0xFFBFBFBF, odd.sample(0.5f, 0.5f, 0, TextureFilter.BILINEAR));
+    }
+
+    @Test
+    public void testLodFromDerivatives() {
+        assertEquals(-8, MipmappedTexture.uvLod(1 / 256f, 0, 0, 1 / 256f), 1e-6f);
+        assertEquals(-2, MipmappedTexture.uvLod(0.25f, 0, 0, 0.125f), 1e-6f);
+        // the longer step along y wins, both derivatives of a step count
+        assertEquals(-1, MipmappedTexture.uvLod(0.1f, 0.1f, 0.3f, 0.4f), 1e-6f);
+    }
+
+    @Test
+    public void testTrilinearBlendsNeighbouringLevels() {
+        // 2x2 checker, the 1x1 level is gray
+        var texture = MipmappedTexture.of(new TextureMap(2, 2, new int[]{BLACK, WHITE, WHITE, BLACK}),
+                TextureLayout.ROW_MAJOR);
+        var u = 0.25f;
+        var v = 0.75f;
+
+        assertEquals(BLACK, texture.sample(u, v, -1, TextureFilter.TRILINEAR));
+        assertEquals(0xFF404040, texture.sample(u, v, -0.5f, TextureFilter.TRILINEAR));
+        assertEquals(0xFF808080, texture.sample(u, v, 0, TextureFilter.TRILINEAR));
+        // footprints beyond the chain clamp to its ends
+        assertEquals(BLACK, texture.sample(u, v, -4, TextureFilter.TRILINEAR));
+        assertEquals(0xFF808080, texture.sample(u, v, 3, TextureFilter.TRILINEAR));
+    }
+
+    private static TextureMap map(int w, int h) {
+        return new TextureMap(w, h, new int[w * h]);
+    }
+}